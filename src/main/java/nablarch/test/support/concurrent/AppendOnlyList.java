@@ -0,0 +1,66 @@
+package nablarch.test.support.concurrent;
+
+import java.util.AbstractList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ロックを使用せずに追記する、追記専用のリスト。
+ * <p>
+ * 要素は{@link SegmentedArray}で予約した位置に書き込む。
+ * 追加と読み込みが並行して行われた場合、読み込み側は位置を予約したスレッドが書き込むまで待機する。
+ * </p>
+ * <p>
+ * nullは追加できない。また、要素の変更及び削除はできない。
+ * 本クラスはテストサポートの内部で使用するためのクラスである。
+ * </p>
+ *
+ * @param <E> 要素の型
+ */
+public final class AppendOnlyList<E> extends AbstractList<E> {
+
+    /** 要素を格納するセグメントを生成するオブジェクト */
+    private static final SegmentedArray.SegmentFactory<AtomicReferenceArray<Object>> FACTORY =
+            new SegmentedArray.SegmentFactory<AtomicReferenceArray<Object>>() {
+                @Override
+                public AtomicReferenceArray<Object> create(int size) {
+                    return new AtomicReferenceArray<Object>(size);
+                }
+            };
+
+    /** 要素 */
+    private final SegmentedArray<AtomicReferenceArray<Object>> elements =
+            new SegmentedArray<AtomicReferenceArray<Object>>(FACTORY);
+
+    @Override
+    public boolean add(E element) {
+        if (element == null) {
+            throw new NullPointerException("element must not be null.");
+        }
+        final int index = elements.reserve();
+        elements.segmentForWrite(index)
+                .set(SegmentedArray.offset(index), element);
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        final int size = size();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + size);
+        }
+        final AtomicReferenceArray<Object> segment = elements.segmentForRead(index);
+        final int offset = SegmentedArray.offset(index);
+        Object element;
+        while ((element = segment.get(offset)) == null) {
+            // 位置を予約したスレッドが書き込むまで待機する
+            Thread.yield();
+        }
+        return (E) element;
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+}
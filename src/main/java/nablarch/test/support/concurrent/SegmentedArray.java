@@ -0,0 +1,147 @@
+package nablarch.test.support.concurrent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ロックを使用せずに追記する配列の記憶領域。
+ * <p>
+ * 追加位置は{@link AtomicInteger}で予約し、予約した位置に書き込む。
+ * 記憶領域はサイズが倍々に大きくなるセグメントで構成し、セグメントは必要になった時点でCASにより追加する。
+ * このため、追加時に既存の要素をコピーすることはない。
+ * </p>
+ * <p>
+ * セグメントの型は利用側で決め、セグメント内への書き込みと、書き込みの完了の公開も利用側で行う。
+ * 要素を1つずつ保持する場合は{@link AppendOnlyList}を使用すること。
+ * </p>
+ * <p>
+ * 本クラスはテストサポートの内部で使用するためのクラスである。
+ * </p>
+ *
+ * @param <S> セグメントの型
+ */
+public final class SegmentedArray<S> {
+
+    /**
+     * セグメントを生成するインタフェース。
+     *
+     * @param <S> セグメントの型
+     */
+    public interface SegmentFactory<S> {
+
+        /**
+         * セグメントを生成する。
+         *
+         * @param size セグメントに格納する件数
+         * @return セグメント
+         */
+        S create(int size);
+    }
+
+    /** 最初のセグメントのサイズの2の対数 */
+    private static final int FIRST_SEGMENT_SHIFT = 5;
+
+    /** 最初のセグメントのサイズ */
+    private static final long FIRST_SEGMENT_SIZE = 1L << FIRST_SEGMENT_SHIFT;
+
+    /** セグメント */
+    private final AtomicReferenceArray<S> segments = new AtomicReferenceArray<S>(Integer.SIZE - FIRST_SEGMENT_SHIFT);
+
+    /** 予約済みの件数 */
+    private final AtomicInteger reserved = new AtomicInteger();
+
+    /** セグメントを生成するオブジェクト */
+    private final SegmentFactory<S> factory;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param factory セグメントを生成するオブジェクト
+     */
+    public SegmentedArray(SegmentFactory<S> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * 追加位置を予約する。
+     *
+     * @return 予約した位置
+     * @throws IllegalStateException 格納できる件数の上限に達した場合
+     */
+    public int reserve() {
+        final int index = reserved.getAndIncrement();
+        if (index < 0) {
+            reserved.decrementAndGet();
+            throw new IllegalStateException("array is full.");
+        }
+        return index;
+    }
+
+    /**
+     * 予約済みの件数を取得する。
+     * <p>
+     * 予約済みの位置には、まだ書き込まれていない位置が含まれることがある。
+     * </p>
+     *
+     * @return 件数
+     */
+    public int size() {
+        return Math.max(reserved.get(), 0);
+    }
+
+    /**
+     * 書き込むために、位置を含むセグメントを取得する。存在しない場合は追加する。
+     *
+     * @param index {@link #reserve()}で予約した位置
+     * @return セグメント
+     */
+    public S segmentForWrite(int index) {
+        final int segmentIndex = segmentIndex(index);
+        final S segment = segments.get(segmentIndex);
+        if (segment != null) {
+            return segment;
+        }
+        final S created = factory.create(1 << (segmentIndex + FIRST_SEGMENT_SHIFT));
+        return segments.compareAndSet(segmentIndex, null, created) ? created : segments.get(segmentIndex);
+    }
+
+    /**
+     * 読み込むために、位置を含むセグメントを取得する。
+     * <p>
+     * 位置を予約したスレッドがセグメントを追加するまで待機する。
+     * </p>
+     *
+     * @param index 予約済みの位置
+     * @return セグメント
+     */
+    public S segmentForRead(int index) {
+        final int segmentIndex = segmentIndex(index);
+        S segment;
+        while ((segment = segments.get(segmentIndex)) == null) {
+            Thread.yield();
+        }
+        return segment;
+    }
+
+    /**
+     * セグメント内の位置を算出する。
+     *
+     * @param index 位置
+     * @return セグメント内の位置
+     */
+    public static int offset(int index) {
+        final long position = index + FIRST_SEGMENT_SIZE;
+        return (int) (position - Long.highestOneBit(position));
+    }
+
+    /**
+     * 位置が含まれるセグメントの位置を算出する。
+     *
+     * @param index 位置
+     * @return セグメントの位置
+     */
+    private static int segmentIndex(int index) {
+        final long position = index + FIRST_SEGMENT_SIZE;
+        return Long.SIZE - 1 - Long.numberOfLeadingZeros(position) - FIRST_SEGMENT_SHIFT;
+    }
+}
@@ -0,0 +1,99 @@
+package nablarch.test.support.db.datasource;
+
+import java.sql.Connection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * {@link TestDataSource}から取得され、まだクローズされていないコネクションの情報。
+ *
+ * @see ConnectionPoolMetrics#getOpenConnections()
+ */
+public final class BorrowedConnection {
+
+    /** 取得したスレッドの名前 */
+    private final String threadName;
+
+    /** 取得した時刻 */
+    private final long borrowedAt;
+
+    /** 取得箇所のスタックトレース。取得しない場合はnull */
+    private final Throwable borrowTrace;
+
+    /** リーク検出の範囲を識別するオブジェクト */
+    private final Object leakScope;
+
+    /** 利用者に返したコネクション */
+    private final Connection connection;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param connection 利用者に返したコネクション
+     * @param leakScope リーク検出の範囲を識別するオブジェクト。範囲外で取得された場合はnull
+     * @param captureTrace 取得箇所のスタックトレースを取得する場合はtrue
+     */
+    BorrowedConnection(Connection connection, Object leakScope, boolean captureTrace) {
+        this.connection = connection;
+        this.leakScope = leakScope;
+        threadName = Thread.currentThread()
+                           .getName();
+        borrowedAt = System.currentTimeMillis();
+        borrowTrace = captureTrace ? new Throwable("connection was borrowed by thread [" + threadName + "].") : null;
+    }
+
+    /**
+     * 取得したスレッドの名前を取得する。
+     *
+     * @return 取得したスレッドの名前
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * 取得した時刻を取得する。
+     *
+     * @return 取得した時刻(エポックミリ秒)
+     */
+    public long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    /**
+     * 取得箇所のスタックトレースを取得する。
+     * <p>
+     * スタックトレースは、リーク検出の範囲内で取得された場合、
+     * または{@link TestDataSource#setBorrowTraceEnabled(boolean)}で有効化されている場合のみ取得する。
+     * </p>
+     *
+     * @return 取得箇所のスタックトレースを保持する{@link Throwable}。取得していない場合はnull
+     */
+    public Throwable getBorrowTrace() {
+        return borrowTrace;
+    }
+
+    /**
+     * リーク検出の範囲を識別するオブジェクトを取得する。
+     *
+     * @return リーク検出の範囲を識別するオブジェクト
+     */
+    Object getLeakScope() {
+        return leakScope;
+    }
+
+    /**
+     * 利用者に返したコネクションを取得する。
+     *
+     * @return 利用者に返したコネクション
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public String toString() {
+        return "borrowed at " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(borrowedAt))
+                + " by thread [" + threadName + ']';
+    }
+}
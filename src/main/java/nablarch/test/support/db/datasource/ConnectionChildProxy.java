@@ -0,0 +1,91 @@
+package nablarch.test.support.db.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * コネクションのプロキシから生成したステートメント及び検索結果のプロキシ。
+ * <p>
+ * {@link Statement#getConnection()}はコネクションのプロキシを、{@link ResultSet#getStatement()}は
+ * ステートメントのプロキシを返す。
+ * これにより、利用者が物理コネクションを直接クローズし、プールへの返却やクローズの検知が行われなくなることを防ぐ。
+ * </p>
+ */
+final class ConnectionChildProxy implements InvocationHandler {
+
+    /** 物理ステートメントまたは物理検索結果 */
+    private final Object target;
+
+    /** コネクションのプロキシ */
+    private final Connection connection;
+
+    /** 検索結果を生成したステートメントのプロキシ。ステートメントの場合はnull */
+    private final Object statement;
+
+    /** 利用者に返すプロキシ */
+    private Object proxy;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param target 物理ステートメントまたは物理検索結果
+     * @param connection コネクションのプロキシ
+     * @param statement 検索結果を生成したステートメントのプロキシ
+     */
+    private ConnectionChildProxy(Object target, Connection connection, Object statement) {
+        this.target = target;
+        this.connection = connection;
+        this.statement = statement;
+    }
+
+    /**
+     * プロキシを生成する。
+     *
+     * @param type プロキシが実装するインタフェース
+     * @param target 物理ステートメントまたは物理検索結果
+     * @param connection コネクションのプロキシ
+     * @param statement 検索結果を生成したステートメントのプロキシ。ステートメントの場合はnull
+     * @return プロキシ
+     */
+    static Object wrap(Class<?> type, Object target, Connection connection, Object statement) {
+        final ConnectionChildProxy handler = new ConnectionChildProxy(target, connection, statement);
+        handler.proxy = Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {type}, handler);
+        return handler.proxy;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final String name = method.getName();
+        final int argCount = args == null ? 0 : args.length;
+        if ("getConnection".equals(name) && argCount == 0) {
+            return connection;
+        }
+        if ("getStatement".equals(name) && argCount == 0 && statement != null) {
+            return statement;
+        }
+        if ("equals".equals(name)) {
+            return proxy == args[0];
+        }
+        if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+        if ("toString".equals(name)) {
+            return "proxy of " + target;
+        }
+        final Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+        if (result instanceof ResultSet && statement == null) {
+            return wrap(ResultSet.class, result, connection, this.proxy);
+        }
+        return result;
+    }
+}
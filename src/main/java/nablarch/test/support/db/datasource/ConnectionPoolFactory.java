@@ -0,0 +1,40 @@
+package nablarch.test.support.db.datasource;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+/**
+ * コネクションプールを生成するインタフェース。
+ * <p>
+ * 生成時には、以下のプロパティが指定される(値は全て文字列)。
+ * 指定されていないプロパティは、実装ごとのデフォルト値を使用すること。
+ * </p>
+ * <ul>
+ * <li>driverClassName:JDBCドライバのクラス名</li>
+ * <li>url、username、password:接続情報</li>
+ * <li>initialSize:初期コネクション数</li>
+ * <li>maxActive:最大コネクション数</li>
+ * <li>maxIdle:最大アイドルコネクション数</li>
+ * <li>maxWait:コネクション取得時の最大待機時間(ミリ秒)。0以下の場合は無制限に待機する</li>
+ * <li>validationQuery:コネクションの検証に使用するSQL文</li>
+ * <li>testOnBorrow:取得時にコネクションを検証するか否か</li>
+ * <li>removeAbandoned:返却されないコネクションを回収するか否か</li>
+ * <li>removeAbandonedTimeout:返却されないコネクションを回収するまでの時間(秒)</li>
+ * <li>logAbandoned:回収したコネクションの取得箇所のスタックトレースを出力するか否か</li>
+ * <li>timeBetweenEvictionRunsMillis:アイドルコネクションの検査間隔(ミリ秒)</li>
+ * </ul>
+ *
+ * @see DataSourceFactory#setConnectionPoolFactory(ConnectionPoolFactory)
+ */
+public interface ConnectionPoolFactory {
+
+    /**
+     * コネクションプールを生成する。
+     *
+     * @param properties プロパティ
+     * @return コネクションプール
+     * @throws Exception コネクションプールの生成に失敗した場合
+     */
+    DataSource createPool(Properties properties) throws Exception;
+}
@@ -0,0 +1,148 @@
+package nablarch.test.support.db.datasource;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * コネクションプールの利用状況。
+ * <p>
+ * {@link TestDataSource#getMetrics()}を呼び出した時点のスナップショットである。
+ * コネクションの取得待ち時間は、{@link #WAIT_HISTOGRAM_BOUNDS_MILLIS}を上限とする区間ごとの件数で保持する。
+ * </p>
+ */
+public final class ConnectionPoolMetrics {
+
+    /** 取得待ち時間のヒストグラムの各区間の上限(ミリ秒)。最後の区間はこれを超える待ち時間の件数となる */
+    public static final long[] WAIT_HISTOGRAM_BOUNDS_MILLIS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    /** 貸し出し中のコネクション数 */
+    private final int activeCount;
+
+    /** アイドルコネクション数 */
+    private final int idleCount;
+
+    /** コネクションの取得回数 */
+    private final long borrowCount;
+
+    /** 最大の取得待ち時間(ナノ秒) */
+    private final long maxWaitNanos;
+
+    /** 取得待ち時間のヒストグラム */
+    private final long[] waitHistogram;
+
+    /** クローズされていないコネクション */
+    private final List<BorrowedConnection> openConnections;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param idleCount アイドルコネクション数
+     * @param borrowCount コネクションの取得回数
+     * @param maxWaitNanos 最大の取得待ち時間(ナノ秒)
+     * @param waitHistogram 取得待ち時間のヒストグラム
+     * @param openConnections クローズされていないコネクション
+     */
+    ConnectionPoolMetrics(int idleCount, long borrowCount, long maxWaitNanos, long[] waitHistogram,
+            List<BorrowedConnection> openConnections) {
+        activeCount = openConnections.size();
+        this.idleCount = idleCount;
+        this.borrowCount = borrowCount;
+        this.maxWaitNanos = maxWaitNanos;
+        this.waitHistogram = waitHistogram;
+        this.openConnections = Collections.unmodifiableList(openConnections);
+    }
+
+    /**
+     * 貸し出し中のコネクション数を取得する。
+     *
+     * @return 貸し出し中のコネクション数
+     */
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * アイドルコネクション数を取得する。
+     *
+     * @return アイドルコネクション数。コネクションプールから取得できない場合は-1
+     */
+    public int getIdleCount() {
+        return idleCount;
+    }
+
+    /**
+     * コネクションの取得回数を取得する。
+     *
+     * @return コネクションの取得回数
+     */
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    /**
+     * 最大の取得待ち時間を取得する。
+     *
+     * @return 最大の取得待ち時間(ミリ秒)
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /**
+     * 取得待ち時間のヒストグラムを取得する。
+     * <p>
+     * 要素数は{@link #WAIT_HISTOGRAM_BOUNDS_MILLIS}の要素数+1となる。
+     * i番目の要素は、待ち時間が{@code WAIT_HISTOGRAM_BOUNDS_MILLIS[i]}ミリ秒以下(かつ前の区間の上限を超える)取得の回数である。
+     * </p>
+     *
+     * @return 取得待ち時間のヒストグラム
+     */
+    public long[] getWaitHistogram() {
+        return waitHistogram.clone();
+    }
+
+    /**
+     * クローズされていないコネクションを取得する。
+     *
+     * @return クローズされていないコネクション
+     */
+    public List<BorrowedConnection> getOpenConnections() {
+        return openConnections;
+    }
+
+    /**
+     * 利用状況と、クローズされていないコネクションの取得箇所を出力した文字列を返す。
+     *
+     * @return 文字列
+     */
+    @Override
+    public String toString() {
+        final StringWriter out = new StringWriter();
+        final PrintWriter writer = new PrintWriter(out);
+        writer.print("active = " + activeCount + ", idle = " + idleCount + ", borrowed = " + borrowCount
+                + ", max wait = " + getMaxWaitMillis() + "ms, wait histogram = {");
+        for (int i = 0; i < waitHistogram.length; i++) {
+            if (i != 0) {
+                writer.print(", ");
+            }
+            writer.print(i < WAIT_HISTOGRAM_BOUNDS_MILLIS.length
+                    ? "<=" + WAIT_HISTOGRAM_BOUNDS_MILLIS[i] + "ms: "
+                    : ">" + WAIT_HISTOGRAM_BOUNDS_MILLIS[i - 1] + "ms: ");
+            writer.print(waitHistogram[i]);
+        }
+        writer.println('}');
+        for (BorrowedConnection connection : openConnections) {
+            final Throwable trace = connection.getBorrowTrace();
+            if (trace == null) {
+                writer.println(connection);
+            } else {
+                trace.printStackTrace(writer);
+            }
+        }
+        writer.flush();
+        return out.toString();
+    }
+}
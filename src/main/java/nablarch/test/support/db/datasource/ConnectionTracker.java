@@ -0,0 +1,200 @@
+package nablarch.test.support.db.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * コネクションプールから取得したコネクションを追跡するクラス。
+ * <p>
+ * 取得したコネクションをプロキシで包み、クローズされるまで取得箇所の情報を保持する。
+ * コネクションから生成したステートメント及び検索結果もプロキシで包み、物理コネクションを直接クローズさせない。
+ * また、コネクションの取得待ち時間を記録する。
+ * </p>
+ */
+final class ConnectionTracker {
+
+    /** ヒストグラムの各区間の上限(ナノ秒) */
+    private static final long[] BOUNDS_NANOS = new long[ConnectionPoolMetrics.WAIT_HISTOGRAM_BOUNDS_MILLIS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+            BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(ConnectionPoolMetrics.WAIT_HISTOGRAM_BOUNDS_MILLIS[i]);
+        }
+    }
+
+    /** クローズされていないコネクション */
+    private final ConcurrentMap<Handle, BorrowedConnection> open = new ConcurrentHashMap<Handle, BorrowedConnection>();
+
+    /** コネクションの取得回数 */
+    private final AtomicLong borrowCount = new AtomicLong();
+
+    /** 最大の取得待ち時間(ナノ秒) */
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /** 取得待ち時間のヒストグラム */
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(BOUNDS_NANOS.length + 1);
+
+    /**
+     * コネクションプールから取得したコネクションの追跡を開始する。
+     *
+     * @param physical コネクションプールから取得したコネクション
+     * @param startNanos 取得を開始した時刻({@link System#nanoTime()})
+     * @param leakScope リーク検出の範囲を識別するオブジェクト
+     * @param captureTrace 取得箇所のスタックトレースを取得する場合はtrue
+     * @return 追跡対象のコネクション
+     */
+    Connection track(Connection physical, long startNanos, Object leakScope, boolean captureTrace) {
+        recordWait(System.nanoTime() - startNanos);
+        final Handle handle = new Handle(physical);
+        open.put(handle, new BorrowedConnection(handle.proxy, leakScope, captureTrace));
+        return handle.proxy;
+    }
+
+    /**
+     * コネクションの取得に失敗した例外に、クローズされていないコネクションの取得箇所を付加する。
+     *
+     * @param e コネクションの取得に失敗した例外
+     * @return クローズされていないコネクションが存在する場合は取得箇所をメッセージに含めた例外、存在しない場合は元の例外
+     */
+    SQLException describeFailure(SQLException e) {
+        if (open.isEmpty()) {
+            return e;
+        }
+        return new SQLException(e.getMessage() + " open connections: " + snapshot(-1), e.getSQLState(),
+                e.getErrorCode(), e);
+    }
+
+    /**
+     * 取得待ち時間を記録する。
+     *
+     * @param waitNanos 取得待ち時間(ナノ秒)
+     */
+    private void recordWait(long waitNanos) {
+        borrowCount.incrementAndGet();
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && waitNanos > BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        waitHistogram.incrementAndGet(bucket);
+        long max;
+        while (waitNanos > (max = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(max, waitNanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * リーク検出の範囲内で取得され、クローズされていないコネクションをクローズする。
+     *
+     * @param leakScope リーク検出の範囲を識別するオブジェクト
+     * @return クローズしたコネクション
+     */
+    List<BorrowedConnection> closeLeaked(Object leakScope) {
+        final List<BorrowedConnection> leaked = new ArrayList<BorrowedConnection>();
+        for (BorrowedConnection borrowed : open.values()) {
+            if (borrowed.getLeakScope() == leakScope) {
+                leaked.add(borrowed);
+                try {
+                    borrowed.getConnection()
+                            .close();
+                } catch (SQLException ignore) {
+                    // NOP
+                }
+            }
+        }
+        return leaked;
+    }
+
+    /**
+     * 利用状況のスナップショットを取得する。
+     *
+     * @param idleCount アイドルコネクション数
+     * @return 利用状況
+     */
+    ConnectionPoolMetrics snapshot(int idleCount) {
+        final long[] histogram = new long[waitHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = waitHistogram.get(i);
+        }
+        return new ConnectionPoolMetrics(idleCount, borrowCount.get(), maxWaitNanos.get(), histogram,
+                new ArrayList<BorrowedConnection>(open.values()));
+    }
+
+    /**
+     * 取得されたコネクションに対する操作を物理コネクションに委譲し、クローズを検知する{@link InvocationHandler}。
+     */
+    private class Handle implements InvocationHandler {
+
+        /** 物理コネクション */
+        private final Connection physical;
+
+        /** 利用者に返すプロキシ */
+        private final Connection proxy;
+
+        /** クローズ済みか否か */
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * コンストラクタ。
+         *
+         * @param physical 物理コネクション
+         */
+        Handle(Connection physical) {
+            this.physical = physical;
+            proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("close".equals(name)) {
+                if (closed.compareAndSet(false, true)) {
+                    open.remove(this);
+                    physical.close();
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return closed.get() || physical.isClosed();
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(name)) {
+                return "tracked connection of " + physical;
+            }
+            if (closed.get()) {
+                throw new SQLException("connection has already been closed.");
+            }
+            final Object result;
+            try {
+                result = method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+            if (result instanceof Statement) {
+                // ステートメントから物理コネクションを取得してクローズされると追跡が外れないため、ステートメントもプロキシとする
+                return ConnectionChildProxy.wrap(method.getReturnType(), result, this.proxy, null);
+            }
+            return result;
+        }
+    }
+}
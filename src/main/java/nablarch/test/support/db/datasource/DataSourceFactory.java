@@ -1,12 +1,12 @@
 package nablarch.test.support.db.datasource;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
 import nablarch.core.util.StringUtil;
-import org.apache.commons.dbcp.BasicDataSourceFactory;
 
 import nablarch.core.repository.di.ComponentFactory;
 
@@ -26,12 +26,46 @@ public class DataSourceFactory implements ComponentFactory<DataSource> {
 
     private String maxIdle;
 
+    private String maxActive = "30";
+
+    private String maxWait;
+
+    private String validationQuery;
+
+    private String testOnBorrow;
+
+    private String removeAbandoned;
+
+    private String removeAbandonedTimeout;
+
+    private String logAbandoned;
+
+    private String timeBetweenEvictionRunsMillis = "5000";
+
+    private ConnectionPoolFactory connectionPoolFactory = new DbcpConnectionPoolFactory();
+
     private DbInitializer dbInitializer;
 
     @Override
-    public synchronized DataSource createObject() {
+    public DataSource createObject() {
+        // テストクラスを並列実行した場合、複数のリポジトリから同時に呼び出されるためクラス単位で排他する
+        synchronized (DataSourceFactory.class) {
+            return createDataSource();
+        }
+    }
+
+    /**
+     * データソースを生成する。
+     * <p>
+     * 生成済みの場合は、生成済みのデータソースを返す。
+     * </p>
+     *
+     * @return データソース
+     */
+    private DataSource createDataSource() {
 
         if (dataSource != null) {
+            initializeWorkerSchemas((TestDataSource) dataSource);
             return dataSource;
         }
 
@@ -42,14 +76,19 @@ public class DataSourceFactory implements ComponentFactory<DataSource> {
             properties.setProperty("username", user);
             properties.setProperty("password", password);
             properties.setProperty("url", url);
-            properties.setProperty("initialSize", initialSize);
-            properties.setProperty("maxActive", "30");
-            if (StringUtil.hasValue(maxIdle)) {
-                properties.setProperty("maxIdle", maxIdle);
-            }
-
-            properties.setProperty("timeBetweenEvictionRunsMillis", "5000");
-            dataSource = BasicDataSourceFactory.createDataSource(properties);
+            setIfPresent(properties, "initialSize", initialSize);
+            setIfPresent(properties, "maxActive", maxActive);
+            setIfPresent(properties, "maxIdle", maxIdle);
+            setIfPresent(properties, "maxWait", maxWait);
+            setIfPresent(properties, "validationQuery", validationQuery);
+            setIfPresent(properties, "testOnBorrow", testOnBorrow);
+            setIfPresent(properties, "removeAbandoned", removeAbandoned);
+            setIfPresent(properties, "removeAbandonedTimeout", removeAbandonedTimeout);
+            setIfPresent(properties, "logAbandoned", logAbandoned);
+            setIfPresent(properties, "timeBetweenEvictionRunsMillis", timeBetweenEvictionRunsMillis);
+            final TestDataSource testDataSource = new TestDataSource(connectionPoolFactory.createPool(properties));
+            testDataSource.setBorrowTraceEnabled(Boolean.parseBoolean(logAbandoned));
+            dataSource = testDataSource;
             final Connection connection = dataSource.getConnection();
             try {
                 if (dbInitializer != null) {
@@ -58,12 +97,58 @@ public class DataSourceFactory implements ComponentFactory<DataSource> {
             } finally {
                 connection.close();
             }
+            initializeWorkerSchemas(testDataSource);
         } catch (Exception e) {
-            e.printStackTrace();
+            dataSource = null;
+            throw new IllegalStateException("failed to create data source. url = " + url, e);
         }
         return dataSource;
     }
 
+    /**
+     * 値が指定されている場合のみプロパティを設定する。
+     *
+     * @param properties プロパティ
+     * @param key キー
+     * @param value 値
+     */
+    private static void setIfPresent(Properties properties, String key, String value) {
+        if (StringUtil.hasValue(value)) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    /**
+     * ワーカごとのスキーマを作成し、データソースでスキーマの切り替えを行うよう設定する。
+     * <p>
+     * ワーカを使用しない場合、{@link DbInitializer}が{@link WorkerSchemaSupport}を実装していない場合、
+     * またはデータソースに設定済みの場合は何もしない。
+     * </p>
+     *
+     * @param testDataSource データソース
+     */
+    private void initializeWorkerSchemas(TestDataSource testDataSource) {
+        if (!DbWorker.isEnabled()
+                || !(dbInitializer instanceof WorkerSchemaSupport)
+                || testDataSource.getWorkerSchemaSupport() != null) {
+            return;
+        }
+        final WorkerSchemaSupport workerSchemaSupport = (WorkerSchemaSupport) dbInitializer;
+        try {
+            final Connection connection = testDataSource.getConnection();
+            try {
+                for (int i = 1; i <= DbWorker.getWorkerCount(); i++) {
+                    workerSchemaSupport.createWorkerSchema(connection, DbWorker.getSchemaName(i));
+                }
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("failed to create worker schemas.", e);
+        }
+        testDataSource.setWorkerSchemaSupport(workerSchemaSupport);
+    }
+
     public void setUser(String user) {
         this.user = user;
     }
@@ -84,6 +169,51 @@ public class DataSourceFactory implements ComponentFactory<DataSource> {
         this.maxIdle = maxIdle;
     }
 
+    public void setMaxActive(String maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    public void setMaxWait(String maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    public void setTestOnBorrow(String testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    public void setRemoveAbandoned(String removeAbandoned) {
+        this.removeAbandoned = removeAbandoned;
+    }
+
+    public void setRemoveAbandonedTimeout(String removeAbandonedTimeout) {
+        this.removeAbandonedTimeout = removeAbandonedTimeout;
+    }
+
+    public void setLogAbandoned(String logAbandoned) {
+        this.logAbandoned = logAbandoned;
+    }
+
+    public void setTimeBetweenEvictionRunsMillis(String timeBetweenEvictionRunsMillis) {
+        this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+    }
+
+    /**
+     * コネクションプールを生成する{@link ConnectionPoolFactory}を設定する。
+     * <p>
+     * デフォルトはDBCPを使用する{@link DbcpConnectionPoolFactory}。
+     * 多数のスレッドから同時にコネクションを取得する場合は{@link LockFreeConnectionPoolFactory}を使用すること。
+     * </p>
+     *
+     * @param connectionPoolFactory コネクションプールを生成する{@link ConnectionPoolFactory}
+     */
+    public void setConnectionPoolFactory(ConnectionPoolFactory connectionPoolFactory) {
+        this.connectionPoolFactory = connectionPoolFactory;
+    }
+
     public void setDriverClassName(final String driverClassName) {
         this.driverClassName = driverClassName;
     }
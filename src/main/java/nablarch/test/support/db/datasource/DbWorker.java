@@ -0,0 +1,140 @@
+package nablarch.test.support.db.datasource;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * テストを並列実行するワーカを管理するクラス。
+ * <p>
+ * システムプロパティ{@value #WORKER_COUNT_PROPERTY}にワーカ数を指定すると、
+ * ワーカごとに{@code WORKER_1}〜{@code WORKER_n}のスキーマが作成され、
+ * ワーカを割り当てられたスレッド(及びそのスレッドから生成されたスレッド)が取得するコネクションは、
+ * そのワーカのスキーマをカレントスキーマとして使用する。
+ * ワーカ数には、テストを並列実行するスレッド数を指定すること。
+ * </p>
+ * <p>
+ * スキーマ名を明示的に指定したテーブルは、ワーカ間で共有されることに注意すること。
+ * </p>
+ */
+public final class DbWorker {
+
+    /** ワーカ数を指定するシステムプロパティ */
+    public static final String WORKER_COUNT_PROPERTY = "nablarch.test.db.workers";
+
+    /** ワーカ数 */
+    private static final int WORKER_COUNT = Integer.getInteger(WORKER_COUNT_PROPERTY, 0);
+
+    /** 割り当て可能なワーカのID */
+    private static final BlockingQueue<Integer> IDLE_WORKERS = new LinkedBlockingQueue<Integer>();
+
+    /** スレッドに割り当てられたワーカのスキーマ名 */
+    private static final InheritableThreadLocal<String> CURRENT_SCHEMA = new InheritableThreadLocal<String>();
+
+    static {
+        for (int i = 1; i <= WORKER_COUNT; i++) {
+            IDLE_WORKERS.add(i);
+        }
+    }
+
+    /**
+     * このクラスのインスタンスは作成不可。
+     */
+    private DbWorker() {
+    }
+
+    /**
+     * ワーカを使用するか否か。
+     *
+     * @return ワーカ数が指定されている場合はtrue
+     */
+    public static boolean isEnabled() {
+        return WORKER_COUNT > 0;
+    }
+
+    /**
+     * ワーカ数を取得する。
+     *
+     * @return ワーカ数
+     */
+    public static int getWorkerCount() {
+        return WORKER_COUNT;
+    }
+
+    /**
+     * ワーカのスキーマ名を取得する。
+     *
+     * @param workerId ワーカのID
+     * @return スキーマ名
+     */
+    public static String getSchemaName(int workerId) {
+        return "WORKER_" + workerId;
+    }
+
+    /**
+     * ワーカを確保する。
+     * <p>
+     * 確保可能なワーカがない場合は、ワーカが解放されるまで待機する。
+     * ワーカを使用しない場合は何もせずに0を返す。
+     * </p>
+     *
+     * @return 確保したワーカのID
+     */
+    public static int acquire() {
+        if (!isEnabled()) {
+            return 0;
+        }
+        try {
+            return IDLE_WORKERS.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for an idle worker.", e);
+        }
+    }
+
+    /**
+     * 確保したワーカを解放する。
+     *
+     * @param workerId {@link #acquire()}で確保したワーカのID
+     */
+    public static void release(int workerId) {
+        if (workerId != 0) {
+            IDLE_WORKERS.add(workerId);
+        }
+    }
+
+    /**
+     * 現在のスレッドにワーカを割り当てる。
+     *
+     * @param workerId {@link #acquire()}で確保したワーカのID
+     * @return 割り当て前のワーカのスキーマ名。{@link #unbind(String)}に渡すこと
+     */
+    public static String bind(int workerId) {
+        final String previous = CURRENT_SCHEMA.get();
+        if (workerId != 0) {
+            CURRENT_SCHEMA.set(getSchemaName(workerId));
+        }
+        return previous;
+    }
+
+    /**
+     * 現在のスレッドへのワーカの割り当てを、{@link #bind(int)}を呼び出す前の状態に戻す。
+     *
+     * @param previousSchema {@link #bind(int)}の戻り値
+     */
+    public static void unbind(String previousSchema) {
+        if (previousSchema == null) {
+            CURRENT_SCHEMA.remove();
+        } else {
+            CURRENT_SCHEMA.set(previousSchema);
+        }
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたワーカのスキーマ名を取得する。
+     *
+     * @return スキーマ名。ワーカが割り当てられていない場合はnull
+     */
+    public static String getCurrentSchema() {
+        return CURRENT_SCHEMA.get();
+    }
+}
@@ -0,0 +1,22 @@
+package nablarch.test.support.db.datasource;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSourceFactory;
+
+/**
+ * commons-dbcpのコネクションプールを生成するクラス。
+ * <p>
+ * {@link DataSourceFactory}のデフォルトのコネクションプールである。
+ * プロパティはそのままcommons-dbcpに設定する。
+ * </p>
+ */
+public class DbcpConnectionPoolFactory implements ConnectionPoolFactory {
+
+    @Override
+    public DataSource createPool(Properties properties) throws Exception {
+        return BasicDataSourceFactory.createDataSource(properties);
+    }
+}
@@ -0,0 +1,127 @@
+package nablarch.test.support.db.datasource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 実行されたSQL文の記録。
+ *
+ * @see SqlRecorder
+ */
+public final class ExecutedSql {
+
+    /** SQL文 */
+    private final String sql;
+
+    /** バインド変数の数 */
+    private final int bindCount;
+
+    /** バッチで実行した件数。バッチでない場合は0 */
+    private final int batchSize;
+
+    /** 実行時間(ナノ秒) */
+    private final long elapsedNanos;
+
+    /** 実行したスレッドの名前 */
+    private final String threadName;
+
+    /** フェッチした行数 */
+    private final AtomicLong rowsFetched = new AtomicLong();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param sql SQL文
+     * @param bindCount バインド変数の数
+     * @param batchSize バッチで実行した件数。バッチでない場合は0
+     * @param elapsedNanos 実行時間(ナノ秒)
+     */
+    ExecutedSql(String sql, int bindCount, int batchSize, long elapsedNanos) {
+        this.sql = sql;
+        this.bindCount = bindCount;
+        this.batchSize = batchSize;
+        this.elapsedNanos = elapsedNanos;
+        threadName = Thread.currentThread()
+                           .getName();
+    }
+
+    /**
+     * SQL文を取得する。
+     *
+     * @return SQL文
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * バインド変数の数を取得する。
+     *
+     * @return バインド変数の数
+     */
+    public int getBindCount() {
+        return bindCount;
+    }
+
+    /**
+     * バッチで実行した件数を取得する。
+     *
+     * @return バッチで実行した件数。バッチでない場合は0
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 実行時間を取得する。
+     * <p>
+     * 結果セットの読み込みにかかった時間は含まない。
+     * </p>
+     *
+     * @return 実行時間(マイクロ秒)
+     */
+    public long getElapsedMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+    }
+
+    /**
+     * 実行したスレッドの名前を取得する。
+     *
+     * @return 実行したスレッドの名前
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * 結果セットからフェッチした行数を取得する。
+     *
+     * @return フェッチした行数
+     */
+    public long getRowsFetched() {
+        return rowsFetched.get();
+    }
+
+    /**
+     * 問い合わせ(SELECT文)か否か。
+     *
+     * @return SELECT文またはWITH句で始まる場合はtrue
+     */
+    public boolean isQuery() {
+        final String trimmed = sql.trim();
+        return trimmed.regionMatches(true, 0, "SELECT", 0, 6) || trimmed.regionMatches(true, 0, "WITH", 0, 4);
+    }
+
+    /**
+     * フェッチした行数を加算する。
+     */
+    void incrementRowsFetched() {
+        rowsFetched.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return sql + " [bind = " + bindCount + (batchSize != 0 ? ", batch = " + batchSize : "") + ", rows = "
+                + rowsFetched.get() + ", elapsed = " + getElapsedMicros() + "us, thread = " + threadName + ']';
+    }
+}
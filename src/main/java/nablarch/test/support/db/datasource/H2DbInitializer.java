@@ -1,17 +1,36 @@
 package nablarch.test.support.db.datasource;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.Statement;
 
 /**
  *
  */
-public class H2DbInitializer implements DbInitializer {
+public class H2DbInitializer implements DbInitializer, WorkerSchemaSupport {
 
     @Override
     public void initialize(final Connection connection) throws Exception {
+        execute(connection, "create schema if not exists ssd_master");
+        execute(connection, "create schema if not exists test_schema");
+    }
+
+    @Override
+    public void createWorkerSchema(final Connection connection, final String schemaName) throws SQLException {
+        execute(connection, "create schema if not exists " + schemaName);
+    }
+
+    @Override
+    public void switchSchema(final Connection connection, final String schemaName) throws SQLException {
+        execute(connection, "set schema " + (schemaName != null ? schemaName : "PUBLIC"));
+    }
+
+    private static void execute(final Connection connection, final String sql) throws SQLException {
         final Statement statement = connection.createStatement();
-        statement.execute("create schema ssd_master");
-        statement.execute("create schema test_schema");
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
     }
 }
@@ -0,0 +1,485 @@
+package nablarch.test.support.db.datasource;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import nablarch.core.util.StringUtil;
+
+/**
+ * ロックを使用しないコネクションプール。
+ * <p>
+ * アイドルコネクションはロックフリーのキューで保持し、最大コネクション数は非公平な{@link Semaphore}で制御する。
+ * このため、コネクションの取得及び返却でスレッドがモニタを奪い合うことはない。
+ * 設定可能なプロパティは{@link ConnectionPoolFactory}を参照。
+ * </p>
+ * <p>
+ * 返却されたコネクションは、自動コミットが無効な場合はロールバックしてから自動コミットを有効に戻し、プールに戻す。
+ * </p>
+ * <p>
+ * 利用者に返すコネクションと、そこから生成したステートメント及び検索結果はプロキシであり、
+ * {@link Statement#getConnection()}等で物理コネクションを取得することはできない。
+ * </p>
+ */
+public class LockFreeConnectionPool implements DataSource {
+
+    /** 接続URL */
+    private final String url;
+
+    /** 接続情報 */
+    private final Properties connectionInfo = new Properties();
+
+    /** 最大アイドルコネクション数 */
+    private final int maxIdle;
+
+    /** コネクション取得時の最大待機時間(ミリ秒)。0以下の場合は無期限に待機する */
+    private final long maxWait;
+
+    /** コネクションの検証に使用するSQL文 */
+    private final String validationQuery;
+
+    /** 取得時にコネクションを検証するか否か */
+    private final boolean testOnBorrow;
+
+    /** 返却されないコネクションを回収するか否か */
+    private final boolean removeAbandoned;
+
+    /** 返却されないコネクションを回収するまでの時間(ミリ秒) */
+    private final long removeAbandonedTimeout;
+
+    /** 回収したコネクションの取得箇所のスタックトレースを出力するか否か */
+    private final boolean logAbandoned;
+
+    /** 取得可能なコネクション数 */
+    private final Semaphore permits;
+
+    /** アイドルコネクション */
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+
+    /** アイドルコネクション数 */
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /** 貸し出し中のコネクション */
+    private final ConcurrentMap<PooledConnection, Boolean> active = new ConcurrentHashMap<PooledConnection, Boolean>();
+
+    /** クローズ済みか否か */
+    private volatile boolean closed;
+
+    /** ログの出力先 */
+    private volatile PrintWriter logWriter = new PrintWriter(System.out, true);
+
+    /** ログインタイムアウト(秒) */
+    private volatile int loginTimeout;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param properties プロパティ
+     * @throws Exception JDBCドライバのロード、または初期コネクションの生成に失敗した場合
+     */
+    public LockFreeConnectionPool(Properties properties) throws Exception {
+        final String driverClassName = properties.getProperty("driverClassName");
+        if (StringUtil.hasValue(driverClassName)) {
+            Class.forName(driverClassName);
+        }
+        url = properties.getProperty("url");
+        if (properties.getProperty("username") != null) {
+            connectionInfo.setProperty("user", properties.getProperty("username"));
+        }
+        if (properties.getProperty("password") != null) {
+            connectionInfo.setProperty("password", properties.getProperty("password"));
+        }
+        final int maxActive = getInt(properties, "maxActive", 8);
+        maxIdle = getInt(properties, "maxIdle", maxActive);
+        maxWait = getInt(properties, "maxWait", -1);
+        validationQuery = properties.getProperty("validationQuery");
+        testOnBorrow = Boolean.valueOf(properties.getProperty("testOnBorrow", "false"));
+        removeAbandoned = Boolean.valueOf(properties.getProperty("removeAbandoned", "false"));
+        removeAbandonedTimeout = TimeUnit.SECONDS.toMillis(getInt(properties, "removeAbandonedTimeout", 300));
+        logAbandoned = Boolean.valueOf(properties.getProperty("logAbandoned", "false"));
+        if (maxActive < 1) {
+            throw new IllegalArgumentException("maxActive must be greater than 0. maxActive = " + maxActive);
+        }
+        permits = new Semaphore(maxActive, false);
+
+        final int initialSize = Math.min(getInt(properties, "initialSize", 0), maxIdle);
+        for (int i = 0; i < initialSize; i++) {
+            idle.add(createPhysicalConnection());
+            idleCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 整数のプロパティを取得する。
+     *
+     * @param properties プロパティ
+     * @param key キー
+     * @param defaultValue 指定されていない場合の値
+     * @return プロパティの値
+     */
+    private static int getInt(Properties properties, String key, int defaultValue) {
+        final String value = properties.getProperty(key);
+        return StringUtil.hasValue(value) ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool has already been closed.");
+        }
+        acquirePermit();
+        try {
+            Connection physical;
+            while ((physical = idle.poll()) != null) {
+                idleCount.decrementAndGet();
+                if (!testOnBorrow || validate(physical)) {
+                    break;
+                }
+                closeQuietly(physical);
+            }
+            if (physical == null) {
+                physical = createPhysicalConnection();
+            }
+            final PooledConnection pooled = new PooledConnection(physical);
+            active.put(pooled, Boolean.TRUE);
+            return pooled.proxy;
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * サポートしない。
+     *
+     * @throws SQLFeatureNotSupportedException 常に送出する
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("getConnection(username, password) is not supported.");
+    }
+
+    /**
+     * コネクションを取得できるまで待機する。
+     *
+     * @throws SQLException 最大待機時間を超えた場合、または待機中に割り込まれた場合
+     */
+    private void acquirePermit() throws SQLException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (removeAbandoned && removeAbandonedConnections() && permits.tryAcquire()) {
+            return;
+        }
+        try {
+            // DBCPと同じく、0以下の場合は無期限に待機する
+            if (maxWait <= 0) {
+                permits.acquire();
+                return;
+            }
+            if (permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                  .interrupt();
+            throw new SQLException("interrupted while waiting for a connection.", e);
+        }
+        throw new SQLException("cannot get a connection, pool exhausted. maxWait = " + maxWait + "ms, active = "
+                + active.size());
+    }
+
+    /**
+     * 返却されないまま回収時間を経過したコネクションを回収する。
+     *
+     * @return 1つ以上回収した場合はtrue
+     */
+    private boolean removeAbandonedConnections() {
+        final long threshold = System.currentTimeMillis() - removeAbandonedTimeout;
+        boolean removed = false;
+        for (PooledConnection pooled : active.keySet()) {
+            if (pooled.borrowedAt <= threshold && pooled.abandon()) {
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 物理コネクションを生成する。
+     *
+     * @return 物理コネクション
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private Connection createPhysicalConnection() throws SQLException {
+        return DriverManager.getConnection(url, connectionInfo);
+    }
+
+    /**
+     * コネクションが使用可能か検証する。
+     *
+     * @param physical 物理コネクション
+     * @return 使用可能な場合はtrue
+     */
+    private boolean validate(Connection physical) {
+        try {
+            if (!StringUtil.hasValue(validationQuery)) {
+                return physical.isValid(loginTimeout);
+            }
+            final Statement statement = physical.createStatement();
+            try {
+                statement.execute(validationQuery);
+            } finally {
+                statement.close();
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 返却されたコネクションをプールに戻す。
+     * <p>
+     * プールがクローズ済みの場合、アイドルコネクション数が上限に達している場合、
+     * またはコネクションの状態を戻せなかった場合は、物理コネクションをクローズする。
+     * </p>
+     *
+     * @param physical 物理コネクション
+     */
+    private void giveBack(Connection physical) {
+        boolean reusable = !closed;
+        if (reusable) {
+            try {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                reusable = false;
+            }
+        }
+        if (reusable && idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(physical);
+            // 戻す前にプールがクローズされた場合、クローズ処理で回収されないため自ら取り除いてクローズする
+            if (closed && idle.remove(physical)) {
+                idleCount.decrementAndGet();
+                closeQuietly(physical);
+            }
+        } else {
+            if (reusable) {
+                idleCount.decrementAndGet();
+            }
+            closeQuietly(physical);
+        }
+        permits.release();
+    }
+
+    /**
+     * コネクションプールをクローズする。
+     * <p>
+     * アイドルコネクションをクローズする。貸し出し中のコネクションは返却時にクローズされる。
+     * </p>
+     */
+    public void close() {
+        closed = true;
+        Connection physical;
+        while ((physical = idle.poll()) != null) {
+            idleCount.decrementAndGet();
+            closeQuietly(physical);
+        }
+    }
+
+    /**
+     * コネクションをクローズする。例外は無視する。
+     *
+     * @param connection コネクション
+     */
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignore) {
+            // NOP
+        }
+    }
+
+    /**
+     * 貸し出し中のコネクション数を取得する。
+     *
+     * @return 貸し出し中のコネクション数
+     */
+    public int getNumActive() {
+        return active.size();
+    }
+
+    /**
+     * アイドルコネクション数を取得する。
+     *
+     * @return アイドルコネクション数
+     */
+    public int getNumIdle() {
+        return idleCount.get();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return loginTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * この実装ではサポートしない。
+     * </p>
+     */
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("getParentLogger is not supported.");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * 貸し出し中のコネクション。
+     * <p>
+     * 利用者にはプロキシを返し、クローズされた時点で物理コネクションをプールに戻す。
+     * </p>
+     */
+    private class PooledConnection implements InvocationHandler {
+
+        /** 物理コネクション */
+        private final Connection physical;
+
+        /** 利用者に返すプロキシ */
+        private final Connection proxy;
+
+        /** 取得した時刻 */
+        private final long borrowedAt = System.currentTimeMillis();
+
+        /** 取得箇所のスタックトレース */
+        private final Throwable borrowedBy;
+
+        /** 返却済みまたは回収済みか否か */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * コンストラクタ。
+         *
+         * @param physical 物理コネクション
+         */
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            borrowedBy = logAbandoned ? new Throwable("connection was borrowed here.") : null;
+            proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, this);
+        }
+
+        /**
+         * 返却されないコネクションとして回収する。
+         * <p>
+         * 物理コネクションはクローズし、プールには戻さない。
+         * </p>
+         *
+         * @return 回収した場合はtrue。既に返却済みの場合はfalse
+         */
+        boolean abandon() {
+            if (!released.compareAndSet(false, true)) {
+                return false;
+            }
+            active.remove(this);
+            final PrintWriter writer = logWriter;
+            if (borrowedBy != null && writer != null) {
+                writer.println("abandoned connection was removed. connection = " + physical);
+                borrowedBy.printStackTrace(writer);
+            }
+            closeQuietly(physical);
+            permits.release();
+            return true;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("close".equals(name)) {
+                if (released.compareAndSet(false, true)) {
+                    active.remove(this);
+                    giveBack(physical);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return released.get();
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(name)) {
+                return "pooled connection of " + physical;
+            }
+            if (released.get()) {
+                throw new SQLException("connection has already been closed.");
+            }
+            final Object result;
+            try {
+                result = method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+            if (result instanceof Statement) {
+                // ステートメントから物理コネクションを取得してクローズされないよう、ステートメントもプロキシとする
+                return ConnectionChildProxy.wrap(method.getReturnType(), result, this.proxy, null);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package nablarch.test.support.db.datasource;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+/**
+ * {@link LockFreeConnectionPool}を生成するクラス。
+ * <p>
+ * 多数のスレッドから同時にコネクションを取得するテストで、
+ * コネクションプールの排他制御がボトルネックとならないようにする場合に使用する。
+ * timeBetweenEvictionRunsMillisは使用しない。
+ * </p>
+ */
+public class LockFreeConnectionPoolFactory implements ConnectionPoolFactory {
+
+    @Override
+    public DataSource createPool(Properties properties) throws Exception {
+        return new LockFreeConnectionPool(properties);
+    }
+}
@@ -0,0 +1,150 @@
+package nablarch.test.support.db.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * 複数のコネクションで共有するトランザクション。
+ * <p>
+ * 1つの物理コネクションを保持し、取得されたコネクションに対する操作を次のように読み替える。
+ * </p>
+ * <ul>
+ * <li>コミット：セーブポイントを設定する。</li>
+ * <li>ロールバック：直前のセーブポイントまでロールバックする。</li>
+ * <li>クローズ：取得されたコネクションのみを使用不可にし、物理コネクションは閉じない。</li>
+ * <li>自動コミットモード及びトランザクション分離レベルの変更：無視する。</li>
+ * </ul>
+ * <p>
+ * 物理コネクションのトランザクションは{@link #rollbackAndClose()}で全てロールバックされる。
+ * DDLのように暗黙的にコミットされる操作を行った場合、その時点までの変更はロールバックされない。
+ * </p>
+ */
+class SharedTransaction {
+
+    /** 物理コネクション */
+    private final Connection physical;
+
+    /** 直前のコミットに対応するセーブポイント */
+    private Savepoint savepoint;
+
+    /** 終了済みか否か */
+    private volatile boolean ended;
+
+    /**
+     * 物理コネクションでトランザクションを開始する。
+     *
+     * @param physical 物理コネクション
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    SharedTransaction(Connection physical) throws SQLException {
+        this.physical = physical;
+        try {
+            physical.setAutoCommit(false);
+            savepoint = physical.setSavepoint();
+        } catch (SQLException e) {
+            physical.close();
+            throw e;
+        }
+    }
+
+    /**
+     * このトランザクションに参加するコネクションを取得する。
+     *
+     * @return コネクション
+     * @throws SQLException トランザクションが終了している場合
+     */
+    Connection getConnection() throws SQLException {
+        if (ended) {
+            throw new SQLException("shared transaction has already ended.");
+        }
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, new Handle());
+    }
+
+    /**
+     * トランザクションをロールバックし、物理コネクションを閉じる。
+     *
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    synchronized void rollbackAndClose() throws SQLException {
+        ended = true;
+        try {
+            physical.rollback();
+            physical.setAutoCommit(true);
+        } finally {
+            physical.close();
+        }
+    }
+
+    /**
+     * 直前のセーブポイントを更新する。
+     *
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private synchronized void commit() throws SQLException {
+        savepoint = physical.setSavepoint();
+    }
+
+    /**
+     * 直前のセーブポイントまでロールバックする。
+     *
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private synchronized void rollback() throws SQLException {
+        physical.rollback(savepoint);
+    }
+
+    /**
+     * 取得されたコネクションに対する操作を物理コネクションに委譲する{@link InvocationHandler}。
+     */
+    private class Handle implements InvocationHandler {
+
+        /** 閉じられたか否か */
+        private boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("close".equals(name)) {
+                closed = true;
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return closed || ended;
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(name)) {
+                return "shared connection of " + physical;
+            }
+            if (closed || ended) {
+                throw new SQLException("connection has already been closed.");
+            }
+            if ("commit".equals(name)) {
+                commit();
+                return null;
+            }
+            if ("rollback".equals(name) && method.getParameterTypes().length == 0) {
+                rollback();
+                return null;
+            }
+            if ("setAutoCommit".equals(name) || "setTransactionIsolation".equals(name)) {
+                return null;
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package nablarch.test.support.db.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * コネクションをプロキシで包み、実行されたSQL文を{@link SqlRecorder}に記録するクラス。
+ * <p>
+ * コネクションから生成したステートメントの実行と、その結果セットのフェッチを記録する。
+ * バインド変数の数は、実行時点で値が設定されているパラメータのインデックスの数とする。
+ * </p>
+ */
+final class SqlCapture {
+
+    /**
+     * このクラスのインスタンスは作成不可。
+     */
+    private SqlCapture() {
+    }
+
+    /**
+     * コネクションで実行されたSQL文を記録するよう、コネクションをプロキシで包む。
+     *
+     * @param connection コネクション
+     * @param recorder 記録先
+     * @return コネクション
+     */
+    static Connection wrap(Connection connection, SqlRecorder recorder) {
+        final ConnectionHandler handler = new ConnectionHandler(connection, recorder);
+        handler.proxy = (Connection) newProxy(Connection.class, handler);
+        return handler.proxy;
+    }
+
+    /**
+     * プロキシを生成する。
+     *
+     * @param type インタフェース
+     * @param handler {@link InvocationHandler}
+     * @return プロキシ
+     */
+    private static Object newProxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    /**
+     * 委譲先のメソッドを呼び出す。
+     * <p>
+     * equals、hashCode及びtoStringはプロキシ自身で処理する。
+     * </p>
+     *
+     * @param proxy プロキシ
+     * @param target 委譲先
+     * @param method メソッド
+     * @param args 引数
+     * @return 戻り値
+     * @throws Throwable 委譲先が送出した例外
+     */
+    private static Object delegate(Object proxy, Object target, Method method, Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("equals".equals(name) && method.getParameterTypes().length == 1) {
+            return proxy == args[0];
+        }
+        if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+            return System.identityHashCode(proxy);
+        }
+        if ("toString".equals(name) && method.getParameterTypes().length == 0) {
+            return "capturing " + target;
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * コネクションから生成したステートメントをプロキシで包む{@link InvocationHandler}。
+     */
+    private static class ConnectionHandler implements InvocationHandler {
+
+        /** コネクション */
+        private final Connection connection;
+
+        /** 記録先 */
+        private final SqlRecorder recorder;
+
+        /** 利用者に返すプロキシ */
+        private Connection proxy;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param connection コネクション
+         * @param recorder 記録先
+         */
+        ConnectionHandler(Connection connection, SqlRecorder recorder) {
+            this.connection = connection;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final Object result = delegate(proxy, connection, method, args);
+            if (!(result instanceof Statement)) {
+                return result;
+            }
+            final String sql = "createStatement".equals(method.getName()) ? null : (String) args[0];
+            final StatementHandler handler = new StatementHandler((Statement) result, sql, this.proxy, recorder);
+            handler.proxy = (Statement) newProxy(method.getReturnType(), handler);
+            return handler.proxy;
+        }
+    }
+
+    /**
+     * ステートメントの実行を記録する{@link InvocationHandler}。
+     */
+    private static class StatementHandler implements InvocationHandler {
+
+        /** ステートメント */
+        private final Statement statement;
+
+        /** 生成時に指定されたSQL文。{@link Statement}の場合はnull */
+        private final String preparedSql;
+
+        /** ステートメントを生成したコネクション */
+        private final Connection connection;
+
+        /** 記録先 */
+        private final SqlRecorder recorder;
+
+        /** 値が設定されているパラメータのインデックス */
+        private final BitSet boundParameters = new BitSet();
+
+        /** バッチに追加されたSQL文 */
+        private final List<String> batchSqls = new ArrayList<String>();
+
+        /** バッチに追加された件数 */
+        private int batchSize;
+
+        /** 直前の実行の記録 */
+        private ExecutedSql last;
+
+        /** 利用者に返すプロキシ */
+        private Statement proxy;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param statement ステートメント
+         * @param preparedSql 生成時に指定されたSQL文
+         * @param connection ステートメントを生成したコネクション
+         * @param recorder 記録先
+         */
+        StatementHandler(Statement statement, String preparedSql, Connection connection, SqlRecorder recorder) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+            this.connection = connection;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("getConnection".equals(name)) {
+                return connection;
+            }
+            if (name.startsWith("execute")) {
+                return execute(proxy, method, args);
+            }
+            if ("getResultSet".equals(name)) {
+                return wrapResultSet(delegate(proxy, statement, method, args), last);
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                boundParameters.set((Integer) args[0]);
+            } else if ("clearParameters".equals(name)) {
+                boundParameters.clear();
+            } else if ("addBatch".equals(name)) {
+                if (args != null) {
+                    batchSqls.add((String) args[0]);
+                }
+                batchSize++;
+            } else if ("clearBatch".equals(name)) {
+                batchSqls.clear();
+                batchSize = 0;
+            }
+            return delegate(proxy, statement, method, args);
+        }
+
+        /**
+         * ステートメントを実行し、記録する。
+         * <p>
+         * 実行に失敗した場合も記録する。
+         * </p>
+         *
+         * @param proxy プロキシ
+         * @param method 実行メソッド
+         * @param args 引数
+         * @return 実行結果
+         * @throws Throwable 実行に失敗した場合
+         */
+        private Object execute(Object proxy, Method method, Object[] args) throws Throwable {
+            final boolean batch = method.getName()
+                                        .endsWith("Batch");
+            final String sql;
+            if (args != null && args.length != 0 && args[0] instanceof String) {
+                sql = (String) args[0];
+            } else if (batch && preparedSql == null) {
+                sql = join(batchSqls);
+            } else {
+                sql = preparedSql;
+            }
+            final long start = System.nanoTime();
+            final Object result;
+            try {
+                result = delegate(proxy, statement, method, args);
+            } finally {
+                last = new ExecutedSql(sql, boundParameters.cardinality(), batch ? batchSize : 0,
+                        System.nanoTime() - start);
+                recorder.record(last);
+                if (batch) {
+                    batchSqls.clear();
+                    batchSize = 0;
+                }
+            }
+            return wrapResultSet(result, last);
+        }
+
+        /**
+         * 結果セットであれば、フェッチした行数を記録するようプロキシで包む。
+         *
+         * @param result 実行結果
+         * @param executed 結果セットを返した実行の記録
+         * @return 実行結果
+         */
+        private Object wrapResultSet(Object result, ExecutedSql executed) {
+            if (!(result instanceof ResultSet) || executed == null) {
+                return result;
+            }
+            return newProxy(ResultSet.class, new ResultSetHandler((ResultSet) result, proxy, executed));
+        }
+
+        /**
+         * バッチに追加されたSQL文を連結する。
+         *
+         * @param sqls SQL文
+         * @return 連結したSQL文
+         */
+        private static String join(List<String> sqls) {
+            final StringBuilder sb = new StringBuilder();
+            for (String sql : sqls) {
+                if (sb.length() != 0) {
+                    sb.append("; ");
+                }
+                sb.append(sql);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 結果セットからフェッチした行数を記録する{@link InvocationHandler}。
+     */
+    private static class ResultSetHandler implements InvocationHandler {
+
+        /** 結果セット */
+        private final ResultSet resultSet;
+
+        /** 結果セットを生成したステートメント */
+        private final Statement statement;
+
+        /** 結果セットを返した実行の記録 */
+        private final ExecutedSql executed;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param resultSet 結果セット
+         * @param statement 結果セットを生成したステートメント
+         * @param executed 結果セットを返した実行の記録
+         */
+        ResultSetHandler(ResultSet resultSet, Statement statement, ExecutedSql executed) {
+            this.resultSet = resultSet;
+            this.statement = statement;
+            this.executed = executed;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("getStatement".equals(name)) {
+                return statement;
+            }
+            final Object result = delegate(proxy, resultSet, method, args);
+            if ("next".equals(name) && Boolean.TRUE.equals(result)) {
+                executed.incrementRowsFetched();
+            }
+            return result;
+        }
+    }
+}
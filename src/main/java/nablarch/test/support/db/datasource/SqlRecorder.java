@@ -0,0 +1,93 @@
+package nablarch.test.support.db.datasource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 実行されたSQL文を記録するクラス。
+ * <p>
+ * {@link TestDataSource#beginSqlCapture()}から{@link TestDataSource#endSqlCapture()}までの間に
+ * 取得されたコネクションで実行されたSQL文を、実行順に記録する。
+ * 入れ子で記録を開始した場合は、外側の記録にも同じSQL文が記録される。
+ * </p>
+ */
+public final class SqlRecorder {
+
+    /** 外側の記録 */
+    private final SqlRecorder parent;
+
+    /** 実行されたSQL文 */
+    private final Queue<ExecutedSql> executed = new ConcurrentLinkedQueue<ExecutedSql>();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param parent 外側の記録。存在しない場合はnull
+     */
+    SqlRecorder(SqlRecorder parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * 外側の記録を取得する。
+     *
+     * @return 外側の記録。存在しない場合はnull
+     */
+    SqlRecorder getParent() {
+        return parent;
+    }
+
+    /**
+     * 実行されたSQL文を記録する。
+     *
+     * @param sql 実行されたSQL文
+     */
+    void record(ExecutedSql sql) {
+        for (SqlRecorder recorder = this; recorder != null; recorder = recorder.parent) {
+            recorder.executed.add(sql);
+        }
+    }
+
+    /**
+     * 実行されたSQL文を取得する。
+     *
+     * @return 実行順に並べたSQL文
+     */
+    public List<ExecutedSql> getExecutedSqls() {
+        return new ArrayList<ExecutedSql>(executed);
+    }
+
+    /**
+     * 実行されたSQL文の数を取得する。
+     *
+     * @return 実行されたSQL文の数
+     */
+    public int getStatementCount() {
+        return executed.size();
+    }
+
+    /**
+     * 実行された問い合わせ(SELECT文)の数を取得する。
+     *
+     * @return 実行された問い合わせの数
+     * @see ExecutedSql#isQuery()
+     */
+    public int getQueryCount() {
+        int count = 0;
+        for (ExecutedSql sql : executed) {
+            if (sql.isQuery()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 記録を消去する。
+     */
+    public void clear() {
+        executed.clear();
+    }
+}
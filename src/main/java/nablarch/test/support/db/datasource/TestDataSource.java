@@ -0,0 +1,348 @@
+package nablarch.test.support.db.datasource;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+
+/**
+ * テスト用のデータソース。
+ * <p>
+ * コネクションの取得はコネクションプールに委譲する。
+ * {@link #beginSharedTransaction()}から{@link #rollbackSharedTransaction()}までの間は、
+ * そのスレッド(及びそのスレッドから生成されたスレッド)で取得するコネクションが
+ * 1つの物理コネクションのトランザクションを共有する。
+ * </p>
+ * <p>
+ * {@link #setWorkerSchemaSupport(WorkerSchemaSupport)}が設定されている場合は、
+ * 取得したコネクションのカレントスキーマを、スレッドに割り当てられたワーカ({@link DbWorker})のスキーマに切り替える。
+ * </p>
+ * <p>
+ * コネクションプールから取得したコネクションはクローズされるまで追跡し、利用状況を{@link #getMetrics()}で取得できる。
+ * {@link #beginLeakDetection()}から{@link #endLeakDetection()}までの間に
+ * そのスレッド(及びそのスレッドから生成されたスレッド)で取得され、クローズされなかったコネクションはリークとして検出する。
+ * </p>
+ * <p>
+ * {@link #beginSqlCapture()}から{@link #endSqlCapture()}までの間に取得したコネクションで実行されたSQL文は、
+ * {@link SqlRecorder}に記録する。
+ * </p>
+ */
+public class TestDataSource implements DataSource {
+
+    /** コネクションプール */
+    private final DataSource delegate;
+
+    /** スレッドが参加している共有トランザクション */
+    private final InheritableThreadLocal<SharedTransaction> sharedTransaction =
+            new InheritableThreadLocal<SharedTransaction>();
+
+    /** スレッドが参加しているリーク検出の範囲 */
+    private final InheritableThreadLocal<LeakScope> leakScope = new InheritableThreadLocal<LeakScope>();
+
+    /** スレッドで記録中のSQL文の記録先 */
+    private final InheritableThreadLocal<SqlRecorder> sqlRecorder = new InheritableThreadLocal<SqlRecorder>();
+
+    /** コネクションの追跡を行うオブジェクト */
+    private final ConnectionTracker tracker = new ConnectionTracker();
+
+    /** ワーカごとのスキーマの切り替えを行うオブジェクト */
+    private volatile WorkerSchemaSupport workerSchemaSupport;
+
+    /** リーク検出の範囲外でも、コネクションの取得箇所のスタックトレースを取得するか否か */
+    private volatile boolean borrowTraceEnabled;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param delegate コネクションプール
+     */
+    public TestDataSource(DataSource delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * ワーカごとのスキーマの切り替えを行うオブジェクトを設定する。
+     *
+     * @param workerSchemaSupport ワーカごとのスキーマの切り替えを行うオブジェクト
+     */
+    public void setWorkerSchemaSupport(WorkerSchemaSupport workerSchemaSupport) {
+        this.workerSchemaSupport = workerSchemaSupport;
+    }
+
+    /**
+     * リーク検出の範囲外でも、コネクションの取得箇所のスタックトレースを取得するか否かを設定する。
+     * <p>
+     * スタックトレースの取得はコネクションの取得ごとのコストとなるため、デフォルトはリーク検出の範囲内でのみ取得する。
+     * 有効にした場合は、{@link #getMetrics()}で取得した利用状況に、クローズされていないコネクションの取得箇所が含まれる。
+     * </p>
+     *
+     * @param borrowTraceEnabled 常に取得する場合はtrue
+     */
+    public void setBorrowTraceEnabled(boolean borrowTraceEnabled) {
+        this.borrowTraceEnabled = borrowTraceEnabled;
+    }
+
+    /**
+     * ワーカごとのスキーマの切り替えを行うオブジェクトを取得する。
+     *
+     * @return ワーカごとのスキーマの切り替えを行うオブジェクト。設定されていない場合はnull
+     */
+    public WorkerSchemaSupport getWorkerSchemaSupport() {
+        return workerSchemaSupport;
+    }
+
+    /**
+     * 共有トランザクションを開始する。
+     * <p>
+     * 以降このスレッドで取得するコネクションは1つの物理コネクションを共有し、
+     * コミットはセーブポイントの設定、ロールバックは直前のセーブポイントへのロールバックとして扱われる。
+     * </p>
+     *
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    public void beginSharedTransaction() throws SQLException {
+        if (sharedTransaction.get() != null) {
+            throw new IllegalStateException("shared transaction has already begun.");
+        }
+        sharedTransaction.set(new SharedTransaction(borrow(null, null)));
+    }
+
+    /**
+     * 共有トランザクションをロールバックし、終了する。
+     * <p>
+     * 共有トランザクションが開始されていない場合は何もしない。
+     * </p>
+     *
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    public void rollbackSharedTransaction() throws SQLException {
+        final SharedTransaction transaction = sharedTransaction.get();
+        if (transaction == null) {
+            return;
+        }
+        sharedTransaction.remove();
+        transaction.rollbackAndClose();
+    }
+
+    /**
+     * 現在のスレッドで共有トランザクションが開始されているか否か。
+     *
+     * @return 共有トランザクションが開始されている場合はtrue
+     */
+    public boolean isSharedTransactionActive() {
+        return sharedTransaction.get() != null;
+    }
+
+    /**
+     * SQL文の記録を開始する。
+     * <p>
+     * 以降このスレッド(及びそのスレッドから生成されたスレッド)で取得したコネクションで実行されたSQL文を、
+     * {@link #endSqlCapture()}まで記録する。
+     * 記録の開始前に取得したコネクションで実行されたSQL文は記録しない。
+     * </p>
+     *
+     * @return SQL文の記録先
+     */
+    public SqlRecorder beginSqlCapture() {
+        final SqlRecorder recorder = new SqlRecorder(sqlRecorder.get());
+        sqlRecorder.set(recorder);
+        return recorder;
+    }
+
+    /**
+     * SQL文の記録を終了する。
+     * <p>
+     * 記録が開始されていない場合は何もしない。
+     * </p>
+     */
+    public void endSqlCapture() {
+        final SqlRecorder recorder = sqlRecorder.get();
+        if (recorder == null) {
+            return;
+        }
+        if (recorder.getParent() == null) {
+            sqlRecorder.remove();
+        } else {
+            sqlRecorder.set(recorder.getParent());
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        final SharedTransaction transaction = sharedTransaction.get();
+        if (transaction != null) {
+            return capture(transaction.getConnection());
+        }
+        return capture(borrow(null, null));
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        final SharedTransaction transaction = sharedTransaction.get();
+        if (transaction != null) {
+            return capture(transaction.getConnection());
+        }
+        return capture(borrow(username, password));
+    }
+
+    /**
+     * SQL文の記録中であれば、実行されたSQL文を記録するようコネクションを包む。
+     *
+     * @param connection コネクション
+     * @return コネクション
+     */
+    private Connection capture(Connection connection) {
+        final SqlRecorder recorder = sqlRecorder.get();
+        return recorder == null ? connection : SqlCapture.wrap(connection, recorder);
+    }
+
+    /**
+     * コネクションプールからコネクションを取得し、カレントスキーマをワーカのスキーマに切り替える。
+     * <p>
+     * 取得したコネクションはクローズされるまで追跡する。
+     * </p>
+     *
+     * @param username ユーザ名。コネクションプールのデフォルトを使用する場合はnull
+     * @param password パスワード
+     * @return コネクション
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private Connection borrow(String username, String password) throws SQLException {
+        final long start = System.nanoTime();
+        final Connection physical;
+        try {
+            physical = username == null ? delegate.getConnection() : delegate.getConnection(username, password);
+        } catch (SQLException e) {
+            throw tracker.describeFailure(e);
+        }
+        final LeakScope scope = leakScope.get();
+        final Connection connection = tracker.track(physical, start, scope, scope != null || borrowTraceEnabled);
+        final WorkerSchemaSupport support = workerSchemaSupport;
+        if (support == null) {
+            return connection;
+        }
+        try {
+            support.switchSchema(connection, DbWorker.getCurrentSchema());
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * コネクションプールの利用状況を取得する。
+     *
+     * @return 呼び出した時点の利用状況
+     */
+    public ConnectionPoolMetrics getMetrics() {
+        int idleCount = -1;
+        if (delegate instanceof LockFreeConnectionPool) {
+            idleCount = ((LockFreeConnectionPool) delegate).getNumIdle();
+        } else if (delegate instanceof BasicDataSource) {
+            idleCount = ((BasicDataSource) delegate).getNumIdle();
+        }
+        return tracker.snapshot(idleCount);
+    }
+
+    /**
+     * コネクションのリーク検出を開始する。
+     * <p>
+     * 以降このスレッドで取得したコネクションのうち、{@link #endLeakDetection()}までにクローズされなかったものをリークとして検出する。
+     * 入れ子で開始した場合、コネクションは最も内側の範囲で検出される。
+     * </p>
+     */
+    public void beginLeakDetection() {
+        leakScope.set(new LeakScope(leakScope.get()));
+    }
+
+    /**
+     * コネクションのリーク検出を終了する。
+     * <p>
+     * リークしたコネクションは、以降のテストでコネクションが枯渇しないようクローズする。
+     * リーク検出が開始されていない場合は何もしない。
+     * </p>
+     *
+     * @return リークしたコネクション。リークがない場合は空のリスト
+     */
+    public List<BorrowedConnection> endLeakDetection() {
+        final LeakScope scope = leakScope.get();
+        if (scope == null) {
+            return Collections.emptyList();
+        }
+        if (scope.parent == null) {
+            leakScope.remove();
+        } else {
+            leakScope.set(scope.parent);
+        }
+        return tracker.closeLeaked(scope);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * この実装ではサポートしない。
+     * </p>
+     */
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("getParentLogger is not supported.");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(delegate)) {
+            return iface.cast(delegate);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+    }
+
+    /**
+     * リーク検出の範囲。
+     */
+    private static final class LeakScope {
+
+        /** 外側の範囲 */
+        private final LeakScope parent;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param parent 外側の範囲。存在しない場合はnull
+         */
+        private LeakScope(LeakScope parent) {
+            this.parent = parent;
+        }
+    }
+}
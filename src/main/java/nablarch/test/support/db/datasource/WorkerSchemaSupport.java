@@ -0,0 +1,32 @@
+package nablarch.test.support.db.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * テストの並列実行時に、ワーカごとのスキーマを扱うインタフェース。
+ * <p>
+ * {@link DbInitializer}の実装クラスで本インタフェースを実装することで、
+ * {@link DbWorker}によるワーカごとのスキーマの分離が有効になる。
+ * </p>
+ */
+public interface WorkerSchemaSupport {
+
+    /**
+     * ワーカ用のスキーマを作成する。
+     *
+     * @param connection コネクション
+     * @param schemaName スキーマ名
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    void createWorkerSchema(Connection connection, String schemaName) throws SQLException;
+
+    /**
+     * コネクションのカレントスキーマを切り替える。
+     *
+     * @param connection コネクション
+     * @param schemaName スキーマ名。nullの場合はデフォルトのスキーマに切り替える
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    void switchSchema(Connection connection, String schemaName) throws SQLException;
+}
@@ -0,0 +1,88 @@
+package nablarch.test.support.db.helper;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.test.support.db.datasource.BorrowedConnection;
+import nablarch.test.support.db.datasource.TestDataSource;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.Statement;
+
+/**
+ * テストメソッド内で取得したコネクションがクローズされていない場合に、テストを失敗させる{@link TestRule}。
+ * <p>
+ * テストメソッドを実行したスレッド(及びそのスレッドから生成されたスレッド)で
+ * {@link VariousDbTestHelper}のデータソースから取得したコネクションが対象となる。
+ * リークしたコネクションは、以降のテストでコネクションが枯渇しないようクローズし、
+ * 取得箇所のスタックトレースを失敗理由に出力する。
+ * </p>
+ * <p>
+ * {@link DatabaseTestRunner}を使用する場合は、システムプロパティ{@value #LEAK_DETECTION_PROPERTY}にtrueを指定することで、
+ * 全てのテストメソッドにこのルールを適用できる。
+ * </p>
+ */
+public class ConnectionLeakRule implements TestRule {
+
+    /** {@link DatabaseTestRunner}で全てのテストメソッドのリーク検出を有効にするシステムプロパティ */
+    public static final String LEAK_DETECTION_PROPERTY = "nablarch.test.db.leakDetection";
+
+    /**
+     * システムプロパティでリーク検出が有効化されているか否か。
+     *
+     * @return 有効化されている場合はtrue
+     */
+    static boolean isEnabledBySystemProperty() {
+        return Boolean.getBoolean(LEAK_DETECTION_PROPERTY);
+    }
+
+    @Override
+    public Statement apply(final Statement statement, final Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                final TestDataSource dataSource = VariousDbTestHelper.getTestDataSource();
+                final List<Throwable> errors = new ArrayList<Throwable>();
+                dataSource.beginLeakDetection();
+                try {
+                    statement.evaluate();
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    final List<BorrowedConnection> leaked = dataSource.endLeakDetection();
+                    if (!leaked.isEmpty()) {
+                        errors.add(new AssertionError(buildMessage(description, leaked)));
+                    }
+                }
+                MultipleFailureException.assertEmpty(errors);
+            }
+        };
+    }
+
+    /**
+     * リークしたコネクションの取得箇所を含むメッセージを組み立てる。
+     *
+     * @param description テストの記述
+     * @param leaked リークしたコネクション
+     * @return メッセージ
+     */
+    private static String buildMessage(Description description, List<BorrowedConnection> leaked) {
+        final StringWriter out = new StringWriter();
+        final PrintWriter writer = new PrintWriter(out);
+        writer.println(description.getDisplayName() + " leaked " + leaked.size() + " connection(s).");
+        for (BorrowedConnection connection : leaked) {
+            final Throwable trace = connection.getBorrowTrace();
+            if (trace == null) {
+                writer.println(connection);
+            } else {
+                trace.printStackTrace(writer);
+            }
+        }
+        writer.flush();
+        return out.toString();
+    }
+}
@@ -1,11 +1,12 @@
 package nablarch.test.support.db.helper;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 import nablarch.core.db.connection.AppDbConnection;
 import nablarch.core.db.connection.DbConnectionContext;
@@ -13,13 +14,15 @@ import nablarch.core.db.connection.TransactionManagerConnection;
 import nablarch.core.repository.di.DiContainer;
 import nablarch.core.repository.di.config.xml.XmlComponentDefinitionLoader;
 import nablarch.core.transaction.TransactionContext;
-import nablarch.core.util.FileUtil;
+import nablarch.test.support.db.datasource.DbWorker;
 
 import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.Statement;
 
 /**
  * データベース関連のテストを実行するためのJunitTestRunner。
@@ -28,13 +31,40 @@ import org.junit.runners.model.InitializationError;
  * テスト用のデータベース接続関連の設定が自動的に行われる。
  *
  * これにより、テストクラス内部では、{@link VariousDbTestHelper}を使用してデータベースへのアクセスが行えるようになる。
+ *
+ * また、{@link DbSnapshot}が指定されたメソッドによるテストデータのセットアップは最初のテストメソッドでのみ行い、
+ * 以降のテストメソッドではスナップショットからテーブルの内容を復元する。
+ * スナップショットはデータベース上の退避用テーブルに保持し、テストクラスの終了時に削除する。
+ * 退避用テーブルの作成はトランザクションを暗黙的にコミットするため、{@link RollbackTransaction}が指定されたテストメソッドでは使用できない。
+ *
+ * {@link RollbackTransaction}が指定されたテストメソッドは1つのトランザクション内で実行し、終了後にロールバックする。
+ *
+ * テストクラスを並列実行する場合は、システムプロパティ{@value DbWorker#WORKER_COUNT_PROPERTY}に並列数を指定すること。
+ * テストクラスごとにワーカ({@link DbWorker})が割り当てられ、ワーカごとのスキーマでテストが実行される。
+ *
+ * {@link VariousDbTestHelper}がスレッドごとに生成したエンティティマネージャは、テストメソッド及びテストクラスの終了時にクローズする。
+ *
+ * システムプロパティ{@value ConnectionLeakRule#LEAK_DETECTION_PROPERTY}にtrueを指定した場合は、
+ * 全てのテストメソッドに{@link ConnectionLeakRule}を適用し、コネクションをクローズしなかったテストを失敗させる。
  */
 public class DatabaseTestRunner extends BlockJUnit4ClassRunner {
 
+    /** テストクラスに割り当てられたワーカのID */
+    private int workerId;
+
+    /** {@link DbSnapshot}が指定されたメソッドごとのスナップショット */
+    private final Map<FrameworkMethod, TableSnapshot> snapshots = new HashMap<FrameworkMethod, TableSnapshot>();
+
     public DatabaseTestRunner(Class<?> klass) throws InitializationError {
         super(klass);
     }
 
+    @Override
+    protected void collectInitializationErrors(List<Throwable> errors) {
+        super.collectInitializationErrors(errors);
+        validatePublicVoidNoArgMethods(DbSnapshot.class, false, errors);
+    }
+
     @Override
     public void run(RunNotifier notifier) {
         final Description description = getDescription();
@@ -43,9 +73,32 @@ public class DatabaseTestRunner extends BlockJUnit4ClassRunner {
             notifier.fireTestIgnored(description);
             return;
         }
-        final DiContainer container = new DiContainer(new XmlComponentDefinitionLoader("db-default.xml"));
-        VariousDbTestHelper.initialize(container);
-        super.run(notifier);
+        workerId = DbWorker.acquire();
+        try {
+            final DiContainer container = new DiContainer(new XmlComponentDefinitionLoader("db-default.xml"));
+            VariousDbTestHelper.initialize(container);
+            super.run(notifier);
+        } finally {
+            DbWorker.release(workerId);
+        }
+    }
+
+    @Override
+    protected Statement classBlock(RunNotifier notifier) {
+        final Statement statement = super.classBlock(notifier);
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                final String previousSchema = DbWorker.bind(workerId);
+                try {
+                    statement.evaluate();
+                } finally {
+                    dropSnapshots();
+                    VariousDbTestHelper.closeEntityManagers();
+                    DbWorker.unbind(previousSchema);
+                }
+            }
+        };
     }
 
     @Override
@@ -56,10 +109,145 @@ public class DatabaseTestRunner extends BlockJUnit4ClassRunner {
             notifier.fireTestIgnored(description);
             return;
         }
+        final String previousSchema = DbWorker.bind(workerId);
+        try {
+            final boolean rollback = isRollbackTarget(method);
+            if (rollback) {
+                try {
+                    VariousDbTestHelper.beginTestTransaction();
+                } catch (Exception e) {
+                    notifier.fireTestFailure(new Failure(description, e));
+                    return;
+                }
+            }
+            try {
+                super.runChild(method, notifier);
+            } finally {
+                clearDatabaseResource();
+                if (rollback) {
+                    VariousDbTestHelper.rollbackTestTransaction();
+                } else {
+                    VariousDbTestHelper.closeEntityManagers();
+                }
+            }
+        } finally {
+            DbWorker.unbind(previousSchema);
+        }
+    }
+
+    @Override
+    protected Statement methodBlock(FrameworkMethod method) {
+        final Statement statement = super.methodBlock(method);
+        if (!ConnectionLeakRule.isEnabledBySystemProperty()) {
+            return statement;
+        }
+        // テストメソッドで終了されなかったコネクションはリークとせず、ここで終了する
+        return new ConnectionLeakRule().apply(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                try {
+                    statement.evaluate();
+                } finally {
+                    clearDatabaseResource();
+                }
+            }
+        }, describeChild(method));
+    }
+
+    /**
+     * テストメソッドの終了後にトランザクションをロールバックするか否か。
+     *
+     * @param method テストメソッド
+     * @return {@link RollbackTransaction}がテストメソッドまたはテストクラスに指定されている場合はtrue
+     */
+    private boolean isRollbackTarget(FrameworkMethod method) {
+        return method.getAnnotation(RollbackTransaction.class) != null
+                || getTestClass().getJavaClass().getAnnotation(RollbackTransaction.class) != null;
+    }
+
+    @Override
+    protected Statement withBefores(FrameworkMethod method, Object target, Statement statement) {
+        return super.withBefores(method, target, withSnapshots(target, statement));
+    }
+
+    /**
+     * {@link DbSnapshot}が指定されたメソッドによるテストデータのセットアップを、テストメソッドの前に追加する。
+     *
+     * @param target テストクラスのインスタンス
+     * @param statement テストメソッドを実行するステートメント
+     * @return ステートメント
+     */
+    private Statement withSnapshots(final Object target, final Statement statement) {
+        final List<FrameworkMethod> methods = getTestClass().getAnnotatedMethods(DbSnapshot.class);
+        if (methods.isEmpty()) {
+            return statement;
+        }
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                for (FrameworkMethod method : methods) {
+                    setUpFromSnapshot(method, target);
+                }
+                statement.evaluate();
+            }
+        };
+    }
+
+    /**
+     * スナップショットからテーブルの内容を復元する。
+     *
+     * スナップショットが存在しない場合は、セットアップ用のメソッドを実行してスナップショットを取得する。
+     *
+     * @param method {@link DbSnapshot}が指定されたメソッド
+     * @param target テストクラスのインスタンス
+     * @throws Throwable 例外
+     */
+    private void setUpFromSnapshot(FrameworkMethod method, Object target) throws Throwable {
+        if (VariousDbTestHelper.isSharedTransactionActive()) {
+            // 退避用テーブルの作成(DDL)により、ロールバックすべき共有トランザクションがコミットされるため、使用させない
+            throw new IllegalStateException("@DbSnapshot cannot be used with @RollbackTransaction. method = "
+                    + method.getMethod().getDeclaringClass().getName() + '#' + method.getName());
+        }
+        TableSnapshot snapshot = snapshots.get(method);
+        if (snapshot == null) {
+            method.invokeExplosively(target);
+        }
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            if (snapshot == null) {
+                snapshot = TableSnapshot.capture(connection, VariousDbTestHelper.getTargetDatabase(),
+                        method.getAnnotation(DbSnapshot.class)
+                                .value());
+                snapshots.put(method, snapshot);
+            } else {
+                snapshot.restore(connection);
+                VariousDbTestHelper.evict(snapshot.getEntityClasses());
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * スナップショットの退避用テーブルを削除する。
+     */
+    private void dropSnapshots() {
+        if (snapshots.isEmpty()) {
+            return;
+        }
         try {
-            super.runChild(method, notifier);
+            final Connection connection = VariousDbTestHelper.getNativeConnection();
+            try {
+                for (TableSnapshot snapshot : snapshots.values()) {
+                    snapshot.drop(connection);
+                }
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException ignored) {
+            // 退避用テーブルの削除に失敗してもテスト結果には影響しない
         } finally {
-            clearDatabaseResource();
+            snapshots.clear();
         }
     }
 
@@ -90,42 +278,11 @@ public class DatabaseTestRunner extends BlockJUnit4ClassRunner {
         if (annotation == null) {
             return true;
         }
-        final String url = getUrl();
+        final String url = TargetDbResolver.getUrl();
         if (url == null) {
             throw new IllegalStateException("database configuration file was not found.");
         }
-
-        final TargetDb.Db[] exclude = annotation.exclude();
-        final TargetDb.Db[] include = annotation.include();
-        if (exclude.length != 0) {
-            for (TargetDb.Db db : exclude) {
-                if (url.startsWith(db.prefix)) {
-                    return false;
-                }
-            }
-            return true;
-        } else if (include.length != 0) {
-            for (TargetDb.Db db : include) {
-                if (url.startsWith(db.prefix)) {
-                    return true;
-                }
-            }
-            return false;
-        }
-        return true;
-    }
-
-    private String getUrl() {
-        Properties properties = new Properties();
-        InputStream stream = FileUtil.getClasspathResource("db.config");
-        try {
-            properties.load(stream);
-        } catch (IOException e) {
-            throw new RuntimeException("property file load error.", e);
-        } finally {
-            FileUtil.closeQuietly(stream);
-        }
-        return properties.getProperty("db.url");
+        return TargetDbResolver.isTarget(url, annotation.include(), annotation.exclude());
     }
 
     private TargetDb findTargetDbAnnotation() {
@@ -0,0 +1,37 @@
+package nablarch.test.support.db.helper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * テストデータのセットアップを行うメソッドであることを示すアノテーション。
+ * <p>
+ * {@link DatabaseTestRunner}で実行するテストクラスの、引数なしのpublicメソッドに指定する。
+ * このアノテーションを指定したメソッドは、{@link org.junit.Before}が指定されたメソッドの後に実行される。
+ * </p>
+ * <p>
+ * 最初のテストメソッドの実行時にはアノテーションを指定したメソッドを実行し、
+ * その直後に{@link #value()}に指定したエンティティのテーブルの内容をスナップショットとして保持する。
+ * 以降のテストメソッドの実行時にはメソッドを実行せず、スナップショットからテーブルの内容を復元する。
+ * </p>
+ * <p>
+ * 外部キー制約のあるテーブルは、指定順序によらず、参照先のテーブルから順にコピーし、参照元のテーブルから順に削除する。
+ * </p>
+ * <p>
+ * スナップショットの取得はDDLを実行し、トランザクションを暗黙的にコミットするデータベースがあるため、
+ * {@link RollbackTransaction}を指定したテストメソッドでは使用できない(テストは失敗する)。
+ * </p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface DbSnapshot {
+
+    /**
+     * スナップショットを保持するテーブルのエンティティクラス。
+     *
+     * @return エンティティクラス
+     */
+    Class<?>[] value();
+}
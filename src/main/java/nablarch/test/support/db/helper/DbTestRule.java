@@ -1,10 +1,5 @@
 package nablarch.test.support.db.helper;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
-
-import nablarch.core.util.FileUtil;
 import nablarch.test.support.db.helper.TargetDb.Db;
 
 import org.junit.rules.TestRule;
@@ -33,48 +28,11 @@ public class DbTestRule implements TestRule {
 
     private boolean canEvaluate(Db[] include, Db[] exclude) {
     	
-    	String url = getUrl();
+    	String url = TargetDbResolver.getUrl();
     	
     	if (url == null) {
             return false;
         }
-    	
-    	// includeとexcludeが両方指定された場合はexcludeを優先
-    	if (exclude.length != 0) {
-    		for (Db db : exclude) {
-        		if (url.startsWith(db.prefix)) {
-        			return false;
-        		}
-        	}
-    		return true;
-    	} else if (include.length != 0) {
-    		for (Db db : include) {
-    			if (url.startsWith(db.prefix)) {
-    				return true;
-    			}
-    		}
-    		return false;
-    	} else {
-        	// include、excludeのいずれも指定されない場合はテスト実施。
-        	return true;
-    	}
-    	
-
-    }
-    
-    private String getUrl() {
-    	Properties properties = new Properties();
-        InputStream stream = FileUtil.getClasspathResource("db.config");
-        try {
-            properties.load(stream);
-        } catch (IOException e) {
-            throw new RuntimeException("property file load error.", e);
-        } finally {
-            FileUtil.closeQuietly(stream);
-        }
-
-        return properties.getProperty("db.url");
-
-        
+    	return TargetDbResolver.isTarget(url, include, exclude);
     }
 }
@@ -0,0 +1,163 @@
+package nablarch.test.support.db.helper;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 検索結果を1件ずつエンティティに変換して返すカーソル。
+ * <p>
+ * 検索結果はJDBCのカーソルからフェッチサイズ単位で取得され、
+ * 生成したエンティティはエンティティマネージャの管理下には置かれない。
+ * このため、件数によらずメモリ使用量は一定となる。
+ * </p>
+ * <p>
+ * 全件を読み終えた時点でカーソルは自動的にクローズされるが、
+ * 途中で読み込みを終える場合は必ず{@link #close()}を呼び出すこと。
+ * </p>
+ *
+ * @param <T> エンティティの型
+ * @see VariousDbTestHelper#streamAll(Class, String...)
+ */
+public final class EntityCursor<T> implements Iterator<T>, Closeable {
+
+    /** エンティティクラス */
+    private final Class<T> entityClass;
+
+    /** エンティティクラスのメタデータ */
+    private final EntityMetadata metadata;
+
+    /** コネクション */
+    private final Connection connection;
+
+    /** クローズ時にトランザクションを終了するか否か */
+    private final boolean ownTransaction;
+
+    /** ステートメント */
+    private final PreparedStatement statement;
+
+    /** 検索結果 */
+    private final ResultSet resultSet;
+
+    /** 次の行を読み込み済みか否か */
+    private boolean fetched;
+
+    /** 次の行が存在するか否か */
+    private boolean hasNext;
+
+    /** クローズ済みか否か */
+    private boolean closed;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param entityClass エンティティクラス
+     * @param connection コネクション。カーソルのクローズ時にクローズされる
+     * @param sql SELECT文。カラムは{@link EntityMetadata#getSelectColumnsSql()}の順に並んでいること
+     * @param fetchSize フェッチサイズ
+     * @param ownTransaction クローズ時にトランザクションをロールバックし、自動コミットを有効に戻す場合はtrue。
+     *                       {@link RollbackTransaction}による共有トランザクションのコネクションの場合はfalse
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    EntityCursor(Class<T> entityClass, Connection connection, String sql, int fetchSize, boolean ownTransaction)
+            throws SQLException {
+        this.entityClass = entityClass;
+        metadata = EntityMetadata.get(entityClass);
+        this.connection = connection;
+        this.ownTransaction = ownTransaction;
+        statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            statement.setFetchSize(fetchSize);
+            resultSet = statement.executeQuery();
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!fetched) {
+            try {
+                hasNext = resultSet.next();
+            } catch (SQLException e) {
+                close();
+                throw new RuntimeException(e);
+            }
+            fetched = true;
+            if (!hasNext) {
+                close();
+            }
+        }
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        try {
+            return entityClass.cast(metadata.toEntity(resultSet));
+        } catch (Exception e) {
+            close();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * サポートしない。
+     *
+     * @throws UnsupportedOperationException 常に送出する
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove is not supported.");
+    }
+
+    /**
+     * カーソルをクローズする。
+     * <p>
+     * 共有トランザクションのコネクションでない場合は、読み取り用のトランザクションをロールバックして自動コミットを有効に戻す。
+     * クローズ済みの場合は何もしない。
+     * </p>
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            resultSet.close();
+        } catch (SQLException ignored) {
+            // NOP
+        }
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // NOP
+        }
+        if (ownTransaction) {
+            try {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {
+                // NOP
+            }
+        }
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // NOP
+        }
+    }
+}
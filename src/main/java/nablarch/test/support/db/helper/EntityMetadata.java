@@ -0,0 +1,726 @@
+package nablarch.test.support.db.helper;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.Transient;
+
+import nablarch.core.util.StringUtil;
+
+/**
+ * エンティティクラスのメタデータ。
+ * <p>
+ * {@link Table}、{@link Column}、{@link JoinColumn}及び{@link Temporal}から読み取った
+ * テーブル定義と、それを元に組み立てたSQL文を保持する。
+ * メタデータはエンティティクラスごとに一度だけ生成され、以降はキャッシュしたものが使用される。
+ * </p>
+ */
+final class EntityMetadata {
+
+    /** エンティティクラスをキーにしたメタデータのキャッシュ */
+    private static final ConcurrentMap<Class<?>, EntityMetadata> CACHE =
+            new ConcurrentHashMap<Class<?>, EntityMetadata>();
+
+    /** エンティティクラス */
+    private final Class<?> entityClass;
+
+    /** テーブル名 */
+    private final String tableName;
+
+    /** スキーマ名 */
+    private final String schemaName;
+
+    /** スキーマ名で修飾したテーブル名 */
+    private final String qualifiedTableName;
+
+    /** カラム */
+    private final List<ColumnMetadata> columns;
+
+    /** 主キーのカラム */
+    private final List<ColumnMetadata> primaryKeys;
+
+    /** 外部キーのカラム */
+    private final List<ColumnMetadata> foreignKeys;
+
+    /** フィールド名をキーにしたカラム名 */
+    private final Map<String, String> columnNames;
+
+    /** INSERT文 */
+    private final String insertSql;
+
+    /** 全件削除のDELETE文 */
+    private final String deleteAllSql;
+
+    /** 全件検索のSELECT文 */
+    private final String selectAllSql;
+
+    /** カラムを列挙した全件検索のSELECT文 */
+    private final String selectColumnsSql;
+
+    /**
+     * エンティティクラスのメタデータを取得する。
+     *
+     * @param entityClass エンティティクラス
+     * @return メタデータ
+     */
+    static EntityMetadata get(Class<?> entityClass) {
+        EntityMetadata metadata = CACHE.get(entityClass);
+        if (metadata == null) {
+            metadata = new EntityMetadata(entityClass);
+            final EntityMetadata cached = CACHE.putIfAbsent(entityClass, metadata);
+            if (cached != null) {
+                metadata = cached;
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * エンティティクラスのアノテーションを読み取り、メタデータを生成する。
+     *
+     * @param entityClass エンティティクラス
+     */
+    private EntityMetadata(Class<?> entityClass) {
+        final Table table = entityClass.getAnnotation(Table.class);
+        if (table == null) {
+            throw new IllegalArgumentException(
+                    "@Table annotation was not found. entity class = " + entityClass.getName());
+        }
+        this.entityClass = entityClass;
+        tableName = table.name();
+        schemaName = table.schema();
+        qualifiedTableName = addSchema(tableName, schemaName);
+
+        final List<ColumnMetadata> columnList = new ArrayList<ColumnMetadata>();
+        final List<ColumnMetadata> primaryKeyList = new ArrayList<ColumnMetadata>();
+        final List<ColumnMetadata> foreignKeyList = new ArrayList<ColumnMetadata>();
+        final Map<String, String> columnNameMap = new HashMap<String, String>();
+        for (Field field : entityClass.getFields()) {
+            if (field.getAnnotation(Transient.class) != null) {
+                continue;
+            }
+            final ColumnMetadata column = new ColumnMetadata(field);
+            columnList.add(column);
+            columnNameMap.put(field.getName(), column.getName());
+            if (column.isPrimaryKey()) {
+                primaryKeyList.add(column);
+            }
+            if (column.isJoinColumn()) {
+                foreignKeyList.add(column);
+            }
+        }
+        columns = Collections.unmodifiableList(columnList);
+        primaryKeys = Collections.unmodifiableList(primaryKeyList);
+        foreignKeys = Collections.unmodifiableList(foreignKeyList);
+        columnNames = Collections.unmodifiableMap(columnNameMap);
+
+        final StringBuilder names = new StringBuilder();
+        final StringBuilder values = new StringBuilder();
+        for (ColumnMetadata column : columns) {
+            if (names.length() != 0) {
+                names.append(", ");
+                values.append(", ");
+            }
+            names.append(column.getName());
+            values.append('?');
+        }
+        insertSql = "INSERT INTO " + qualifiedTableName + " (" + names + ") VALUES (" + values + ')';
+        deleteAllSql = "DELETE FROM " + qualifiedTableName;
+        selectAllSql = "SELECT * FROM " + qualifiedTableName;
+        selectColumnsSql = "SELECT " + names + " FROM " + qualifiedTableName;
+    }
+
+    /**
+     * エンティティクラスのメタデータを、外部キーの参照先が参照元より前になるよう並べ替えて取得する。
+     * <p>
+     * 指定されていないエンティティクラスへの参照及び自己参照は無視する。
+     * 循環参照がある場合、循環に含まれるエンティティクラスは指定された順序で末尾に並べる。
+     * </p>
+     *
+     * @param entityClasses エンティティクラス
+     * @return 参照先が先になるよう並べ替えたメタデータ
+     */
+    static List<EntityMetadata> sortByDependency(Class<?>... entityClasses) {
+        final Map<Class<?>, EntityMetadata> remaining = new LinkedHashMap<Class<?>, EntityMetadata>();
+        for (Class<?> entityClass : entityClasses) {
+            remaining.put(entityClass, get(entityClass));
+        }
+        final List<EntityMetadata> sorted = new ArrayList<EntityMetadata>(remaining.size());
+        boolean progress = true;
+        while (!remaining.isEmpty() && progress) {
+            progress = false;
+            for (Iterator<EntityMetadata> it = remaining.values()
+                    .iterator(); it.hasNext(); ) {
+                final EntityMetadata metadata = it.next();
+                if (!metadata.dependsOnAny(remaining.keySet())) {
+                    sorted.add(metadata);
+                    it.remove();
+                    progress = true;
+                }
+            }
+        }
+        sorted.addAll(remaining.values());
+        return sorted;
+    }
+
+    /**
+     * 指定されたエンティティクラスのいずれかを外部キーで参照しているか否か。
+     *
+     * @param entityClasses エンティティクラス
+     * @return 自身以外のいずれかを参照している場合はtrue
+     */
+    private boolean dependsOnAny(Set<Class<?>> entityClasses) {
+        for (ColumnMetadata foreignKey : foreignKeys) {
+            final Class<?> referenced = foreignKey.getReferencedEntityClass();
+            if (referenced != entityClass && entityClasses.contains(referenced)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * スキーマ名でテーブル名を修飾する。
+     *
+     * @param tableName テーブル名
+     * @param schemaName スキーマ名
+     * @return スキーマ名が指定されている場合は修飾したテーブル名、そうでない場合はテーブル名
+     */
+    static String addSchema(String tableName, String schemaName) {
+        return StringUtil.hasValue(schemaName) ? schemaName + '.' + tableName : tableName;
+    }
+
+    /**
+     * データベースが格納する形式に識別子を変換する。
+     *
+     * @param metaData データベースのメタデータ
+     * @param identifier 識別子
+     * @return 変換した識別子。識別子が指定されていない場合はnull
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    static String toIdentifier(DatabaseMetaData metaData, String identifier) throws SQLException {
+        if (!StringUtil.hasValue(identifier)) {
+            return null;
+        }
+        if (metaData.storesUpperCaseIdentifiers()) {
+            return identifier.toUpperCase();
+        }
+        if (metaData.storesLowerCaseIdentifiers()) {
+            return identifier.toLowerCase();
+        }
+        return identifier;
+    }
+
+    /**
+     * ソート対象のフィールド名からORDER BY句を組み立てる。
+     * <p>
+     * カラムに対応しないフィールド名は無視する。
+     * </p>
+     *
+     * @param fieldNames ソート対象のフィールド名
+     * @return ORDER BY句。ソート対象のカラムがない場合は空文字列
+     */
+    String getOrderByClause(String... fieldNames) {
+        if (fieldNames == null || fieldNames.length == 0) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (String fieldName : fieldNames) {
+            final String columnName = columnNames.get(fieldName);
+            if (columnName == null) {
+                continue;
+            }
+            sb.append(sb.length() == 0 ? " ORDER BY " : ", ")
+              .append(columnName);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * エンティティクラスを取得する。
+     *
+     * @return エンティティクラス
+     */
+    Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * テーブル名を取得する。
+     *
+     * @return テーブル名
+     */
+    String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * スキーマ名を取得する。
+     *
+     * @return スキーマ名
+     */
+    String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * スキーマ名で修飾したテーブル名を取得する。
+     *
+     * @return スキーマ名で修飾したテーブル名
+     */
+    String getQualifiedTableName() {
+        return qualifiedTableName;
+    }
+
+    /**
+     * カラムを取得する。
+     *
+     * @return カラム
+     */
+    List<ColumnMetadata> getColumns() {
+        return columns;
+    }
+
+    /**
+     * 主キーのカラムを取得する。
+     *
+     * @return 主キーのカラム
+     */
+    List<ColumnMetadata> getPrimaryKeys() {
+        return primaryKeys;
+    }
+
+    /**
+     * 外部キーのカラムを取得する。
+     *
+     * @return 外部キーのカラム
+     */
+    List<ColumnMetadata> getForeignKeys() {
+        return foreignKeys;
+    }
+
+    /**
+     * INSERT文を取得する。
+     *
+     * @return INSERT文
+     */
+    String getInsertSql() {
+        return insertSql;
+    }
+
+    /**
+     * 全件削除のDELETE文を取得する。
+     *
+     * @return DELETE文
+     */
+    String getDeleteAllSql() {
+        return deleteAllSql;
+    }
+
+    /**
+     * 全件検索のSELECT文を取得する。
+     *
+     * @return SELECT文
+     */
+    String getSelectAllSql() {
+        return selectAllSql;
+    }
+
+    /**
+     * カラムを{@link #getColumns()}の順に列挙した全件検索のSELECT文を取得する。
+     *
+     * @return SELECT文
+     */
+    String getSelectColumnsSql() {
+        return selectColumnsSql;
+    }
+
+    /**
+     * 検索結果の現在行からエンティティを生成する。
+     * <p>
+     * 検索結果のカラムは{@link #getSelectColumnsSql()}の順に並んでいること。
+     * </p>
+     *
+     * @param resultSet 検索結果
+     * @return エンティティ
+     * @throws Exception 例外
+     */
+    Object toEntity(ResultSet resultSet) throws Exception {
+        final Object entity = entityClass.newInstance();
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).read(resultSet, i + 1, entity);
+        }
+        return entity;
+    }
+
+    /**
+     * カラムのメタデータ。
+     */
+    static final class ColumnMetadata {
+
+        /** エンティティのフィールド */
+        private final Field field;
+
+        /** 値を保持するフィールド。外部キーの場合は関連先エンティティの参照カラムのフィールド */
+        private final Field valueField;
+
+        /** {@link Column}アノテーション。外部キーの場合はnull */
+        private final Column column;
+
+        /** {@link JoinColumn}アノテーション。外部キーでない場合はnull */
+        private final JoinColumn joinColumn;
+
+        /** 値を保持するフィールドの{@link Column}アノテーション */
+        private final Column valueColumn;
+
+        /** 値を保持するフィールドの{@link Temporal}アノテーション */
+        private final Temporal temporal;
+
+        /** 主キーか否か */
+        private final boolean primaryKey;
+
+        /** カラム名 */
+        private final String name;
+
+        /** SQL型 */
+        private final int sqlType;
+
+        /**
+         * フィールドのアノテーションを読み取り、カラムのメタデータを生成する。
+         *
+         * @param field エンティティのフィールド
+         */
+        private ColumnMetadata(Field field) {
+            this.field = field;
+            column = field.getAnnotation(Column.class);
+            primaryKey = field.getAnnotation(Id.class) != null;
+            if (column != null) {
+                joinColumn = null;
+                valueField = field;
+                valueColumn = column;
+                name = column.name();
+            } else {
+                joinColumn = field.getAnnotation(JoinColumn.class);
+                if (joinColumn == null) {
+                    throw new IllegalArgumentException("@Column or @JoinColumn annotation was not found. field = "
+                            + field.getDeclaringClass().getName() + '#' + field.getName());
+                }
+                valueField = getJoinField(field, joinColumn.referencedColumnName());
+                valueColumn = valueField.getAnnotation(Column.class);
+                name = joinColumn.name();
+            }
+            temporal = valueField.getAnnotation(Temporal.class);
+            sqlType = toSqlType(valueField.getType(), temporal);
+        }
+
+        /**
+         * 関連先エンティティの参照カラムに対応するフィールドを取得する。
+         *
+         * @param field 関連先エンティティを保持するフィールド
+         * @param referencedColumnName 参照カラム名
+         * @return 参照カラムに対応するフィールド
+         */
+        private static Field getJoinField(Field field, String referencedColumnName) {
+            for (Field f : field.getType().getFields()) {
+                final Column c = f.getAnnotation(Column.class);
+                if (c != null && referencedColumnName.equals(c.name())) {
+                    return f;
+                }
+            }
+            throw new IllegalArgumentException("referenced column was not found. field = "
+                    + field.getDeclaringClass().getName() + '#' + field.getName()
+                    + ", referenced column name = " + referencedColumnName);
+        }
+
+        /**
+         * フィールドの型に対応するSQL型を取得する。
+         *
+         * @param type フィールドの型
+         * @param temporal {@link Temporal}アノテーション
+         * @return SQL型
+         */
+        private static int toSqlType(Class<?> type, Temporal temporal) {
+            if (temporal != null) {
+                switch (temporal.value()) {
+                    case DATE:
+                        return Types.DATE;
+                    case TIME:
+                        return Types.TIME;
+                    default:
+                        return Types.TIMESTAMP;
+                }
+            }
+            if (type == Long.class || type == long.class) {
+                return Types.BIGINT;
+            } else if (type == Integer.class || type == int.class) {
+                return Types.INTEGER;
+            } else if (type == Short.class || type == short.class) {
+                return Types.SMALLINT;
+            } else if (type == BigDecimal.class) {
+                return Types.DECIMAL;
+            } else if (type == Double.class || type == double.class) {
+                return Types.DOUBLE;
+            } else if (type == Float.class || type == float.class) {
+                return Types.REAL;
+            } else if (type == Boolean.class || type == boolean.class) {
+                return Types.BOOLEAN;
+            } else if (type == byte[].class) {
+                return Types.VARBINARY;
+            } else if (type == java.sql.Date.class) {
+                return Types.DATE;
+            } else if (type == java.sql.Time.class) {
+                return Types.TIME;
+            } else if (java.util.Date.class.isAssignableFrom(type)) {
+                return Types.TIMESTAMP;
+            }
+            return Types.VARCHAR;
+        }
+
+        /**
+         * エンティティからこのカラムの値を取得する。
+         * <p>
+         * 外部キーの場合は、関連先エンティティの参照カラムの値を返す。
+         * </p>
+         *
+         * @param entity エンティティ
+         * @return カラムの値
+         * @throws IllegalAccessException フィールドにアクセスできない場合
+         */
+        Object getValue(Object entity) throws IllegalAccessException {
+            final Object value = field.get(entity);
+            if (joinColumn == null || value == null) {
+                return value;
+            }
+            return valueField.get(value);
+        }
+
+        /**
+         * エンティティからこのカラムの値を取得し、ステートメントにバインドする。
+         *
+         * @param statement ステートメント
+         * @param index バインド位置
+         * @param entity エンティティ
+         * @throws Exception 例外
+         */
+        void bind(PreparedStatement statement, int index, Object entity) throws Exception {
+            final Object value = getValue(entity);
+            if (value == null) {
+                statement.setNull(index, sqlType);
+            } else if (temporal != null) {
+                final long time = ((java.util.Date) value).getTime();
+                switch (temporal.value()) {
+                    case DATE:
+                        statement.setDate(index, new java.sql.Date(time));
+                        break;
+                    case TIME:
+                        statement.setTime(index, new java.sql.Time(time));
+                        break;
+                    default:
+                        statement.setTimestamp(index, value instanceof java.sql.Timestamp
+                                ? (java.sql.Timestamp) value : new java.sql.Timestamp(time));
+                        break;
+                }
+            } else if (value instanceof Character) {
+                statement.setString(index, value.toString());
+            } else {
+                statement.setObject(index, value);
+            }
+        }
+
+        /**
+         * 検索結果からこのカラムの値を取得し、エンティティに設定する。
+         * <p>
+         * 外部キーの場合は、参照カラムの値のみを設定した関連先エンティティを生成して設定する。
+         * 値がnullの場合は何もしない。
+         * </p>
+         *
+         * @param resultSet 検索結果
+         * @param index カラムの位置
+         * @param entity エンティティ
+         * @throws Exception 例外
+         */
+        void read(ResultSet resultSet, int index, Object entity) throws Exception {
+            final Object value = getResultValue(resultSet, index);
+            if (value == null) {
+                return;
+            }
+            if (joinColumn == null) {
+                field.set(entity, value);
+            } else {
+                final Object referenced = field.getType()
+                        .newInstance();
+                valueField.set(referenced, value);
+                field.set(entity, referenced);
+            }
+        }
+
+        /**
+         * 検索結果から、値を保持するフィールドの型に合わせてカラムの値を取得する。
+         *
+         * @param resultSet 検索結果
+         * @param index カラムの位置
+         * @return カラムの値。nullの場合はnull
+         * @throws SQLException データベースアクセスエラーが発生した場合
+         */
+        private Object getResultValue(ResultSet resultSet, int index) throws SQLException {
+            final Class<?> type = valueField.getType();
+            final Object value;
+            if (temporal != null || java.util.Date.class.isAssignableFrom(type)) {
+                switch (sqlType) {
+                    case Types.DATE:
+                        value = resultSet.getDate(index);
+                        break;
+                    case Types.TIME:
+                        value = resultSet.getTime(index);
+                        break;
+                    default:
+                        value = resultSet.getTimestamp(index);
+                        break;
+                }
+            } else if (type == Long.class || type == long.class) {
+                value = resultSet.getLong(index);
+            } else if (type == Integer.class || type == int.class) {
+                value = resultSet.getInt(index);
+            } else if (type == Short.class || type == short.class) {
+                value = resultSet.getShort(index);
+            } else if (type == BigDecimal.class) {
+                value = resultSet.getBigDecimal(index);
+            } else if (type == Double.class || type == double.class) {
+                value = resultSet.getDouble(index);
+            } else if (type == Float.class || type == float.class) {
+                value = resultSet.getFloat(index);
+            } else if (type == Boolean.class || type == boolean.class) {
+                value = resultSet.getBoolean(index);
+            } else if (type == byte[].class) {
+                value = resultSet.getBytes(index);
+            } else if (type == Character.class || type == char.class) {
+                final String str = resultSet.getString(index);
+                value = StringUtil.hasValue(str) ? str.charAt(0) : null;
+            } else if (type == String.class) {
+                value = resultSet.getString(index);
+            } else {
+                value = resultSet.getObject(index);
+            }
+            return resultSet.wasNull() ? null : value;
+        }
+
+        /**
+         * エンティティのフィールドを取得する。
+         *
+         * @return エンティティのフィールド
+         */
+        Field getField() {
+            return field;
+        }
+
+        /**
+         * 値を保持するフィールドを取得する。
+         *
+         * @return 外部キーの場合は関連先エンティティの参照カラムのフィールド、そうでない場合はエンティティのフィールド
+         */
+        Field getValueField() {
+            return valueField;
+        }
+
+        /**
+         * {@link Column}アノテーションを取得する。
+         *
+         * @return {@link Column}アノテーション。外部キーの場合はnull
+         */
+        Column getColumn() {
+            return column;
+        }
+
+        /**
+         * {@link JoinColumn}アノテーションを取得する。
+         *
+         * @return {@link JoinColumn}アノテーション。外部キーでない場合はnull
+         */
+        JoinColumn getJoinColumn() {
+            return joinColumn;
+        }
+
+        /**
+         * 値を保持するフィールドの{@link Column}アノテーションを取得する。
+         *
+         * @return 値を保持するフィールドの{@link Column}アノテーション
+         */
+        Column getValueColumn() {
+            return valueColumn;
+        }
+
+        /**
+         * 値を保持するフィールドの{@link Temporal}アノテーションを取得する。
+         *
+         * @return {@link Temporal}アノテーション。設定されていない場合はnull
+         */
+        Temporal getTemporal() {
+            return temporal;
+        }
+
+        /**
+         * 外部キーか否か。
+         *
+         * @return 外部キーの場合はtrue
+         */
+        boolean isJoinColumn() {
+            return joinColumn != null;
+        }
+
+        /**
+         * 主キーか否か。
+         *
+         * @return 主キーの場合はtrue
+         */
+        boolean isPrimaryKey() {
+            return primaryKey;
+        }
+
+        /**
+         * カラム名を取得する。
+         *
+         * @return カラム名
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * 関連先のエンティティクラスを取得する。
+         *
+         * @return 関連先のエンティティクラス。外部キーでない場合はnull
+         */
+        Class<?> getReferencedEntityClass() {
+            return joinColumn != null ? field.getType() : null;
+        }
+
+        /**
+         * SQL型を取得する。
+         *
+         * @return SQL型
+         */
+        int getSqlType() {
+            return sqlType;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package nablarch.test.support.db.helper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * テストメソッドを1つのトランザクション内で実行し、終了後にロールバックすることを示すアノテーション。
+ * <p>
+ * {@link DatabaseTestRunner}で実行するテストクラスまたはテストメソッドに指定する。
+ * テストメソッドの実行中(@Before、@Afterを含む)に、{@link VariousDbTestHelper}及び
+ * Nablarchのデータベース接続が取得するコネクションは、1つの物理コネクションのトランザクションを共有する。
+ * このトランザクションはテストメソッドの終了後にロールバックされるため、
+ * テストデータの削除を行わなくてもテストメソッド間でデータが独立する。
+ * </p>
+ * <p>
+ * テスト中に行ったコミットはセーブポイントの設定、ロールバックは直前のセーブポイントへのロールバックとして扱われる。
+ * DDLは暗黙的にコミットされる場合があるため、テーブルの作成は{@link org.junit.BeforeClass}で行うこと。
+ * </p>
+ * <p>
+ * 本機能を使用するには、データソースが{@link nablarch.test.support.db.datasource.DataSourceFactory}で
+ * 生成されている必要がある。
+ * </p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface RollbackTransaction {
+}
@@ -0,0 +1,289 @@
+package nablarch.test.support.db.helper;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nablarch.core.util.StringUtil;
+import nablarch.test.support.db.datasource.DbWorker;
+
+/**
+ * 作成済みテーブルの定義のフィンガープリントを保持するキャッシュ。
+ * <p>
+ * テーブルを作成したDDLのハッシュ値をフィンガープリントとし、メモリ上及びマーカーテーブル({@value #MARKER_TABLE})に記録する。
+ * マーカーテーブルはコネクションのカレントスキーマに作成されるため、ワーカごとのスキーマを使用する場合はワーカごとに記録される。
+ * </p>
+ * <p>
+ * マーカーテーブルは以前に実行したテストの記録を含み、{@link VariousDbTestHelper}以外の方法で変更したテーブルの定義は反映されない。
+ * このため、フィンガープリントが一致した場合も、データベースのメタデータから取得した実際のカラムがエンティティのカラムと一致しなければ、
+ * 一致しないものとして扱う。
+ * </p>
+ */
+final class SchemaFingerprintCache {
+
+    /** マーカーテーブル名 */
+    static final String MARKER_TABLE = "NABLARCH_TEST_TABLE_FINGERPRINT";
+
+    /** ワーカを識別するキーをキーにした、テーブル名とフィンガープリントのマップ */
+    private final ConcurrentMap<String, Map<String, String>> fingerprints =
+            new ConcurrentHashMap<String, Map<String, String>>();
+
+    /**
+     * DDLからフィンガープリントを算出する。
+     *
+     * @param ddl DDL
+     * @return フィンガープリント(SHA-1の16進表記)
+     */
+    static String fingerprint(List<String> ddl) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String sql : ddl) {
+                digest.update(sql.getBytes("UTF-8"));
+                digest.update((byte) 0);
+            }
+            final StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                  .append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 全てのテーブルが、記録されたフィンガープリント及び実際のカラムと一致するか否か。
+     *
+     * @param connection コネクション
+     * @param workerKey ワーカを識別するキー
+     * @param tables テーブルのメタデータ
+     * @param expected テーブル名とフィンガープリントのマップ
+     * @return 全て一致する場合はtrue
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    boolean matches(Connection connection, String workerKey, List<EntityMetadata> tables,
+            Map<String, String> expected) throws SQLException {
+        final Map<String, String> recorded = load(connection, workerKey);
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            if (!entry.getValue()
+                    .equals(recorded.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        final DatabaseMetaData metaData = connection.getMetaData();
+        for (EntityMetadata table : tables) {
+            if (!matchesColumns(metaData, table)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * データベースのメタデータから取得したテーブルのカラムが、エンティティのカラムと一致するか否か。
+     * <p>
+     * カラム名の集合を比較する。
+     * スキーマ名を指定していないテーブルで、カレントスキーマが判断できず、複数のスキーマに同名のテーブルが存在する場合は、一致しないものとする。
+     * </p>
+     *
+     * @param metaData データベースのメタデータ
+     * @param table テーブルのメタデータ
+     * @return 一致する場合はtrue。テーブルが存在しない場合はfalse
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static boolean matchesColumns(DatabaseMetaData metaData, EntityMetadata table) throws SQLException {
+        final String schemaName = StringUtil.hasValue(table.getSchemaName())
+                ? table.getSchemaName() : DbWorker.getCurrentSchema();
+        final Map<String, Set<String>> actual = new HashMap<String, Set<String>>();
+        final ResultSet rs = metaData.getColumns(null, EntityMetadata.toIdentifier(metaData, schemaName),
+                EntityMetadata.toIdentifier(metaData, table.getTableName()), null);
+        try {
+            while (rs.next()) {
+                final String key = rs.getString("TABLE_CAT") + '.' + rs.getString("TABLE_SCHEM");
+                Set<String> columns = actual.get(key);
+                if (columns == null) {
+                    columns = new HashSet<String>();
+                    actual.put(key, columns);
+                }
+                columns.add(rs.getString("COLUMN_NAME").toUpperCase());
+            }
+        } finally {
+            rs.close();
+        }
+        if (actual.size() != 1) {
+            return false;
+        }
+        final Set<String> expected = new HashSet<String>();
+        for (EntityMetadata.ColumnMetadata column : table.getColumns()) {
+            expected.add(column.getName().toUpperCase());
+        }
+        return expected.equals(actual.values().iterator().next());
+    }
+
+    /**
+     * テーブルのフィンガープリントを記録する。
+     *
+     * @param connection コネクション
+     * @param workerKey ワーカを識別するキー
+     * @param tables テーブル名とフィンガープリントのマップ
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    void record(Connection connection, String workerKey, Map<String, String> tables) throws SQLException {
+        final Map<String, String> recorded = load(connection, workerKey);
+        deleteMarkers(connection, tables.keySet());
+        final PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO " + MARKER_TABLE + " (TABLE_NAME, FINGERPRINT) VALUES (?, ?)");
+        try {
+            for (Map.Entry<String, String> entry : tables.entrySet()) {
+                statement.setString(1, entry.getKey());
+                statement.setString(2, entry.getValue());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+        commitIfNecessary(connection);
+        recorded.putAll(tables);
+    }
+
+    /**
+     * テーブルのフィンガープリントを削除する。
+     *
+     * @param connection コネクション
+     * @param workerKey ワーカを識別するキー
+     * @param tableNames テーブル名
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    void remove(Connection connection, String workerKey, Collection<String> tableNames) throws SQLException {
+        final Map<String, String> recorded = load(connection, workerKey);
+        boolean found = false;
+        for (String tableName : tableNames) {
+            found |= recorded.remove(tableName) != null;
+        }
+        if (!found) {
+            return;
+        }
+        deleteMarkers(connection, tableNames);
+        commitIfNecessary(connection);
+    }
+
+    /**
+     * ワーカのフィンガープリントを取得する。
+     * <p>
+     * 初回のみマーカーテーブルから読み込む。マーカーテーブルが読み込めない場合は作成する。
+     * </p>
+     *
+     * @param connection コネクション
+     * @param workerKey ワーカを識別するキー
+     * @return テーブル名とフィンガープリントのマップ
+     * @throws SQLException マーカーテーブルの読み込み及び作成に失敗した場合
+     */
+    private Map<String, String> load(Connection connection, String workerKey) throws SQLException {
+        Map<String, String> recorded = fingerprints.get(workerKey);
+        if (recorded != null) {
+            return recorded;
+        }
+        recorded = new ConcurrentHashMap<String, String>();
+        try {
+            readMarkers(connection, recorded);
+        } catch (SQLException e) {
+            // マーカーテーブルが存在しない。作成にも失敗した場合は、読み込みの例外を連結して送出する
+            createMarkerTable(connection, e);
+        }
+        final Map<String, String> cached = fingerprints.putIfAbsent(workerKey, recorded);
+        return cached != null ? cached : recorded;
+    }
+
+    /**
+     * マーカーテーブルからフィンガープリントを読み込む。
+     *
+     * @param connection コネクション
+     * @param recorded 読み込んだフィンガープリントの格納先
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static void readMarkers(Connection connection, Map<String, String> recorded) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            final ResultSet rs = statement.executeQuery("SELECT TABLE_NAME, FINGERPRINT FROM " + MARKER_TABLE);
+            while (rs.next()) {
+                recorded.put(rs.getString(1), rs.getString(2));
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * マーカーテーブルを作成する。
+     *
+     * @param connection コネクション
+     * @param readFailure マーカーテーブルの読み込みで発生した例外
+     * @throws SQLException 作成に失敗した場合
+     */
+    private static void createMarkerTable(Connection connection, SQLException readFailure) throws SQLException {
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                statement.execute("CREATE TABLE " + MARKER_TABLE
+                        + " (TABLE_NAME VARCHAR(256) NOT NULL, FINGERPRINT VARCHAR(40) NOT NULL, PRIMARY KEY (TABLE_NAME))");
+            } finally {
+                statement.close();
+            }
+            commitIfNecessary(connection);
+        } catch (SQLException e) {
+            e.setNextException(readFailure);
+            throw e;
+        }
+    }
+
+    /**
+     * マーカーテーブルからテーブルのフィンガープリントを削除する。
+     *
+     * @param connection コネクション
+     * @param tableNames テーブル名
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static void deleteMarkers(Connection connection, Collection<String> tableNames) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(
+                "DELETE FROM " + MARKER_TABLE + " WHERE TABLE_NAME = ?");
+        try {
+            for (String tableName : tableNames) {
+                statement.setString(1, tableName);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 自動コミットが無効な場合はコミットする。
+     *
+     * @param connection コネクション
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static void commitIfNecessary(Connection connection) throws SQLException {
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+}
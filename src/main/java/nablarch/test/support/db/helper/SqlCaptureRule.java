@@ -0,0 +1,153 @@
+package nablarch.test.support.db.helper;
+
+import java.util.List;
+
+import nablarch.test.support.db.datasource.ExecutedSql;
+import nablarch.test.support.db.datasource.SqlRecorder;
+import nablarch.test.support.db.datasource.TestDataSource;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * テストメソッド内で実行されたSQL文を記録する{@link TestRule}。
+ * <p>
+ * テストメソッドを実行したスレッド(及びそのスレッドから生成されたスレッド)が
+ * {@link VariousDbTestHelper}のデータソースから取得したコネクションで実行したSQL文を記録する。
+ * 記録した内容に対して、実行回数の上限を検証できる。
+ * </p>
+ * <pre>
+ * {@code @Rule}
+ * public SqlCaptureRule sql = new SqlCaptureRule();
+ *
+ * {@code @Test}
+ * public void test() {
+ *     sql.reset();
+ *     dao.findAll();
+ *     sql.assertQueryCountAtMost(3);
+ * }
+ * </pre>
+ */
+public class SqlCaptureRule implements TestRule {
+
+    /** 記録先 */
+    private volatile SqlRecorder recorder;
+
+    @Override
+    public Statement apply(final Statement statement, final Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                final TestDataSource dataSource = VariousDbTestHelper.getTestDataSource();
+                recorder = dataSource.beginSqlCapture();
+                try {
+                    statement.evaluate();
+                } finally {
+                    dataSource.endSqlCapture();
+                }
+            }
+        };
+    }
+
+    /**
+     * 記録したSQL文を取得する。
+     *
+     * @return 実行順に並べたSQL文
+     */
+    public List<ExecutedSql> getExecutedSqls() {
+        return getRecorder().getExecutedSqls();
+    }
+
+    /**
+     * 記録を消去する。
+     * <p>
+     * テストデータのセットアップ後に呼び出すことで、検証対象の処理で実行されたSQL文のみを記録できる。
+     * </p>
+     */
+    public void reset() {
+        getRecorder().clear();
+    }
+
+    /**
+     * 問い合わせ(SELECT文)の実行回数を検証する。
+     *
+     * @param expected 期待する実行回数
+     */
+    public void assertQueryCount(int expected) {
+        final int actual = getRecorder().getQueryCount();
+        if (actual != expected) {
+            fail("query count", "expected " + expected, actual);
+        }
+    }
+
+    /**
+     * 問い合わせ(SELECT文)の実行回数が上限以下であることを検証する。
+     *
+     * @param max 実行回数の上限
+     */
+    public void assertQueryCountAtMost(int max) {
+        final int actual = getRecorder().getQueryCount();
+        if (actual > max) {
+            fail("query count", "expected at most " + max, actual);
+        }
+    }
+
+    /**
+     * 全てのSQL文の実行回数を検証する。
+     *
+     * @param expected 期待する実行回数
+     */
+    public void assertStatementCount(int expected) {
+        final int actual = getRecorder().getStatementCount();
+        if (actual != expected) {
+            fail("statement count", "expected " + expected, actual);
+        }
+    }
+
+    /**
+     * 全てのSQL文の実行回数が上限以下であることを検証する。
+     *
+     * @param max 実行回数の上限
+     */
+    public void assertStatementCountAtMost(int max) {
+        final int actual = getRecorder().getStatementCount();
+        if (actual > max) {
+            fail("statement count", "expected at most " + max, actual);
+        }
+    }
+
+    /**
+     * 記録したSQL文をメッセージに含めて、検証を失敗させる。
+     *
+     * @param subject 検証対象
+     * @param expectation 期待値
+     * @param actual 実際の値
+     */
+    private void fail(String subject, String expectation, int actual) {
+        final StringBuilder message = new StringBuilder(subject).append(": ")
+                                                                .append(expectation)
+                                                                .append(" but was ")
+                                                                .append(actual)
+                                                                .append(". executed sql:");
+        for (ExecutedSql sql : getRecorder().getExecutedSqls()) {
+            message.append(System.getProperty("line.separator"))
+                   .append("  ")
+                   .append(sql);
+        }
+        throw new AssertionError(message.toString());
+    }
+
+    /**
+     * 記録先を取得する。
+     *
+     * @return 記録先
+     */
+    private SqlRecorder getRecorder() {
+        final SqlRecorder current = recorder;
+        if (current == null) {
+            throw new IllegalStateException("sql capture has not begun. use this class with @Rule.");
+        }
+        return current;
+    }
+}
@@ -0,0 +1,196 @@
+package nablarch.test.support.db.helper;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nablarch.test.support.db.helper.TargetDb.Db;
+
+/**
+ * テーブルの内容のスナップショット。
+ * <p>
+ * 取得時にテーブルの全レコードをデータベース上の退避用テーブルにコピーし、
+ * 復元時にはテーブルのレコードを削除してから退避用テーブルからコピーする。
+ * レコードはデータベース内でのみコピーされ、クライアントとの間で転送されない。
+ * </p>
+ * <p>
+ * 退避用テーブルは、スナップショットが不要になった時点で{@link #drop(Connection)}により削除すること。
+ * </p>
+ */
+final class TableSnapshot {
+
+    /** 退避用テーブル名の接頭辞 */
+    private static final String SHADOW_TABLE_PREFIX = "SNAP_";
+
+    /** 退避用テーブル名の採番に使用するカウンタ */
+    private static final AtomicInteger SHADOW_TABLE_COUNTER = new AtomicInteger();
+
+    /** テーブル名 */
+    private final List<String> tableNames;
+
+    /** 退避用テーブル名 */
+    private final List<String> shadowTableNames;
+
+    /** スナップショットを取得したエンティティクラス */
+    private final Class<?>[] entityClasses;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param tableNames テーブル名
+     * @param shadowTableNames 退避用テーブル名
+     * @param entityClasses スナップショットを取得したエンティティクラス
+     */
+    private TableSnapshot(List<String> tableNames, List<String> shadowTableNames, Class<?>[] entityClasses) {
+        this.tableNames = tableNames;
+        this.shadowTableNames = shadowTableNames;
+        this.entityClasses = entityClasses;
+    }
+
+    /**
+     * テーブルの内容のスナップショットを取得する。
+     * <p>
+     * 退避用テーブルはテーブルと同じスキーマに作成する。
+     * テーブルは外部キーの参照先が参照元より前になるよう並べ替える。
+     * 退避用テーブルの作成はDDLのため、共有トランザクション中に実行しないこと。
+     * </p>
+     *
+     * @param connection コネクション
+     * @param db 接続先のデータベース
+     * @param entityClasses スナップショットを取得するテーブルのエンティティクラス
+     * @return スナップショット
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    static TableSnapshot capture(Connection connection, Db db, Class<?>... entityClasses) throws SQLException {
+        final List<String> tableNames = new ArrayList<String>(entityClasses.length);
+        final List<String> shadowTableNames = new ArrayList<String>(entityClasses.length);
+        final TableSnapshot snapshot = new TableSnapshot(tableNames, shadowTableNames, entityClasses.clone());
+        try {
+            for (EntityMetadata metadata : EntityMetadata.sortByDependency(entityClasses)) {
+                final String tableName = metadata.getQualifiedTableName();
+                final String shadowTableName = EntityMetadata.addSchema(
+                        SHADOW_TABLE_PREFIX + SHADOW_TABLE_COUNTER.incrementAndGet(), metadata.getSchemaName());
+                // 前回の実行で削除されずに残った退避用テーブルは削除する
+                dropQuietly(connection, shadowTableName);
+                execute(connection, buildCopyTableSql(db, tableName, shadowTableName));
+                tableNames.add(tableName);
+                shadowTableNames.add(shadowTableName);
+            }
+        } catch (SQLException e) {
+            snapshot.drop(connection);
+            throw e;
+        }
+        return snapshot;
+    }
+
+    /**
+     * テーブルの構造とレコードをコピーして、退避用テーブルを作成するSQL文を組み立てる。
+     *
+     * @param db 接続先のデータベース
+     * @param tableName コピー元のテーブル名
+     * @param shadowTableName 退避用テーブル名
+     * @return SQL文
+     */
+    private static String buildCopyTableSql(Db db, String tableName, String shadowTableName) {
+        if (db == Db.SQL_SERVER) {
+            return "SELECT * INTO " + shadowTableName + " FROM " + tableName;
+        }
+        if (db == Db.DB2) {
+            return "CREATE TABLE " + shadowTableName + " AS (SELECT * FROM " + tableName + ") WITH DATA";
+        }
+        return "CREATE TABLE " + shadowTableName + " AS SELECT * FROM " + tableName;
+    }
+
+    /**
+     * スナップショットからテーブルの内容を復元し、コミットする。
+     * <p>
+     * レコードの削除は取得時と逆の順序で、コピーは取得時と同じ順序で、1回のバッチで実行する。
+     * </p>
+     *
+     * @param connection コネクション
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    void restore(Connection connection) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            final List<String> reversed = new ArrayList<String>(tableNames);
+            Collections.reverse(reversed);
+            final Statement statement = connection.createStatement();
+            try {
+                for (String tableName : reversed) {
+                    statement.addBatch("DELETE FROM " + tableName);
+                }
+                for (int i = 0; i < tableNames.size(); i++) {
+                    statement.addBatch("INSERT INTO " + tableNames.get(i) + " SELECT * FROM " + shadowTableNames.get(i));
+                }
+                statement.executeBatch();
+            } finally {
+                statement.close();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * 退避用テーブルを削除する。
+     * <p>
+     * 削除に失敗した場合は無視する。
+     * </p>
+     *
+     * @param connection コネクション
+     */
+    void drop(Connection connection) {
+        for (String shadowTableName : shadowTableNames) {
+            dropQuietly(connection, shadowTableName);
+        }
+    }
+
+    /**
+     * スナップショットを取得したエンティティクラスを取得する。
+     *
+     * @return エンティティクラス
+     */
+    Class<?>[] getEntityClasses() {
+        return entityClasses.clone();
+    }
+
+    /**
+     * テーブルを削除する。削除に失敗した場合は無視する。
+     *
+     * @param connection コネクション
+     * @param tableName テーブル名
+     */
+    private static void dropQuietly(Connection connection, String tableName) {
+        try {
+            execute(connection, "DROP TABLE " + tableName);
+        } catch (SQLException ignored) {
+            // 存在しない場合は何もしない
+        }
+    }
+
+    /**
+     * SQL文を実行する。
+     *
+     * @param connection コネクション
+     * @param sql SQL文
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static void execute(Connection connection, String sql) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+}
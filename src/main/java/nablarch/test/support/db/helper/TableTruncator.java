@@ -0,0 +1,333 @@
+package nablarch.test.support.db.helper;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import nablarch.core.util.StringUtil;
+import nablarch.test.support.db.helper.TargetDb.Db;
+
+/**
+ * データベースごとに最も高速な方法でテーブルを空にするクラス。
+ * <p>
+ * データベースごとに以下の方法で実行する。
+ * H2及びMySQL以外では、TRUNCATEが失敗した場合はDELETE文で削除する。
+ * データベースを判定できない場合は、TRUNCATEを実行せずにDELETE文で削除する。
+ * </p>
+ * <ul>
+ * <li>H2:テーブルごとに参照整合性制約を無効化し、TRUNCATEを1回のバッチで実行する</li>
+ * <li>MySQL:セッションの外部キー制約のチェックを無効化し、TRUNCATEを1回のバッチで実行する</li>
+ * <li>PostgreSQL:全テーブルを1つのTRUNCATE文で実行する</li>
+ * <li>Oracle、SQLServer、DB2:参照元のテーブルから順にTRUNCATEを実行する
+ * (外部キーで参照されているテーブルはTRUNCATEできないため、DELETE文で削除される)</li>
+ * </ul>
+ * <p>
+ * H2及びMySQLで制約のチェックを無効化するのは、対象のテーブルを参照する外部キーが全て対象のテーブルに定義されている場合のみとする。
+ * 対象外のテーブルから参照されている場合は、参照元のデータを残したまま参照先を空にしないよう、DELETE文で削除する。
+ * この場合、参照元にデータが存在すれば外部キー制約違反となる。
+ * また、制約のチェックを無効化して実行したTRUNCATEが失敗した場合は、制約のチェックを元に戻した上で例外を送出する。
+ * </p>
+ */
+final class TableTruncator {
+
+    /**
+     * このクラスのインスタンスは作成不可。
+     */
+    private TableTruncator() {
+    }
+
+    /**
+     * テーブルを空にする。
+     * <p>
+     * コネクションは自動コミットが有効であること。
+     * </p>
+     *
+     * @param connection コネクション
+     * @param db 接続先のデータベース。判定できない場合はnull
+     * @param tables 外部キーの参照元が参照先より前になるよう並べたテーブルのメタデータ
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    static void truncate(Connection connection, Db db, List<EntityMetadata> tables) throws SQLException {
+        if (tables.isEmpty()) {
+            return;
+        }
+        if (db == null) {
+            // TRUNCATEの構文が判断できないため、DELETE文で削除する
+            delete(connection, tables);
+            return;
+        }
+        if ((db == Db.H2 || db == Db.MY_SQL) && !isReferencedOnlyFromTargets(connection, tables)) {
+            // 制約のチェックを無効化すると、対象外の参照元のデータが参照先を失うため、DELETE文で削除する
+            delete(connection, tables);
+            return;
+        }
+        switch (db) {
+            case H2:
+                truncateWithBatch(connection, buildH2Statements(tables, false),
+                        buildH2Statements(tables, true));
+                break;
+            case MY_SQL:
+                truncateWithBatch(connection, buildMySqlStatements(tables),
+                        Collections.singletonList("SET FOREIGN_KEY_CHECKS = 1"));
+                break;
+            case POSTGRE_SQL:
+                truncateWithSingleStatement(connection, tables);
+                break;
+            default:
+                truncateEach(connection, db, tables);
+                break;
+        }
+    }
+
+    /**
+     * 対象のテーブルを参照する外部キーが、全て対象のテーブルに定義されているか否か。
+     * <p>
+     * スキーマ名を指定していないテーブルは、参照先と同じスキーマの参照元のみを対象のテーブルとみなす。
+     * </p>
+     *
+     * @param connection コネクション
+     * @param tables テーブルのメタデータ
+     * @return 対象外のテーブルから参照されていない場合はtrue
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static boolean isReferencedOnlyFromTargets(Connection connection, List<EntityMetadata> tables)
+            throws SQLException {
+        final DatabaseMetaData metaData = connection.getMetaData();
+        for (EntityMetadata table : tables) {
+            final ResultSet exportedKeys = metaData.getExportedKeys(null,
+                    EntityMetadata.toIdentifier(metaData, table.getSchemaName()),
+                    EntityMetadata.toIdentifier(metaData, table.getTableName()));
+            try {
+                while (exportedKeys.next()) {
+                    if (!isTarget(tables, schemaOf(exportedKeys, "FKTABLE"), exportedKeys.getString("FKTABLE_NAME"),
+                            schemaOf(exportedKeys, "PKTABLE"))) {
+                        return false;
+                    }
+                }
+            } finally {
+                exportedKeys.close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 参照元のテーブルが対象のテーブルか否か。
+     *
+     * @param tables テーブルのメタデータ
+     * @param schemaName 参照元のスキーマ名
+     * @param tableName 参照元のテーブル名
+     * @param referencedSchemaName 参照先のスキーマ名
+     * @return 対象のテーブルの場合はtrue
+     */
+    private static boolean isTarget(List<EntityMetadata> tables, String schemaName, String tableName,
+            String referencedSchemaName) {
+        for (EntityMetadata table : tables) {
+            if (!table.getTableName().equalsIgnoreCase(tableName)) {
+                continue;
+            }
+            final String expectedSchema = StringUtil.hasValue(table.getSchemaName())
+                    ? table.getSchemaName() : referencedSchemaName;
+            if (expectedSchema == null ? schemaName == null : expectedSchema.equalsIgnoreCase(schemaName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 外部キーの情報からスキーマ名を取得する。
+     * <p>
+     * スキーマをカタログとして扱うデータベース(MySQL)では、カタログ名を返す。
+     * </p>
+     *
+     * @param keys {@link DatabaseMetaData#getExportedKeys(String, String, String)}の結果
+     * @param prefix 列名の接頭辞(FKTABLEまたはPKTABLE)
+     * @return スキーマ名
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static String schemaOf(ResultSet keys, String prefix) throws SQLException {
+        final String schema = keys.getString(prefix + "_SCHEM");
+        return schema != null ? schema : keys.getString(prefix + "_CAT");
+    }
+
+    /**
+     * H2用のTRUNCATE文を組み立てる。
+     * <p>
+     * データベース全体の参照整合性制約を無効化すると並列実行中の他のテストに影響するため、
+     * テーブル単位で無効化する。
+     * </p>
+     *
+     * @param tables テーブルのメタデータ
+     * @param restoreOnly 参照整合性制約を有効化するSQL文のみを組み立てる場合はtrue
+     * @return 実行するSQL文
+     */
+    private static List<String> buildH2Statements(List<EntityMetadata> tables, boolean restoreOnly) {
+        final List<String> statements = new ArrayList<String>(tables.size() * 3);
+        if (!restoreOnly) {
+            for (EntityMetadata table : tables) {
+                statements.add("ALTER TABLE " + table.getQualifiedTableName() + " SET REFERENTIAL_INTEGRITY FALSE");
+            }
+            for (EntityMetadata table : tables) {
+                statements.add("TRUNCATE TABLE " + table.getQualifiedTableName());
+            }
+        }
+        for (EntityMetadata table : tables) {
+            statements.add("ALTER TABLE " + table.getQualifiedTableName() + " SET REFERENTIAL_INTEGRITY TRUE");
+        }
+        return statements;
+    }
+
+    /**
+     * MySQL用のTRUNCATE文を組み立てる。
+     *
+     * @param tables テーブルのメタデータ
+     * @return 実行するSQL文
+     */
+    private static List<String> buildMySqlStatements(List<EntityMetadata> tables) {
+        final List<String> statements = new ArrayList<String>(tables.size() + 2);
+        statements.add("SET FOREIGN_KEY_CHECKS = 0");
+        for (EntityMetadata table : tables) {
+            statements.add("TRUNCATE TABLE " + table.getQualifiedTableName());
+        }
+        statements.add("SET FOREIGN_KEY_CHECKS = 1");
+        return statements;
+    }
+
+    /**
+     * SQL文を1回のバッチで実行する。
+     * <p>
+     * 実行に失敗した場合は、制約のチェックを元に戻した上で例外を送出する。
+     * 元に戻すSQL文の実行に失敗した場合、その例外は送出する例外に連結する。
+     * </p>
+     *
+     * @param connection コネクション
+     * @param statements 実行するSQL文
+     * @param restoreStatements バッチの実行に失敗した場合に、制約のチェックを元に戻すためのSQL文
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static void truncateWithBatch(Connection connection, List<String> statements,
+            List<String> restoreStatements) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            for (String sql : statements) {
+                statement.addBatch(sql);
+            }
+            statement.executeBatch();
+        } catch (SQLException e) {
+            for (String sql : restoreStatements) {
+                try {
+                    final Statement restore = connection.createStatement();
+                    try {
+                        restore.execute(sql);
+                    } finally {
+                        restore.close();
+                    }
+                } catch (SQLException restoreFailure) {
+                    e.setNextException(restoreFailure);
+                }
+            }
+            throw e;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 全テーブルを1つのTRUNCATE文で空にする。
+     *
+     * @param connection コネクション
+     * @param tables テーブルのメタデータ
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static void truncateWithSingleStatement(Connection connection, List<EntityMetadata> tables)
+            throws SQLException {
+        final StringBuilder sql = new StringBuilder("TRUNCATE TABLE ");
+        for (int i = 0; i < tables.size(); i++) {
+            if (i != 0) {
+                sql.append(", ");
+            }
+            sql.append(tables.get(i)
+                    .getQualifiedTableName());
+        }
+        if (!execute(connection, sql.toString())) {
+            delete(connection, tables);
+        }
+    }
+
+    /**
+     * テーブルごとにTRUNCATE文を実行する。
+     * <p>
+     * TRUNCATEに失敗したテーブルはDELETE文で削除する。
+     * </p>
+     *
+     * @param connection コネクション
+     * @param db 接続先のデータベース
+     * @param tables テーブルのメタデータ
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static void truncateEach(Connection connection, Db db, List<EntityMetadata> tables)
+            throws SQLException {
+        // DB2は IMMEDIATE の指定が必須
+        final String suffix = db == Db.DB2 ? " IMMEDIATE" : "";
+        for (EntityMetadata table : tables) {
+            if (!execute(connection, "TRUNCATE TABLE " + table.getQualifiedTableName() + suffix)) {
+                delete(connection, Collections.singletonList(table));
+            }
+        }
+    }
+
+    /**
+     * SQL文を実行する。
+     *
+     * @param connection コネクション
+     * @param sql SQL文
+     * @return 実行に成功した場合はtrue
+     * @throws SQLException ステートメントの生成に失敗した場合
+     */
+    private static boolean execute(Connection connection, String sql) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+            return true;
+        } catch (SQLException e) {
+            return false;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * DELETE文でテーブルを空にし、コミットする。
+     *
+     * @param connection コネクション
+     * @param tables 外部キーの参照元が参照先より前になるよう並べたテーブルのメタデータ
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    static void delete(Connection connection, List<EntityMetadata> tables) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                for (EntityMetadata table : tables) {
+                    statement.addBatch(table.getDeleteAllSql());
+                }
+                statement.executeBatch();
+            } finally {
+                statement.close();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
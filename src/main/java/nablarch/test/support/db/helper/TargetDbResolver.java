@@ -0,0 +1,110 @@
+package nablarch.test.support.db.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import nablarch.core.util.FileUtil;
+import nablarch.test.support.db.helper.TargetDb.Db;
+
+/**
+ * テスト対象のデータベースを判定するクラス。
+ * <p>
+ * 接続先のURLはクラスパス上の{@code db.config}から初回アクセス時に一度だけ読み込み、
+ * 以降はプロセス内で共有する。
+ * </p>
+ */
+final class TargetDbResolver {
+
+    /** 接続先URLを読み込み済みか否か */
+    private static boolean loaded;
+
+    /** 接続先URL */
+    private static String url;
+
+    /**
+     * このクラスのインスタンスは作成不可。
+     */
+    private TargetDbResolver() {
+    }
+
+    /**
+     * {@code db.config}に設定された接続先URLを取得する。
+     *
+     * @return 接続先URL。設定されていない場合はnull
+     */
+    static synchronized String getUrl() {
+        if (!loaded) {
+            url = loadUrl();
+            loaded = true;
+        }
+        return url;
+    }
+
+    /**
+     * URLに対応するデータベースを判定する。
+     *
+     * @param url 接続先URL
+     * @return データベース。判定できない場合はnull
+     */
+    static Db resolve(String url) {
+        if (url == null) {
+            return null;
+        }
+        for (Db db : Db.values()) {
+            if (url.startsWith(db.prefix)) {
+                return db;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 接続先のデータベースがテスト対象か否かを判定する。
+     * <p>
+     * includeとexcludeが両方指定された場合はexcludeを優先する。
+     * いずれも指定されない場合はテスト対象とする。
+     * </p>
+     *
+     * @param url 接続先URL
+     * @param include テスト対象とするデータベース
+     * @param exclude テスト対象外とするデータベース
+     * @return テスト対象の場合はtrue
+     */
+    static boolean isTarget(String url, Db[] include, Db[] exclude) {
+        if (exclude.length != 0) {
+            for (Db db : exclude) {
+                if (url.startsWith(db.prefix)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (include.length != 0) {
+            for (Db db : include) {
+                if (url.startsWith(db.prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@code db.config}から接続先URLを読み込む。
+     *
+     * @return 接続先URL
+     */
+    private static String loadUrl() {
+        Properties properties = new Properties();
+        InputStream stream = FileUtil.getClasspathResource("db.config");
+        try {
+            properties.load(stream);
+        } catch (IOException e) {
+            throw new RuntimeException("property file load error.", e);
+        } finally {
+            FileUtil.closeQuietly(stream);
+        }
+        return properties.getProperty("db.url");
+    }
+}
@@ -3,43 +3,81 @@ package nablarch.test.support.db.helper;
 import nablarch.core.db.connection.ConnectionFactory;
 import nablarch.core.repository.di.DiContainer;
 import nablarch.core.util.StringUtil;
+import nablarch.test.support.db.datasource.DataSourceFactory;
+import nablarch.test.support.db.datasource.DbWorker;
+import nablarch.test.support.db.datasource.TestDataSource;
+import org.eclipse.persistence.config.PersistenceUnitProperties;
 import org.eclipse.persistence.internal.jpa.config.persistenceunit.PersistenceUnitImpl;
 import org.eclipse.persistence.internal.jpa.deployment.SEPersistenceUnitInfo;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
 import org.eclipse.persistence.jpa.JpaHelper;
 import org.eclipse.persistence.jpa.config.PersistenceUnit;
 import org.eclipse.persistence.jpa.config.RuntimeFactory;
-import org.eclipse.persistence.sessions.DatabaseSession;
 import org.eclipse.persistence.tools.schemaframework.FieldDefinition;
+import org.eclipse.persistence.tools.schemaframework.ForeignKeyConstraint;
 import org.eclipse.persistence.tools.schemaframework.SchemaManager;
 import org.eclipse.persistence.tools.schemaframework.TableDefinition;
 
 import javax.persistence.Column;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.FlushModeType;
-import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
-import javax.persistence.Transient;
 import javax.persistence.spi.PersistenceUnitTransactionType;
 import javax.sql.DataSource;
+import java.io.StringWriter;
 import java.lang.reflect.Field;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class VariousDbTestHelper {
 
     /** デフォルトのpersistenceUnit名 */
     private static final String DEFAULT_UNIT_NAME = "defaultPersistenceUnit";
 
-    /** エンティティマネージャ */
-    private static EntityManager em;
+    /** エンティティマネージャファクトリ */
+    private static volatile EntityManagerFactory emf;
+
+    /** スレッドごとのエンティティマネージャ */
+    private static final ThreadLocal<EntityManager> entityManager = new ThreadLocal<EntityManager>();
+
+    /** 生成したエンティティマネージャと、生成したスレッドに割り当てられていたワーカのスキーマ名 */
+    private static final ConcurrentMap<EntityManager, String> entityManagers =
+            new ConcurrentHashMap<EntityManager, String>();
 
     private static DataSource dataSource;
 
+    /** 接続先のデータベース */
+    private static TargetDb.Db targetDatabase;
+
+    /** 接続先のデータベースを判定済みか否か */
+    private static boolean targetDatabaseResolved;
+
+    /** 一括登録時のバッチサイズ */
+    private static int batchSize = 1000;
+
+    /** ストリーム検索時のフェッチサイズ */
+    private static int fetchSize = 1000;
+
+    /** 作成済みテーブルの定義のフィンガープリント */
+    private static final SchemaFingerprintCache SCHEMA_FINGERPRINTS = new SchemaFingerprintCache();
+
+    /** テーブル定義のフィンガープリントのキャッシュを使用するか否か */
+    private static volatile boolean schemaCacheEnabled = false;
+
     /**
      * このクラスのインスタンスは作成不可。
      */
@@ -50,22 +88,70 @@ public class VariousDbTestHelper {
         return dataSource.getConnection();
     }
 
-    public static TargetDb.Db getTargetDatabase() throws Exception {
-        final Connection connection = dataSource.getConnection();
-        final String url;
+    /**
+     * 接続先のデータベースを取得する。
+     * <p>
+     * 初回呼び出し時にコネクションのメタデータから判定し、以降は判定結果を返す。
+     * </p>
+     *
+     * @return 接続先のデータベース。判定できない場合はnull
+     * @throws Exception 例外
+     */
+    public static synchronized TargetDb.Db getTargetDatabase() throws Exception {
+        if (!targetDatabaseResolved) {
+            final Connection connection = dataSource.getConnection();
+            try {
+                targetDatabase = TargetDbResolver.resolve(connection.getMetaData()
+                        .getURL());
+            } finally {
+                connection.close();
+            }
+            targetDatabaseResolved = true;
+        }
+        return targetDatabase;
+    }
+
+    /**
+     * テスト用の共有トランザクションを開始する。
+     *
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     * @see RollbackTransaction
+     */
+    static void beginTestTransaction() throws SQLException {
+        getTestDataSource().beginSharedTransaction();
+    }
+
+    /**
+     * テスト用の共有トランザクションをロールバックする。
+     * <p>
+     * ロールバックしたデータがキャッシュから参照されないよう、エンティティマネージャをクローズし、キャッシュもクリアする。
+     * </p>
+     *
+     * @see RollbackTransaction
+     */
+    static void rollbackTestTransaction() {
         try {
-            url = connection
-                    .getMetaData()
-                    .getURL();
+            getTestDataSource().rollbackSharedTransaction();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         } finally {
-            connection.close();
+            closeEntityManagers();
+            emf.getCache()
+                    .evictAll();
         }
-        for (TargetDb.Db db : TargetDb.Db.values()) {
-            if (url.startsWith(db.prefix)) {
-                return db;
-            }
+    }
+
+    /**
+     * テスト用のデータソースを取得する。
+     *
+     * @return テスト用のデータソース
+     */
+    static TestDataSource getTestDataSource() {
+        if (!(dataSource instanceof TestDataSource)) {
+            throw new IllegalStateException(
+                    "data source must be created by " + DataSourceFactory.class.getName() + '.');
         }
-        return null;
+        return (TestDataSource) dataSource;
     }
 
     /**
@@ -73,10 +159,10 @@ public class VariousDbTestHelper {
      *
      * @param container コンテナ
      */
-    public static void initialize(DiContainer container) {
+    public static synchronized void initialize(DiContainer container) {
 
         // 初期化済みであれば終了
-        if (em != null) {
+        if (emf != null) {
             return;
         }
 
@@ -89,11 +175,98 @@ public class VariousDbTestHelper {
         }
         dataSource = getDataSource(container);
         ((SEPersistenceUnitInfo) pu.getPersistenceUnitInfo()).setNonJtaDataSource(dataSource);
+        if (DbWorker.isEnabled()) {
+            // ワーカごとにスキーマが異なるため、エンティティのキャッシュをワーカ間で共有しない
+            ((SEPersistenceUnitInfo) pu.getPersistenceUnitInfo()).getProperties()
+                    .setProperty(PersistenceUnitProperties.CACHE_SHARED_DEFAULT, "false");
+        }
         pu.addMappings();
-        em = RuntimeFactory.getInstance()
-                .createEntityManagerFactory(pu)
-                .createEntityManager();
-        em.setFlushMode(FlushModeType.AUTO);
+        emf = RuntimeFactory.getInstance()
+                .createEntityManagerFactory(pu);
+    }
+
+    /**
+     * 現在のスレッドのエンティティマネージャを取得する。
+     * <p>
+     * {@link EntityManager}はスレッドセーフではないため、スレッドごとに生成する。
+     * 生成したエンティティマネージャは{@link #closeEntityManagers()}でクローズされる。
+     * </p>
+     *
+     * @return エンティティマネージャ
+     */
+    private static EntityManager getEntityManager() {
+        EntityManager em = entityManager.get();
+        if (em == null || !em.isOpen()) {
+            em = emf.createEntityManager();
+            em.setFlushMode(FlushModeType.AUTO);
+            entityManager.set(em);
+            entityManagers.put(em, getWorkerKey());
+        }
+        return em;
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたワーカ({@link DbWorker})で生成したエンティティマネージャを全てクローズする。
+     * <p>
+     * テスト中に生成したスレッドのエンティティマネージャもクローズ対象となる。
+     * クローズ後に各スレッドで{@link VariousDbTestHelper}を使用した場合は、エンティティマネージャが再生成される。
+     * エンティティマネージャを使用中のスレッドがない状態で呼び出すこと。
+     * </p>
+     */
+    static void closeEntityManagers() {
+        entityManager.remove();
+        final String workerKey = getWorkerKey();
+        for (Map.Entry<EntityManager, String> entry : entityManagers.entrySet()) {
+            if (!entry.getValue()
+                    .equals(workerKey)) {
+                continue;
+            }
+            final EntityManager em = entry.getKey();
+            entityManagers.remove(em);
+            if (!em.isOpen()) {
+                continue;
+            }
+            if (em.getTransaction()
+                    .isActive()) {
+                em.getTransaction()
+                        .rollback();
+            }
+            em.close();
+        }
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたワーカを識別するキーを取得する。
+     *
+     * @return ワーカのスキーマ名。ワーカが割り当てられていない場合は空文字列
+     */
+    private static String getWorkerKey() {
+        final String schema = DbWorker.getCurrentSchema();
+        return schema != null ? schema : "";
+    }
+
+    /**
+     * 一括登録({@link #bulkInsert(Object...)})時のバッチサイズを設定する。
+     *
+     * @param batchSize 1回のバッチ更新で送信するレコード数
+     */
+    public static void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be greater than 0. batchSize = " + batchSize);
+        }
+        VariousDbTestHelper.batchSize = batchSize;
+    }
+
+    /**
+     * ストリーム検索({@link #streamAll(Class, String...)})時のフェッチサイズを設定する。
+     *
+     * @param fetchSize 1回のフェッチで取得するレコード数
+     */
+    public static void setFetchSize(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetch size must be greater than 0. fetchSize = " + fetchSize);
+        }
+        VariousDbTestHelper.fetchSize = fetchSize;
     }
 
     /**
@@ -102,31 +275,173 @@ public class VariousDbTestHelper {
      * @param entityClass Entityのクラス
      */
     public static void createTable(Class<?> entityClass) {
-        dropTable(entityClass);
+        createTables(entityClass);
+    }
 
-        DatabaseSession ds = JpaHelper.getDatabaseSession(em.getEntityManagerFactory());
-        SchemaManager sm = new SchemaManager(ds);
+    /**
+     * 複数のテーブルを作成する。
+     * <p>
+     * 外部キーの依存関係から、参照元のテーブルから順に削除した後、参照先のテーブルから順に作成する。
+     * テーブルの作成及び外部キー制約の追加は、1回のバッチでまとめて実行する。
+     * </p>
+     *
+     * @param entityClasses Entityのクラス
+     */
+    public static void createTables(Class<?>... entityClasses) {
+        final AbstractSession session = getSession();
+        final List<EntityMetadata> tables = EntityMetadata.sortByDependency(entityClasses);
+
+        final List<String> dropDdl = new ArrayList<String>(tables.size());
+        final List<String> createDdl = new ArrayList<String>(tables.size());
+        final List<String> constraintDdl = new ArrayList<String>();
+        final Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+        for (int i = tables.size() - 1; i >= 0; i--) {
+            dropDdl.add(buildDropDdl(session, tables.get(i)
+                    .getQualifiedTableName()));
+        }
+        for (EntityMetadata metadata : tables) {
+            final TableDefinition td = buildTableDefinition(session, metadata);
+            final List<String> tableDdl = new ArrayList<String>();
+            tableDdl.add(td.buildCreationWriter(session, new StringWriter())
+                    .toString());
+            for (ForeignKeyConstraint foreignKey : td.getForeignKeys()) {
+                final String sql = td.buildConstraintCreationWriter(session, foreignKey, new StringWriter())
+                        .toString();
+                tableDdl.add(sql);
+                constraintDdl.add(sql);
+            }
+            createDdl.add(tableDdl.get(0));
+            fingerprints.put(metadata.getQualifiedTableName(), SchemaFingerprintCache.fingerprint(tableDdl));
+        }
+        createDdl.addAll(constraintDdl);
 
-        Table table = entityClass.getAnnotation(Table.class);
-        String tableName = table.name();
-        String schemaName = table.schema();
+        if (schemaCacheEnabled && matchesFingerprints(tables, fingerprints)) {
+            truncate(entityClasses);
+            return;
+        }
+        if (schemaCacheEnabled) {
+            removeFingerprints(fingerprints.keySet());
+        }
+        try {
+            executeDdl(dropDdl, true);
+            executeDdlBatch(createDdl);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        if (schemaCacheEnabled) {
+            recordFingerprints(fingerprints);
+        }
+    }
 
-        TableDefinition td = new TableDefinition();
-        td.setName(addSchema(tableName, schemaName));
-        td.setCreationSuffix(ds.getPlatform()
-                .getTableCreationSuffix());
+    /**
+     * テーブル定義のフィンガープリントのキャッシュを使用するか否かを設定する。
+     * <p>
+     * キャッシュを使用する場合、{@link #createTables(Class[])}等でテーブルを作成する際、
+     * 前回作成した定義と同一のテーブルが存在すれば、テーブルを再作成せずにデータのみを削除する。
+     * 同一の定義か否かは、記録したDDLのフィンガープリントと、データベースのメタデータから取得したカラムで判定する。
+     * デフォルトは使用しない。
+     * </p>
+     *
+     * @param schemaCacheEnabled キャッシュを使用する場合はtrue
+     */
+    public static void setSchemaCacheEnabled(boolean schemaCacheEnabled) {
+        VariousDbTestHelper.schemaCacheEnabled = schemaCacheEnabled;
+    }
 
-        for (Field field : entityClass.getFields()) {
-            if (field.getAnnotation(Transient.class) != null) {
-                continue;
+    /**
+     * 全てのテーブルが、記録されたフィンガープリント及び実際のカラムと一致するか否か。
+     *
+     * @param tables テーブルのメタデータ
+     * @param fingerprints テーブル名とフィンガープリントのマップ
+     * @return 全て一致する場合はtrue
+     */
+    private static boolean matchesFingerprints(List<EntityMetadata> tables, Map<String, String> fingerprints) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            return SCHEMA_FINGERPRINTS.matches(connection, getWorkerKey(), tables, fingerprints);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * テーブルのフィンガープリントを記録する。
+     *
+     * @param fingerprints テーブル名とフィンガープリントのマップ
+     */
+    private static void recordFingerprints(Map<String, String> fingerprints) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            SCHEMA_FINGERPRINTS.record(connection, getWorkerKey(), fingerprints);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * テーブルのフィンガープリントを削除する。
+     *
+     * @param tableNames テーブル名
+     */
+    private static void removeFingerprints(Collection<String> tableNames) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            SCHEMA_FINGERPRINTS.remove(connection, getWorkerKey(), tableNames);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * entity.list.txtに記載された全てのエンティティのテーブルを作成する。
+     * <p>
+     * クラスパス上に存在しないエンティティクラスは無視する。
+     * </p>
+     *
+     * @see #createTables(Class[])
+     */
+    public static void createAllFromEntityList() {
+        final List<Class<?>> entityClasses = new ArrayList<Class<?>>();
+        for (String entity : EntityList.get("classpath:entity.list.txt")) {
+            try {
+                entityClasses.add(Class.forName(entity.trim(), true, Thread.currentThread()
+                        .getContextClassLoader()));
+            } catch (ClassNotFoundException ignore) {
+                // NOP
             }
+        }
+        createTables(entityClasses.toArray(new Class<?>[entityClasses.size()]));
+    }
+
+    /**
+     * エンティティのメタデータからテーブル定義を組み立てる。
+     *
+     * @param session セッション
+     * @param metadata エンティティのメタデータ
+     * @return テーブル定義
+     */
+    private static TableDefinition buildTableDefinition(AbstractSession session, EntityMetadata metadata) {
+        TableDefinition td = new TableDefinition();
+        td.setName(metadata.getQualifiedTableName());
+        td.setCreationSuffix(session.getPlatform()
+                .getTableCreationSuffix());
 
+        for (EntityMetadata.ColumnMetadata column : metadata.getColumns()) {
             FieldDefinition fd = new FieldDefinition();
 
-            fd.setIsPrimaryKey(field.getAnnotation(Id.class) != null);
-            Column c = field.getAnnotation(Column.class);
+            fd.setIsPrimaryKey(column.isPrimaryKey());
+            Column c = column.getColumn();
             if (c != null) {
-                final Temporal temporal = field.getAnnotation(Temporal.class);
+                final Temporal temporal = column.getTemporal();
                 if (temporal != null) {
                     switch (temporal.value()) {
                         /*
@@ -152,7 +467,7 @@ public class VariousDbTestHelper {
                             }
                             break;
                     }
-                } else if (isSqlServerBinaryType(field)) {
+                } else if (isSqlServerBinaryType(column.getField())) {
                     // SqlServerの場合、varbinary(max)になるとInputstreamが返されるので、
                     // 強制的に型を指定
                     if (StringUtil.hasValue(c.columnDefinition())) {
@@ -161,7 +476,7 @@ public class VariousDbTestHelper {
                         fd.setTypeDefinition("varbinary(4000)");
                     }
                 } else {
-                    fd.setType(field.getType());
+                    fd.setType(column.getField().getType());
                     fd.setTypeDefinition(StringUtil.hasValue(c.columnDefinition()) ? c.columnDefinition() : null);
                 }
                 fd.setName(c.name());
@@ -176,15 +491,13 @@ public class VariousDbTestHelper {
                 }
             } else {
 
-                String targetTableName = field.getType()
-                        .getAnnotation(Table.class)
-                        .name();
+                String targetTableName = EntityMetadata.get(column.getReferencedEntityClass())
+                        .getTableName();
 
-                JoinColumn j = field.getAnnotation(JoinColumn.class);
-                Field f = getJoinField(field, j.referencedColumnName());
-                c = f.getAnnotation(Column.class);
+                JoinColumn j = column.getJoinColumn();
+                c = column.getValueColumn();
 
-                fd.setType(f.getType());
+                fd.setType(column.getValueField().getType());
                 fd.setName(j.name());
                 fd.setUnique(!fd.isPrimaryKey() && j.unique());
                 fd.setShouldAllowNull(j.nullable());
@@ -196,25 +509,14 @@ public class VariousDbTestHelper {
                     fd.setSize(c.length());
                 }
                 td.addForeignKeyConstraint(
-                        "FK_" + targetTableName + '_' + tableName,
+                        "FK_" + targetTableName + '_' + metadata.getTableName(),
                         j.name(),
                         j.referencedColumnName(),
-                        addSchema(targetTableName, schemaName));
+                        EntityMetadata.addSchema(targetTableName, metadata.getSchemaName()));
             }
             td.addField(fd);
         }
-        sm.getSession()
-                .beginTransaction();
-        try {
-            sm.createObject(td);
-            sm.createConstraints(td);
-            sm.getSession()
-                    .commitTransaction();
-        } catch (Exception e) {
-            sm.getSession()
-                    .rollbackTransaction();
-            throw new RuntimeException(e);
-        }
+        return td;
     }
 
     private static boolean isSqlServerBinaryType(Field field) {
@@ -235,39 +537,128 @@ public class VariousDbTestHelper {
      * @param entityClass Entityのクラス
      */
     public static void dropTable(Class<?> entityClass) {
-        Table table = entityClass.getAnnotation(Table.class);
-        String tableName = table.name();
-        String schemaName = table.schema();
-
-        DatabaseSession ds = JpaHelper.getDatabaseSession(em.getEntityManagerFactory());
-        SchemaManager sm = new SchemaManager(ds);
-        sm.getSession()
-                .beginTransaction();
+        final String tableName = EntityMetadata.get(entityClass)
+                .getQualifiedTableName();
+
+        if (schemaCacheEnabled) {
+            removeFingerprints(Collections.singletonList(tableName));
+        }
         try {
-            sm.dropTable(StringUtil.hasValue(schemaName) ? schemaName + '.' + tableName : tableName);
-            sm.getSession()
-                    .commitTransaction();
-        } catch (Exception e) {
-            sm.getSession()
-                    .rollbackTransaction();
+            executeDdl(Collections.singletonList(buildDropDdl(getSession(), tableName)), true);
+        } catch (SQLException e) {
             // NOP
         }
     }
 
+    /**
+     * テーブルを削除するDDLを組み立てる。
+     *
+     * @param session セッション
+     * @param tableName スキーマ名で修飾したテーブル名
+     * @return DDL
+     */
+    private static String buildDropDdl(AbstractSession session, String tableName) {
+        final TableDefinition td = new TableDefinition();
+        td.setName(tableName);
+        return td.buildDeletionWriter(session, new StringWriter())
+                .toString();
+    }
+
+    /**
+     * DDLの生成に使用するセッションを取得する。
+     *
+     * @return セッション
+     */
+    private static AbstractSession getSession() {
+        return (AbstractSession) JpaHelper.getDatabaseSession(emf);
+    }
+
+    /**
+     * DDLを実行する。
+     * <p>
+     * {@link SchemaManager}はセッション全体で共有されるトランザクションを使用するため、
+     * 並列実行時に他のスレッド(ワーカ)のコネクションでDDLが実行されてしまう。
+     * このため、DDLの生成のみEclipseLinkを使用し、実行はスレッドごとに取得したコネクションで行う。
+     * </p>
+     *
+     * @param ddl 実行するDDL
+     * @param ignoreError DDLの実行に失敗した場合に、後続のDDLの実行を継続するか否か
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static void executeDdl(List<String> ddl, boolean ignoreError) throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        try {
+            for (String sql : ddl) {
+                final java.sql.Statement statement = connection.createStatement();
+                try {
+                    statement.execute(sql);
+                } catch (SQLException e) {
+                    if (!ignoreError) {
+                        throw e;
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * DDLを1回のバッチで実行する。
+     * <p>
+     * バッチでのDDLの実行をサポートしないデータベースの場合は、1文ずつ実行する。
+     * </p>
+     *
+     * @param ddl 実行するDDL
+     * @throws SQLException データベースアクセスエラーが発生した場合
+     */
+    private static void executeDdlBatch(List<String> ddl) throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        try {
+            final boolean batchSupported = connection.getMetaData()
+                    .supportsBatchUpdates();
+            final java.sql.Statement statement = connection.createStatement();
+            try {
+                for (String sql : ddl) {
+                    if (batchSupported) {
+                        statement.addBatch(sql);
+                    } else {
+                        statement.execute(sql);
+                    }
+                }
+                if (batchSupported) {
+                    statement.executeBatch();
+                }
+            } finally {
+                statement.close();
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
     /**
      * テーブルを削除し、コミットする。
      *
      * @param entityClass Entityクラス
      */
     public static void delete(Class<?> entityClass) {
-        Table table = entityClass.getAnnotation(Table.class);
-        String tableName = table.name();
-        String schemaName = table.schema();
+        final EntityManager em = getEntityManager();
+        final String deleteSql = EntityMetadata.get(entityClass)
+                .getDeleteAllSql();
 
         em.getTransaction()
                 .begin();
         try {
-            em.createNativeQuery("DELETE FROM " + addSchema(tableName, schemaName))
+            em.createNativeQuery(deleteSql)
                     .executeUpdate();
             em.getTransaction()
                     .commit();
@@ -278,13 +669,55 @@ public class VariousDbTestHelper {
         }
     }
 
-    private static String addSchema(String tableName, String schemaName) {
-        return StringUtil.hasValue(schemaName) ? schemaName + '.' + tableName : tableName;
+    /**
+     * テーブルを空にする。
+     * <p>
+     * 接続先のデータベースで最も高速な方法(TRUNCATE等)で、外部キーの参照元のテーブルから順に空にする。
+     * 可能な場合は、全テーブルを1回の通信で空にする。
+     * 指定していないテーブルから外部キーで参照されている場合は、DELETE文で削除する(参照元にデータがあれば失敗する)。
+     * ただし、{@link RollbackTransaction}によるトランザクション中は、ロールバックできるようDELETE文で削除する。
+     * </p>
+     *
+     * @param entityClasses Entityクラス
+     */
+    public static void truncate(Class<?>... entityClasses) {
+        final List<EntityMetadata> tables = EntityMetadata.sortByDependency(entityClasses);
+        Collections.reverse(tables);
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            if (isSharedTransactionActive()) {
+                TableTruncator.delete(connection, tables);
+            } else {
+                TableTruncator.truncate(connection, getTargetDatabase(), tables);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            closeQuietly(connection);
+        }
+        evict(entityClasses);
+    }
+
+    /**
+     * JPAを介さずに内容を変更したテーブルのエンティティを、エンティティマネージャ及びキャッシュから破棄する。
+     *
+     * @param entityClasses Entityクラス
+     */
+    static void evict(Class<?>... entityClasses) {
+        final EntityManager em = entityManager.get();
+        if (em != null && em.isOpen()) {
+            em.clear();
+        }
+        for (Class<?> entityClass : entityClasses) {
+            emf.getCache()
+                    .evict(entityClass);
+        }
     }
 
     /**
      * テーブルのセットアップを行う。
-     * 空の場合はtruncateを使用してください。
+     * 空の場合は{@link #truncate(Class[])}を使用してください。
      *
      * @param entities 登録するエンティティ
      * @param <T> エンティティの型
@@ -294,7 +727,7 @@ public class VariousDbTestHelper {
             throw new IllegalArgumentException("please use truncate");
         }
         delete(entities[0].getClass());
-        insert(entities);
+        bulkInsert(entities);
     }
 
     /**
@@ -303,6 +736,7 @@ public class VariousDbTestHelper {
      * @param array Entityオブジェクトの配列
      */
     public static void insert(Object... array) {
+        final EntityManager em = getEntityManager();
         em.getTransaction()
                 .begin();
         try {
@@ -318,12 +752,118 @@ public class VariousDbTestHelper {
         }
     }
 
+    /**
+     * レコードをJDBCのバッチ更新で一括登録する。
+     * <p>
+     * {@link #insert(Object...)}と異なりエンティティマネージャを経由せず、
+     * {@link Table}、{@link Column}及び{@link JoinColumn}の定義から組み立てたINSERT文を、
+     * {@link #setBatchSize(int)}で指定した件数ごとにまとめて実行する。
+     * 連続する同一クラスのエンティティを1つのバッチにまとめるため、登録順序は維持される。
+     * </p>
+     * <p>
+     * 登録したエンティティはエンティティマネージャの管理下には置かれない。
+     * </p>
+     *
+     * @param array Entityオブジェクトの配列
+     */
+    public static void bulkInsert(Object... array) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            int index = 0;
+            while (index < array.length) {
+                index = executeBatchInsert(connection, array, index);
+            }
+            connection.commit();
+        } catch (Exception e) {
+            rollbackQuietly(connection);
+            throw new RuntimeException(e);
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * 指定位置から連続する同一クラスのエンティティをバッチ更新で登録する。
+     *
+     * @param connection コネクション
+     * @param array Entityオブジェクトの配列
+     * @param from 登録を開始する位置
+     * @return 次に登録するエンティティの位置
+     * @throws Exception 例外
+     */
+    private static int executeBatchInsert(Connection connection, Object[] array, int from) throws Exception {
+        final Class<?> entityClass = array[from].getClass();
+        final EntityMetadata metadata = EntityMetadata.get(entityClass);
+        final List<EntityMetadata.ColumnMetadata> columns = metadata.getColumns();
+        final PreparedStatement statement = connection.prepareStatement(metadata.getInsertSql());
+        try {
+            int index = from;
+            int count = 0;
+            while (index < array.length && array[index].getClass() == entityClass) {
+                for (int i = 0; i < columns.size(); i++) {
+                    columns.get(i).bind(statement, i + 1, array[index]);
+                }
+                statement.addBatch();
+                index++;
+                if (++count % batchSize == 0) {
+                    statement.executeBatch();
+                }
+            }
+            if (count % batchSize != 0) {
+                statement.executeBatch();
+            }
+            return index;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * ロールバックする。例外が発生した場合は無視する。
+     *
+     * @param connection コネクション
+     */
+    private static void rollbackQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.rollback();
+        } catch (SQLException ignore) {
+            // NOP
+        }
+    }
+
+    /**
+     * コネクションを閉じる。例外が発生した場合は無視する。
+     *
+     * @param connection コネクション
+     */
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException ignore) {
+            // NOP
+        }
+        try {
+            connection.close();
+        } catch (SQLException ignore) {
+            // NOP
+        }
+    }
+
     /**
      * レコードを更新する。
      *
      * @param array Entityオブジェクトの配列
      */
     public static void update(Object... array) {
+        final EntityManager em = getEntityManager();
         em.getTransaction()
                 .begin();
         try {
@@ -347,6 +887,7 @@ public class VariousDbTestHelper {
      *               newしたオブジェクトを渡した場合削除できません。
      */
     public static void delete(Object entity) {
+        final EntityManager em = getEntityManager();
         em.getTransaction()
                 .begin();
         try {
@@ -369,6 +910,7 @@ public class VariousDbTestHelper {
      * @return 検索結果
      */
     public static <T> T findById(Class<T> entityClass, Object... ids) {
+        final EntityManager em = getEntityManager();
         return em.find(entityClass, Arrays.asList(ids), new HashMap<String, Object>() {{
             put("javax.persistence.cache.storeMode", "REFRESH");
         }});
@@ -383,34 +925,11 @@ public class VariousDbTestHelper {
      * @return 検索結果
      */
     public static <T> List<T> findAll(Class<T> entityClass, String... orderBy) {
+        final EntityManager em = getEntityManager();
 
-        Table table = entityClass.getAnnotation(Table.class);
-        String tableName = table.name();
-        String schemaName = table.schema();
-        String selectQuery = "SELECT * FROM " + (addSchema(tableName, schemaName));
-
-        String orderByQuery = "";
-        if (orderBy != null && orderBy.length > 0) {
-            StringBuilder sb = new StringBuilder(" ORDER BY ");
-            for (String s : orderBy) {
-                try {
-                    Field f = entityClass.getField(s);
-                    Column c = f.getAnnotation(Column.class);
-                    if (c == null) {
-                        JoinColumn j = f.getAnnotation(JoinColumn.class);
-                        sb.append(getJoinField(f, j.referencedColumnName()).getAnnotation(Column.class)
-                                .name())
-                                .append(", ");
-                    } else {
-                        sb.append(c.name())
-                                .append(", ");
-                    }
-                } catch (Exception e) {
-                    // NOP
-                }
-            }
-            orderByQuery = sb.substring(0, sb.length() - 2);
-        }
+        final EntityMetadata metadata = EntityMetadata.get(entityClass);
+        final String selectQuery = metadata.getSelectAllSql();
+        final String orderByQuery = metadata.getOrderByClause(orderBy);
 
         return em.createNativeQuery(selectQuery + orderByQuery, entityClass)
                 .setHint("javax.persistence.cache.storeMode", "REFRESH")
@@ -429,6 +948,54 @@ public class VariousDbTestHelper {
 
     }
 
+    /**
+     * レコードを全件検索し、1件ずつ読み込むカーソルを返す。
+     * <p>
+     * {@link #findAll(Class, String...)}と異なり、検索結果はJDBCのカーソルから
+     * {@link #setFetchSize(int)}で指定した件数ごとに取得され、エンティティマネージャのキャッシュにも格納されない。
+     * 大量のレコードを検証する場合に使用すること。
+     * </p>
+     * <p>
+     * 外部キーのフィールドには、参照カラムの値のみを設定した関連先エンティティが設定される。
+     * 読み込みを途中で終える場合は、必ずカーソルをクローズすること。
+     * </p>
+     *
+     * @param entityClass Entityクラス
+     * @param orderBy ソート対象のフィールド名
+     * @param <T> Entityの型
+     * @return カーソル
+     */
+    public static <T> EntityCursor<T> streamAll(Class<T> entityClass, String... orderBy) {
+        final EntityMetadata metadata = EntityMetadata.get(entityClass);
+        final String sql = metadata.getSelectColumnsSql() + metadata.getOrderByClause(orderBy);
+        // 共有トランザクション中は、ロールバックするとテストで登録したデータまで取り消されるため、トランザクションを操作しない
+        final boolean ownTransaction = !isSharedTransactionActive();
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            if (ownTransaction) {
+                // 一部のデータベースは、自動コミットが無効な場合のみフェッチサイズ単位で取得する
+                connection.setAutoCommit(false);
+            }
+            return new EntityCursor<T>(entityClass, connection, sql, fetchSize, ownTransaction);
+        } catch (SQLException e) {
+            if (ownTransaction) {
+                rollbackQuietly(connection);
+            }
+            closeQuietly(connection);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 現在のスレッドで{@link RollbackTransaction}による共有トランザクションが開始されているか否か。
+     *
+     * @return 共有トランザクションが開始されている場合はtrue
+     */
+    static boolean isSharedTransactionActive() {
+        return dataSource instanceof TestDataSource && ((TestDataSource) dataSource).isSharedTransactionActive();
+    }
+
     /**
      * DIコンテナからDataSourceオブジェクトを取得する。
      *
@@ -447,15 +1014,4 @@ public class VariousDbTestHelper {
             throw new RuntimeException(e);
         }
     }
-
-    private static Field getJoinField(Field field, String referencedColumnName) {
-        for (Field f : field.getType()
-                .getFields()) {
-            if (referencedColumnName.equals(f.getAnnotation(Column.class)
-                    .name())) {
-                return f;
-            }
-        }
-        return null;
-    }
 }
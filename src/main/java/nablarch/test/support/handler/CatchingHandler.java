@@ -1,54 +1,264 @@
 package nablarch.test.support.handler;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import nablarch.core.ThreadContext;
 import nablarch.fw.ExecutionContext;
 import nablarch.fw.Handler;
+import nablarch.test.support.concurrent.AppendOnlyList;
 
+/**
+ * ハンドラキュー上での呼び出しを記録するハンドラ。
+ * <p>
+ * 呼び出しごとに、入力データ、処理結果または送出された例外、実行時ID、スレッド名及び所要時間を1件の{@link HandlerInvocation}として記録する。
+ * 記録は{@link AppendOnlyList}にロックを使用せずに追加するため、マルチスレッドで実行するハンドラキューに組み込んでも、
+ * 記録が失われたり、入力データと処理結果の対応がずれたりすることはない。
+ * </p>
+ * <p>
+ * {@link #getInput()}、{@link #getExecutionIds()}及び{@link #getInvocations()}は呼び出しを開始した順に、
+ * {@link #getResults()}は呼び出しが終了した順に並ぶ。
+ * {@link #getInput()}、{@link #getResults()}及び{@link #getExecutionIds()}の戻り値は記録のビューであり、
+ * 取得した後の呼び出しや{@link #clear()}も反映される。
+ * </p>
+ * <p>
+ * 以前のバージョンではこれらのメソッドは記録用の{@link ArrayList}をそのまま返していたが、
+ * 現在は読み取り専用のビューを返す。
+ * ビューへの要素の追加、変更及び削除は{@link UnsupportedOperationException}を送出する。
+ * ただし、ビューの{@link List#clear()}は従来と同じく、そのビューの項目の記録のみをリセットする。
+ * 全ての記録をリセットする場合は{@link #clear()}を使用すること。
+ * </p>
+ */
 public class CatchingHandler implements Handler<Object, Object>{
 
-    private static final List<Object> inputHolder = new ArrayList<Object>();
-    
-    private static final List<Object> resultHolder = new ArrayList<Object>();
-    
-    private static final List<String> executionIdHolder = new ArrayList<String>(); 
-    
+    /** 呼び出しの記録 */
+    private static volatile Records records = new Records();
+
     public Object handle(Object data, ExecutionContext context) {
-        inputHolder.add(data);
-        executionIdHolder.add(ThreadContext.getExecutionId());
+        final Records current = records;
+        final HandlerInvocation invocation = new HandlerInvocation(data, ThreadContext.getExecutionId(),
+                Thread.currentThread().getName(), System.nanoTime());
+        current.started.add(invocation);
         try {
             Object result = context.handleNext(data);
-            resultHolder.add(result);
+            invocation.complete(result, null, System.nanoTime());
             return result;
-            
+
         } catch (RuntimeException e) {
-            resultHolder.add(e);
+            invocation.complete(null, e, System.nanoTime());
             throw e;
         } catch (Error e) {
-            resultHolder.add(e);
-            throw e;  
+            invocation.complete(null, e, System.nanoTime());
+            throw e;
+        } finally {
+            current.completed.add(invocation);
         }
     }
-    
+
+    /**
+     * 全ての記録をリセットする。
+     * <p>
+     * 取得済みのビューも空となり、以降の呼び出しを参照する。
+     * </p>
+     */
     public static void clear() {
-        resultHolder.clear();
-        inputHolder.clear();
-        executionIdHolder.clear();
-    }    
-    
+        records = new Records();
+    }
+
+    /**
+     * 呼び出しの記録を、開始した順に取得する。
+     *
+     * @return 呼び出しの記録のスナップショット
+     */
+    public static List<HandlerInvocation> getInvocations() {
+        return new ArrayList<HandlerInvocation>(records.started);
+    }
+
+    /**
+     * 終了した呼び出しの処理結果を、終了した順に取得する。
+     * <p>
+     * 例外またはエラーが送出された呼び出しは、送出された例外またはエラーを処理結果とする。
+     * </p>
+     *
+     * @param <T> 処理結果の型
+     * @return 処理結果の読み取り専用のビュー。{@link List#clear()}は処理結果の記録のみをリセットする
+     */
     @SuppressWarnings("unchecked")
     public static <T> List<T> getResults() {
-        return (List<T>) resultHolder;
-    }    
-    
+        return (List<T>) new RecordView(Column.RESULT);
+    }
+
+    /**
+     * 入力データを、呼び出しを開始した順に取得する。
+     *
+     * @param <T> 入力データの型
+     * @return 入力データの読み取り専用のビュー。{@link List#clear()}は入力データの記録のみをリセットする
+     */
     @SuppressWarnings("unchecked")
     public static <T> List<T> getInput() {
-        return (List<T>) inputHolder;
+        return (List<T>) new RecordView(Column.INPUT);
     }
-    
+
+    /**
+     * 実行時IDを、呼び出しを開始した順に取得する。
+     *
+     * @return 実行時IDの読み取り専用のビュー。{@link List#clear()}は実行時IDの記録のみをリセットする
+     */
+    @SuppressWarnings("unchecked")
     public static List<String> getExecutionIds() {
-        return executionIdHolder;
-    }     
+        return (List<String>) (List<?>) new RecordView(Column.EXECUTION_ID);
+    }
+
+    /**
+     * 全スレッドの呼び出しを集計する。
+     *
+     * @return 集計結果
+     */
+    public static InvocationStatistics getStatistics() {
+        return new InvocationStatistics(getInvocations());
+    }
+
+    /**
+     * スレッドごとに呼び出しを集計する。
+     *
+     * @return スレッド名をキーとした集計結果。最初に呼び出したスレッドの順に並ぶ
+     */
+    public static Map<String, InvocationStatistics> getStatisticsByThread() {
+        final Map<String, List<HandlerInvocation>> byThread = new LinkedHashMap<String, List<HandlerInvocation>>();
+        for (HandlerInvocation invocation : getInvocations()) {
+            List<HandlerInvocation> invocations = byThread.get(invocation.getThreadName());
+            if (invocations == null) {
+                invocations = new ArrayList<HandlerInvocation>();
+                byThread.put(invocation.getThreadName(), invocations);
+            }
+            invocations.add(invocation);
+        }
+        final Map<String, InvocationStatistics> statistics = new LinkedHashMap<String, InvocationStatistics>();
+        for (Map.Entry<String, List<HandlerInvocation>> entry : byThread.entrySet()) {
+            statistics.put(entry.getKey(), new InvocationStatistics(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * 呼び出しの記録。
+     * <p>
+     * {@link #clear()}で開始した順と終了した順の記録をまとめて置き換えるため、1つのオブジェクトで保持する。
+     * </p>
+     */
+    private static final class Records {
+
+        /** 開始した順の呼び出し */
+        private final AppendOnlyList<HandlerInvocation> started = new AppendOnlyList<HandlerInvocation>();
+
+        /** 終了した順の呼び出し */
+        private final AppendOnlyList<HandlerInvocation> completed = new AppendOnlyList<HandlerInvocation>();
+
+        /** 項目ごとの、ビューの先頭とする呼び出しの位置。ビューの{@link List#clear()}で進める */
+        private final AtomicIntegerArray offsets = new AtomicIntegerArray(Column.values().length);
+    }
+
+    /**
+     * ビューとして参照する、呼び出しの項目。
+     */
+    private enum Column {
+
+        /** 入力データ */
+        INPUT {
+            @Override
+            Object valueOf(HandlerInvocation invocation) {
+                return invocation.getInput();
+            }
+        },
+
+        /** 実行時ID */
+        EXECUTION_ID {
+            @Override
+            Object valueOf(HandlerInvocation invocation) {
+                return invocation.getExecutionId();
+            }
+        },
+
+        /** 処理結果または送出された例外 */
+        RESULT {
+            @Override
+            List<HandlerInvocation> sourceOf(Records records) {
+                return records.completed;
+            }
+
+            @Override
+            Object valueOf(HandlerInvocation invocation) {
+                return invocation.isFailed() ? invocation.getError() : invocation.getResult();
+            }
+        };
+
+        /**
+         * 項目を取り出す呼び出しの記録を取得する。
+         *
+         * @param records 呼び出しの記録
+         * @return 開始した順の呼び出し
+         */
+        List<HandlerInvocation> sourceOf(Records records) {
+            return records.started;
+        }
+
+        /**
+         * 呼び出しから項目を取り出す。
+         *
+         * @param invocation 呼び出し
+         * @return 項目の値
+         */
+        abstract Object valueOf(HandlerInvocation invocation);
+    }
+
+    /**
+     * 呼び出しの記録の、1つの項目のビュー。
+     * <p>
+     * 操作のたびに現在の記録を参照するため、{@link CatchingHandler#clear()}の後も最新の記録を参照する。
+     * {@link #clear()}は、この項目の先頭位置を現在の件数まで進めることで、他の項目に影響を与えずに記録をリセットする。
+     * </p>
+     */
+    private static final class RecordView extends AbstractList<Object> {
+
+        /** 項目 */
+        private final Column column;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param column 項目
+         */
+        private RecordView(Column column) {
+            this.column = column;
+        }
+
+        @Override
+        public Object get(int index) {
+            final Records current = records;
+            if (index < 0) {
+                throw new IndexOutOfBoundsException("index = " + index);
+            }
+            return column.valueOf(column.sourceOf(current)
+                                        .get(current.offsets.get(column.ordinal()) + index));
+        }
+
+        @Override
+        public int size() {
+            final Records current = records;
+            return column.sourceOf(current)
+                         .size() - current.offsets.get(column.ordinal());
+        }
+
+        @Override
+        public void clear() {
+            final Records current = records;
+            current.offsets.set(column.ordinal(), column.sourceOf(current)
+                                                       .size());
+        }
+    }
 }
@@ -0,0 +1,161 @@
+package nablarch.test.support.handler;
+
+/**
+ * {@link CatchingHandler}が記録した、ハンドラの1回の呼び出し。
+ * <p>
+ * 入力データ、実行時ID及びスレッド名は呼び出し開始時に記録し、結果と所要時間は呼び出し終了時に記録する。
+ * 終了前に参照した場合、{@link #isCompleted()}はfalseを返す。
+ * </p>
+ */
+public final class HandlerInvocation {
+
+    /** 入力データ */
+    private final Object input;
+
+    /** 実行時ID */
+    private final String executionId;
+
+    /** 呼び出したスレッドの名前 */
+    private final String threadName;
+
+    /** 開始時刻({@link System#nanoTime()}) */
+    private final long startNanos;
+
+    /** 処理結果 */
+    private Object result;
+
+    /** 送出された例外またはエラー */
+    private Throwable error;
+
+    /** 終了時刻({@link System#nanoTime()}) */
+    private long endNanos;
+
+    /** 終了したか否か。結果と終了時刻の公開を兼ねる */
+    private volatile boolean completed;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param input 入力データ
+     * @param executionId 実行時ID
+     * @param threadName 呼び出したスレッドの名前
+     * @param startNanos 開始時刻
+     */
+    HandlerInvocation(Object input, String executionId, String threadName, long startNanos) {
+        this.input = input;
+        this.executionId = executionId;
+        this.threadName = threadName;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * 呼び出しの終了を記録する。
+     *
+     * @param result 処理結果
+     * @param error 送出された例外またはエラー。正常終了の場合はnull
+     * @param endNanos 終了時刻
+     */
+    void complete(Object result, Throwable error, long endNanos) {
+        this.result = result;
+        this.error = error;
+        this.endNanos = endNanos;
+        completed = true;
+    }
+
+    /**
+     * 入力データを取得する。
+     *
+     * @return 入力データ
+     */
+    public Object getInput() {
+        return input;
+    }
+
+    /**
+     * 処理結果を取得する。
+     *
+     * @return 処理結果。例外が送出された場合、または終了していない場合はnull
+     */
+    public Object getResult() {
+        return completed ? result : null;
+    }
+
+    /**
+     * 送出された例外またはエラーを取得する。
+     *
+     * @return 例外またはエラー。正常終了した場合、または終了していない場合はnull
+     */
+    public Throwable getError() {
+        return completed ? error : null;
+    }
+
+    /**
+     * 実行時IDを取得する。
+     *
+     * @return 実行時ID
+     */
+    public String getExecutionId() {
+        return executionId;
+    }
+
+    /**
+     * 呼び出したスレッドの名前を取得する。
+     *
+     * @return スレッド名
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * 開始時刻を取得する。
+     *
+     * @return {@link System#nanoTime()}による開始時刻
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * 終了時刻を取得する。
+     *
+     * @return {@link System#nanoTime()}による終了時刻。終了していない場合は-1
+     */
+    public long getEndNanos() {
+        return completed ? endNanos : -1;
+    }
+
+    /**
+     * 所要時間を取得する。
+     *
+     * @return 所要時間(ナノ秒)。終了していない場合は-1
+     */
+    public long getElapsedNanos() {
+        return completed ? endNanos - startNanos : -1;
+    }
+
+    /**
+     * 終了したか否か。
+     *
+     * @return 終了した場合はtrue
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * 例外またはエラーが送出されたか否か。
+     *
+     * @return 送出された場合はtrue
+     */
+    public boolean isFailed() {
+        return getError() != null;
+    }
+
+    @Override
+    public String toString() {
+        return "HandlerInvocation{input=" + input + ", executionId=" + executionId + ", thread=" + threadName
+                + (completed ? ", result=" + (error != null ? error : result) + ", elapsedNanos=" + (endNanos - startNanos)
+                             : ", running") + "}";
+    }
+}
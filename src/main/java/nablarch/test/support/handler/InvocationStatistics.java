@@ -0,0 +1,157 @@
+package nablarch.test.support.handler;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ハンドラの呼び出しのスループットと所要時間の統計。
+ * <p>
+ * 集計時点で終了している呼び出しのみを対象とする。
+ * </p>
+ */
+public final class InvocationStatistics {
+
+    /** 呼び出し回数 */
+    private final int count;
+
+    /** 例外またはエラーが送出された回数 */
+    private final int failedCount;
+
+    /** 所要時間の合計(ナノ秒) */
+    private final long totalNanos;
+
+    /** 所要時間の最小値(ナノ秒) */
+    private final long minNanos;
+
+    /** 所要時間の最大値(ナノ秒) */
+    private final long maxNanos;
+
+    /** 最初の呼び出しの開始から最後の呼び出しの終了までの時間(ナノ秒) */
+    private final long spanNanos;
+
+    /**
+     * 呼び出しを集計する。
+     *
+     * @param invocations 呼び出し
+     */
+    InvocationStatistics(Collection<HandlerInvocation> invocations) {
+        int count = 0;
+        int failedCount = 0;
+        long totalNanos = 0;
+        long minNanos = Long.MAX_VALUE;
+        long maxNanos = 0;
+        long firstStart = 0;
+        long lastEnd = 0;
+        for (HandlerInvocation invocation : invocations) {
+            if (!invocation.isCompleted()) {
+                continue;
+            }
+            final long endNanos = invocation.getEndNanos();
+            final long elapsed = endNanos - invocation.getStartNanos();
+            if (count == 0 || invocation.getStartNanos() - firstStart < 0) {
+                firstStart = invocation.getStartNanos();
+            }
+            if (count == 0 || endNanos - lastEnd > 0) {
+                lastEnd = endNanos;
+            }
+            count++;
+            if (invocation.isFailed()) {
+                failedCount++;
+            }
+            totalNanos += elapsed;
+            minNanos = Math.min(minNanos, elapsed);
+            maxNanos = Math.max(maxNanos, elapsed);
+        }
+        this.count = count;
+        this.failedCount = failedCount;
+        this.totalNanos = totalNanos;
+        this.minNanos = count == 0 ? 0 : minNanos;
+        this.maxNanos = maxNanos;
+        spanNanos = lastEnd - firstStart;
+    }
+
+    /**
+     * 呼び出し回数を取得する。
+     *
+     * @return 呼び出し回数
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * 例外またはエラーが送出された回数を取得する。
+     *
+     * @return 送出された回数
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * 所要時間の合計を取得する。
+     *
+     * @param unit 時間の単位
+     * @return 所要時間の合計
+     */
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 所要時間の最小値を取得する。
+     *
+     * @param unit 時間の単位
+     * @return 所要時間の最小値。呼び出しがない場合は0
+     */
+    public long getMinTime(TimeUnit unit) {
+        return unit.convert(minNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 所要時間の最大値を取得する。
+     *
+     * @param unit 時間の単位
+     * @return 所要時間の最大値。呼び出しがない場合は0
+     */
+    public long getMaxTime(TimeUnit unit) {
+        return unit.convert(maxNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 所要時間の平均値を取得する。
+     *
+     * @param unit 時間の単位
+     * @return 所要時間の平均値。呼び出しがない場合は0
+     */
+    public double getMeanTime(TimeUnit unit) {
+        if (count == 0) {
+            return 0;
+        }
+        return (double) totalNanos / count / unit.toNanos(1);
+    }
+
+    /**
+     * 1秒あたりの呼び出し回数を取得する。
+     * <p>
+     * 最初の呼び出しの開始から最後の呼び出しの終了までの経過時間で、呼び出し回数を除した値を返す。
+     * </p>
+     *
+     * @return 1秒あたりの呼び出し回数。呼び出しがない場合は0
+     */
+    public double getThroughput() {
+        if (count == 0 || spanNanos <= 0) {
+            return 0;
+        }
+        return count * (double) TimeUnit.SECONDS.toNanos(1) / spanNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "count = " + count + ", failed = " + failedCount
+                + ", mean(us) = " + getMeanTime(TimeUnit.MICROSECONDS)
+                + ", min(us) = " + getMinTime(TimeUnit.MICROSECONDS)
+                + ", max(us) = " + getMaxTime(TimeUnit.MICROSECONDS)
+                + ", throughput(/s) = " + getThroughput();
+    }
+}
@@ -0,0 +1,237 @@
+package nablarch.test.support.handler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 所要時間の分布を記録するヒストグラム。
+ * <p>
+ * HdrHistogramと同じく、2のべき乗ごとの区間を一定数の小区間に等分した対数線形のバケットで記録する。
+ * 記録する値の大きさによらず、パーセンタイルの相対誤差は1/{@value #SUB_BUCKET_HALF_COUNT}以下(有効数字2桁)となる。
+ * </p>
+ * <p>
+ * 記録はバケットの件数を{@link AtomicLongArray}で加算するのみであり、ロックもオブジェクトの生成も行わない。
+ * </p>
+ */
+public final class LatencyHistogram {
+
+    /** 小区間の数の2の対数 */
+    private static final int SUB_BUCKET_BITS = 8;
+
+    /** 値をそのまま添字とする範囲(小区間の数) */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** 2のべき乗ごとの区間に含まれる小区間の数 */
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+    /** バケットの数 */
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+    /** バケットごとの件数 */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /** 記録した件数 */
+    private final AtomicLong totalCount = new AtomicLong();
+
+    /** 所要時間の合計(ナノ秒) */
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /** 所要時間の最大値(ナノ秒) */
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * 記録した呼び出しのうち、最も早い開始時刻。未記録の場合は{@link Long#MAX_VALUE}
+     * <p>
+     * {@link System#nanoTime()}は負の値となり得るため、0を未設定の値としない。
+     * </p>
+     */
+    private final AtomicLong firstStartNanos = new AtomicLong(Long.MAX_VALUE);
+
+    /** 記録した呼び出しのうち、最も遅い終了時刻。未記録の場合は{@link Long#MIN_VALUE} */
+    private final AtomicLong lastEndNanos = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * 呼び出しの所要時間を記録する。
+     *
+     * @param startNanos {@link System#nanoTime()}による開始時刻
+     * @param endNanos {@link System#nanoTime()}による終了時刻
+     */
+    void record(long startNanos, long endNanos) {
+        final long elapsed = Math.max(endNanos - startNanos, 0);
+        counts.incrementAndGet(bucketIndex(elapsed));
+        totalNanos.addAndGet(elapsed);
+        long current;
+        while (elapsed > (current = maxNanos.get()) && !maxNanos.compareAndSet(current, elapsed)) {
+            // 他のスレッドが更新した場合は再試行する
+        }
+        while (startNanos < (current = firstStartNanos.get()) && !firstStartNanos.compareAndSet(current, startNanos)) {
+            // 他のスレッドが更新した場合は再試行する
+        }
+        while (endNanos > (current = lastEndNanos.get()) && !lastEndNanos.compareAndSet(current, endNanos)) {
+            // 他のスレッドが更新した場合は再試行する
+        }
+        // 時刻の更新後に件数を加算することで、件数が1以上であれば開始時刻と終了時刻は設定済みとなる
+        totalCount.incrementAndGet();
+    }
+
+    /**
+     * 記録した件数を取得する。
+     *
+     * @return 件数
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * パーセンタイル値を取得する。
+     * <p>
+     * 指定した割合の呼び出しが収まる所要時間を、バケットの上限値で返す。
+     * </p>
+     *
+     * @param percentile パーセンタイル(0より大きく100以下)
+     * @param unit 時間の単位
+     * @return パーセンタイル値。記録がない場合は0
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in (0, 100]. percentile = " + percentile);
+        }
+        // 集計中の記録による不整合を避けるため、件数を複製してから集計する
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max((long) Math.ceil(total * percentile / 100), 1);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return unit.convert(Math.min(highestEquivalentValue(i), maxNanos.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 50パーセンタイル値(中央値)を取得する。
+     *
+     * @param unit 時間の単位
+     * @return 50パーセンタイル値
+     */
+    public long getP50(TimeUnit unit) {
+        return getPercentile(50, unit);
+    }
+
+    /**
+     * 99パーセンタイル値を取得する。
+     *
+     * @param unit 時間の単位
+     * @return 99パーセンタイル値
+     */
+    public long getP99(TimeUnit unit) {
+        return getPercentile(99, unit);
+    }
+
+    /**
+     * 99.9パーセンタイル値を取得する。
+     *
+     * @param unit 時間の単位
+     * @return 99.9パーセンタイル値
+     */
+    public long getP999(TimeUnit unit) {
+        return getPercentile(99.9, unit);
+    }
+
+    /**
+     * 所要時間の最大値を取得する。
+     *
+     * @param unit 時間の単位
+     * @return 最大値
+     */
+    public long getMax(TimeUnit unit) {
+        return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 所要時間の平均値を取得する。
+     *
+     * @param unit 時間の単位
+     * @return 平均値。記録がない場合は0
+     */
+    public double getMean(TimeUnit unit) {
+        final long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) totalNanos.get() / count / unit.toNanos(1);
+    }
+
+    /**
+     * 1秒あたりの呼び出し回数を取得する。
+     * <p>
+     * 記録した呼び出しのうち最も早い開始から、最も遅い終了までの経過時間で、件数を除した値を返す。
+     * </p>
+     *
+     * @return 1秒あたりの呼び出し回数。記録がない場合は0
+     */
+    public double getThroughput() {
+        final long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long span = lastEndNanos.get() - firstStartNanos.get();
+        if (span <= 0) {
+            return 0;
+        }
+        return count * (double) TimeUnit.SECONDS.toNanos(1) / span;
+    }
+
+    /**
+     * 値を記録するバケットの添字を算出する。
+     *
+     * @param value 値
+     * @return 添字
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int mantissa = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (mantissa - SUB_BUCKET_HALF_COUNT);
+    }
+
+    /**
+     * バケットに記録される値の上限を算出する。
+     *
+     * @param index バケットの添字
+     * @return 上限値
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int offset = index - SUB_BUCKET_COUNT;
+        final int shift = offset / SUB_BUCKET_HALF_COUNT + 1;
+        final long mantissa = offset % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        final long next = (mantissa + 1) << shift;
+        return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count = " + getCount()
+                + ", p50(us) = " + getP50(TimeUnit.MICROSECONDS)
+                + ", p99(us) = " + getP99(TimeUnit.MICROSECONDS)
+                + ", p999(us) = " + getP999(TimeUnit.MICROSECONDS)
+                + ", max(us) = " + getMax(TimeUnit.MICROSECONDS)
+                + ", throughput(/s) = " + getThroughput();
+    }
+}
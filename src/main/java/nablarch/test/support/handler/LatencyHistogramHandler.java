@@ -0,0 +1,136 @@
+package nablarch.test.support.handler;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import nablarch.core.util.Builder;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.Request;
+
+/**
+ * 後続ハンドラの所要時間をリクエストパスごとのヒストグラムに記録するハンドラ。
+ * <p>
+ * {@link CatchingHandler}と同じくハンドラキューに組み込み、後続ハンドラの所要時間の分布を記録する。
+ * 入力データが{@link Request}の場合はリクエストパスごとに、それ以外の場合は入力データのクラス名ごとに記録する。
+ * 例外が送出された呼び出しも記録する。
+ * </p>
+ * <p>
+ * 記録は{@link LatencyHistogram}のバケットの件数を加算するのみであり、呼び出しごとにオブジェクトを生成しない。
+ * 性能の予算は以下のように検証する。
+ * </p>
+ * <pre>
+ * LatencyHistogramHandler.assertP99Below("/action/menu", 50, TimeUnit.MILLISECONDS);
+ * </pre>
+ */
+public class LatencyHistogramHandler implements Handler<Object, Object> {
+
+    /** 入力データがnullの場合のキー */
+    private static final String NULL_KEY = "null";
+
+    /** リクエストパスごとのヒストグラム */
+    private static final ConcurrentMap<String, LatencyHistogram> histograms =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public Object handle(Object data, ExecutionContext context) {
+        final LatencyHistogram histogram = getHistogram(keyOf(data));
+        final long start = System.nanoTime();
+        try {
+            return context.handleNext(data);
+        } finally {
+            histogram.record(start, System.nanoTime());
+        }
+    }
+
+    public static void clear() {
+        histograms.clear();
+    }
+
+    /**
+     * リクエストパスに対応するヒストグラムを取得する。存在しない場合は作成する。
+     *
+     * @param requestPath リクエストパス
+     * @return ヒストグラム
+     */
+    public static LatencyHistogram getHistogram(String requestPath) {
+        final LatencyHistogram histogram = histograms.get(requestPath);
+        if (histogram != null) {
+            return histogram;
+        }
+        final LatencyHistogram created = new LatencyHistogram();
+        final LatencyHistogram existing = histograms.putIfAbsent(requestPath, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * 記録済みの全てのヒストグラムを取得する。
+     *
+     * @return リクエストパスをキーとしたヒストグラム。キーの昇順に並ぶ
+     */
+    public static Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<String, LatencyHistogram>(histograms);
+    }
+
+    /**
+     * リクエストパスの99パーセンタイル値が上限未満であることを検証する。
+     *
+     * @param requestPath リクエストパス
+     * @param limit 上限
+     * @param unit 上限の時間の単位
+     */
+    public static void assertP99Below(String requestPath, long limit, TimeUnit unit) {
+        assertPercentileBelow(requestPath, 99, limit, unit);
+    }
+
+    /**
+     * リクエストパスのパーセンタイル値が上限未満であることを検証する。
+     * <p>
+     * 一度も呼び出されていないリクエストパスの場合は、検証に失敗する。
+     * </p>
+     *
+     * @param requestPath リクエストパス
+     * @param percentile パーセンタイル
+     * @param limit 上限
+     * @param unit 上限の時間の単位
+     */
+    public static void assertPercentileBelow(String requestPath, double percentile, long limit, TimeUnit unit) {
+        final LatencyHistogram histogram = histograms.get(requestPath);
+        if (histogram == null || histogram.getCount() == 0) {
+            throw new AssertionError(Builder.concat(
+                    "no invocation recorded. \n",
+                    "requestPath = ", requestPath, "\n",
+                    "recorded    = ", histograms.keySet().toString())
+            );
+        }
+        final long limitNanos = unit.toNanos(limit);
+        final long actualNanos = histogram.getPercentile(percentile, TimeUnit.NANOSECONDS);
+        if (actualNanos >= limitNanos) {
+            throw new AssertionError(Builder.concat(
+                    "latency exceeded the limit. \n",
+                    "requestPath = ", requestPath, "\n",
+                    "percentile  = ", String.valueOf(percentile), "\n",
+                    "limit(ns)   = ", String.valueOf(limitNanos), "\n",
+                    "actual(ns)  = ", String.valueOf(actualNanos), "\n",
+                    "histogram   = ", histogram.toString())
+            );
+        }
+    }
+
+    /**
+     * 入力データから記録先のキーを取得する。
+     *
+     * @param data 入力データ
+     * @return リクエストパスまたはクラス名
+     */
+    private static String keyOf(Object data) {
+        if (data instanceof Request) {
+            final String requestPath = ((Request<?>) data).getRequestPath();
+            return requestPath != null ? requestPath : NULL_KEY;
+        }
+        return data != null ? data.getClass()
+                                  .getName() : NULL_KEY;
+    }
+}
@@ -0,0 +1,52 @@
+package nablarch.test.support.log.app;
+
+import nablarch.test.support.concurrent.AppendOnlyList;
+
+/**
+ * 容量の上限を持たない、ロックフリーの{@link LogBuffer}。
+ * <p>
+ * ログは{@link AppendOnlyList}に追加するため、追加時に既存のログをコピーすることはない。
+ * </p>
+ */
+final class AppendOnlyLogBuffer implements LogBuffer {
+
+    /** ログ */
+    private final AppendOnlyList<String> messages = new AppendOnlyList<String>();
+
+    /** 最初のログの通し番号 */
+    private final long firstSequence;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param firstSequence 最初のログの通し番号
+     */
+    AppendOnlyLogBuffer(long firstSequence) {
+        this.firstSequence = firstSequence;
+    }
+
+    @Override
+    public void add(String message) {
+        messages.add(message);
+    }
+
+    @Override
+    public String get(int index) {
+        return messages.get(index);
+    }
+
+    @Override
+    public int size() {
+        return messages.size();
+    }
+
+    @Override
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return 0;
+    }
+}
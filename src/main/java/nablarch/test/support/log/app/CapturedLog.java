@@ -0,0 +1,98 @@
+package nablarch.test.support.log.app;
+
+import java.util.Date;
+
+import nablarch.core.log.basic.LogLevel;
+
+/**
+ * {@link OnMemoryLogWriter}が構造化して保持したログ。
+ *
+ * @see CapturedLogQuery
+ */
+public final class CapturedLog {
+
+    /** ログレベル */
+    private final LogLevel level;
+
+    /** ロガー名 */
+    private final String loggerName;
+
+    /** 出力したスレッドの名前 */
+    private final String threadName;
+
+    /** 出力日時(エポックミリ秒) */
+    private final long timestamp;
+
+    /** メッセージ */
+    private final String message;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param level ログレベル
+     * @param loggerName ロガー名
+     * @param threadName 出力したスレッドの名前
+     * @param timestamp 出力日時(エポックミリ秒)
+     * @param message メッセージ
+     */
+    CapturedLog(LogLevel level, String loggerName, String threadName, long timestamp, String message) {
+        this.level = level;
+        this.loggerName = loggerName;
+        this.threadName = threadName;
+        this.timestamp = timestamp;
+        this.message = message;
+    }
+
+    /**
+     * ログレベルを取得する。
+     *
+     * @return ログレベル
+     */
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * ロガー名を取得する。
+     *
+     * @return ロガー名
+     */
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    /**
+     * 出力したスレッドの名前を取得する。
+     *
+     * @return 出力したスレッドの名前
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * 出力日時を取得する。
+     *
+     * @return 出力日時
+     */
+    public Date getTimestamp() {
+        return new Date(timestamp);
+    }
+
+    /**
+     * メッセージを取得する。
+     * <p>
+     * フォーマット前のメッセージであり、例外のスタックトレース等は含まない。
+     * </p>
+     *
+     * @return メッセージ
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return level + " " + loggerName + " [" + threadName + "] " + message;
+    }
+}
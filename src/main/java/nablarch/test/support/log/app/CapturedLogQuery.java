@@ -0,0 +1,200 @@
+package nablarch.test.support.log.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.core.log.basic.LogLevel;
+import nablarch.core.util.Builder;
+
+/**
+ * {@link OnMemoryLogWriter}が構造化して保持したログを検索するクラス。
+ * <p>
+ * ログレベル、ロガー名及びスレッド名による絞り込みは、メッセージを走査せずに行う。
+ * 条件を指定しない項目は絞り込まない。
+ * </p>
+ * <pre>
+ * List&lt;String&gt; errors = OnMemoryLogWriter.query("writer.memory")
+ *                                         .level(LogLevel.ERROR, LogLevel.FATAL)
+ *                                         .logger("SQL")
+ *                                         .messages();
+ * </pre>
+ */
+public final class CapturedLogQuery {
+
+    /** ログ名 */
+    private final String name;
+
+    /** 検索対象のバッファ */
+    private final StructuredLogBuffer buffer;
+
+    /** ログレベルのマスク */
+    private int levelMask = StructuredLogBuffer.ANY_LEVEL;
+
+    /** ロガー名 */
+    private String loggerName;
+
+    /** スレッド名 */
+    private String threadName;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param name ログ名
+     * @param buffer 検索対象のバッファ
+     */
+    CapturedLogQuery(String name, StructuredLogBuffer buffer) {
+        this.name = name;
+        this.buffer = buffer;
+    }
+
+    /**
+     * ログレベルで絞り込む。
+     *
+     * @param levels いずれかに一致するログを対象とするログレベル
+     * @return このオブジェクト自体
+     */
+    public CapturedLogQuery level(LogLevel... levels) {
+        levelMask = StructuredLogBuffer.levelMask(levels);
+        return this;
+    }
+
+    /**
+     * ロガー名で絞り込む。
+     *
+     * @param loggerName ロガー名
+     * @return このオブジェクト自体
+     */
+    public CapturedLogQuery logger(String loggerName) {
+        this.loggerName = loggerName;
+        return this;
+    }
+
+    /**
+     * ログを出力したスレッドの名前で絞り込む。
+     *
+     * @param threadName スレッド名
+     * @return このオブジェクト自体
+     */
+    public CapturedLogQuery thread(String threadName) {
+        this.threadName = threadName;
+        return this;
+    }
+
+    /**
+     * 条件に一致するログを、出力順に取得する。
+     *
+     * @return ログのスナップショット
+     */
+    public List<CapturedLog> list() {
+        final int[] selected = select();
+        final List<CapturedLog> logs = new ArrayList<CapturedLog>(selected.length);
+        for (int index : selected) {
+            logs.add(buffer.get(index));
+        }
+        return logs;
+    }
+
+    /**
+     * 条件に一致するログのメッセージを、出力順に取得する。
+     *
+     * @return メッセージのスナップショット
+     */
+    public List<String> messages() {
+        final int[] selected = select();
+        final List<String> messages = new ArrayList<String>(selected.length);
+        for (int index : selected) {
+            messages.add(buffer.getMessage(index));
+        }
+        return messages;
+    }
+
+    /**
+     * 条件に一致するログの件数を取得する。
+     *
+     * @return 件数
+     */
+    public int count() {
+        return select().length;
+    }
+
+    /**
+     * 期待する文字列が、それぞれ条件に一致するいずれかのログのメッセージに含まれていることを検証する。
+     *
+     * @param expected 期待する文字列
+     */
+    public void assertContains(String... expected) {
+        final List<String> origExpected = Arrays.asList(expected);
+        final LogPatternMatcher matcher = new LogPatternMatcher(
+                new ArrayList<String>(new LinkedHashSet<String>(origExpected)));
+        final boolean[] found = new boolean[matcher.getPatternCount()];
+        int rest = found.length;
+        final int[] selected = select();
+        for (int i = 0; i < selected.length && rest > 0; i++) {
+            rest -= matcher.scan(buffer.getMessage(selected[i]), found);
+        }
+        if (rest > 0) {
+            throw new AssertionError(Builder.concat(
+                    "expected log not found. \n",
+                    "query    = ", toString(), "\n",
+                    "expected = ", origExpected.toString(), "\n",
+                    "actual   = ", messages().toString())
+            );
+        }
+    }
+
+    /**
+     * 条件に一致するログが、スレッドごとに期待する順序で出力されていることを検証する。
+     * <p>
+     * 期待する文字列を含むメッセージを、スレッドごとに出力順に並べた結果が、期待する文字列の順序と一致することを検証する。
+     * 期待する文字列を含まないログは無視し、最後の文字列の次は最初の文字列に戻るため、同じ順序を繰り返し出力してもよい。
+     * 複数のスレッドのログが交互に出力されても、スレッド内の順序のみを検証する。
+     * </p>
+     *
+     * @param expected 出力順に並べた、期待する文字列
+     */
+    public void assertOrderedPerThread(String... expected) {
+        final List<String> origExpected = Arrays.asList(expected);
+        final Map<String, Integer> progress = new LinkedHashMap<String, Integer>();
+        for (CapturedLog log : list()) {
+            final Integer current = progress.get(log.getThreadName());
+            final int next = current != null ? current : 0;
+            for (int i = 0; i < expected.length; i++) {
+                if (!log.getMessage()
+                        .contains(expected[i])) {
+                    continue;
+                }
+                if (i != next) {
+                    throw new AssertionError(Builder.concat(
+                            "log is out of order. \n",
+                            "thread   = ", log.getThreadName(), "\n",
+                            "expected = ", origExpected.toString(), "\n",
+                            "actual   = ", log.getMessage())
+                    );
+                }
+                progress.put(log.getThreadName(), (next + 1) % expected.length);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 条件に一致するログの位置を取得する。
+     *
+     * @return 位置
+     */
+    private int[] select() {
+        final int loggerId = loggerName != null ? buffer.loggerIdOf(loggerName) : StructuredLogBuffer.ANY_NAME;
+        final int threadId = threadName != null ? buffer.threadIdOf(threadName) : StructuredLogBuffer.ANY_NAME;
+        return buffer.select(levelMask, loggerId, threadId);
+    }
+
+    @Override
+    public String toString() {
+        return "name = " + name + ", levelMask = " + Integer.toBinaryString(levelMask)
+                + ", logger = " + loggerName + ", thread = " + threadName;
+    }
+}
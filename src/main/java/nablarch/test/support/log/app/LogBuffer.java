@@ -0,0 +1,51 @@
+package nablarch.test.support.log.app;
+
+/**
+ * {@link OnMemoryLogWriter}がログを保持するバッファ。
+ * <p>
+ * 実装クラスは、ログの追加をロックを使用せずに行うこと。
+ * 追加と読み込みが並行して行われた場合、読み込み側は追加中のログを含まない状態を参照することがある。
+ * </p>
+ */
+interface LogBuffer {
+
+    /**
+     * ログを追加する。
+     *
+     * @param message ログ
+     */
+    void add(String message);
+
+    /**
+     * ログを取得する。
+     *
+     * @param index 保持しているログの中での位置(古い順)
+     * @return ログ
+     * @throws IndexOutOfBoundsException 位置が範囲外の場合
+     */
+    String get(int index);
+
+    /**
+     * 保持しているログの件数を取得する。
+     *
+     * @return 件数
+     */
+    int size();
+
+    /**
+     * 保持している最も古いログの通し番号を取得する。
+     * <p>
+     * 通し番号は、バッファに追加されたログに、バッファの作成時に指定した番号から順に割り当てられる番号である。
+     * </p>
+     *
+     * @return 最も古いログの通し番号
+     */
+    long getFirstSequence();
+
+    /**
+     * 容量を超えたために破棄したログの件数を取得する。
+     *
+     * @return 破棄した件数
+     */
+    long getEvictedCount();
+}
@@ -0,0 +1,193 @@
+package nablarch.test.support.log.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * 複数の文字列を1回の走査で検索するクラス。
+ * <p>
+ * Aho–Corasick法のオートマトンを構築し、ログ1行を先頭から1回走査するだけで、全ての文字列の出現を検出する。
+ * 状態遷移は状態ごとにソート済みの文字配列を二分探索するため、走査中にオブジェクトを生成しない。
+ * </p>
+ */
+final class LogPatternMatcher {
+
+    /** 出力がない状態の出力 */
+    private static final int[] NO_OUTPUT = new int[0];
+
+    /** 検索する文字列 */
+    private final List<String> patterns;
+
+    /** 状態ごとの遷移文字(昇順) */
+    private final char[][] transitionChars;
+
+    /** 状態ごとの遷移先 */
+    private final int[][] transitionTargets;
+
+    /** 状態ごとの失敗時の遷移先 */
+    private final int[] failure;
+
+    /** 状態ごとに出現が確定する文字列の番号 */
+    private final int[][] outputs;
+
+    /** 空文字列の番号。含まれない場合は-1 */
+    private final int emptyPattern;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param patterns 検索する文字列。重複を含まないこと
+     */
+    LogPatternMatcher(List<String> patterns) {
+        this.patterns = new ArrayList<String>(patterns);
+
+        // トライ木を構築する
+        final List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+        final List<List<Integer>> outputList = new ArrayList<List<Integer>>();
+        trie.add(new TreeMap<Character, Integer>());
+        outputList.add(new ArrayList<Integer>());
+        int empty = -1;
+        for (int id = 0; id < patterns.size(); id++) {
+            final String pattern = patterns.get(id);
+            if (pattern.length() == 0) {
+                empty = id;
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                final Character c = pattern.charAt(i);
+                Integer next = trie.get(state)
+                                   .get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state)
+                        .put(c, next);
+                    trie.add(new TreeMap<Character, Integer>());
+                    outputList.add(new ArrayList<Integer>());
+                }
+                state = next;
+            }
+            outputList.get(state)
+                      .add(id);
+        }
+        emptyPattern = empty;
+
+        final int size = trie.size();
+        transitionChars = new char[size][];
+        transitionTargets = new int[size][];
+        for (int state = 0; state < size; state++) {
+            final TreeMap<Character, Integer> edges = trie.get(state);
+            transitionChars[state] = new char[edges.size()];
+            transitionTargets[state] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                transitionChars[state][i] = edge.getKey();
+                transitionTargets[state][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        // 幅優先で失敗時の遷移先を求め、遷移先の出力を併合する
+        failure = new int[size];
+        final Queue<Integer> queue = new LinkedList<Integer>();
+        for (int target : transitionTargets[0]) {
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                final char c = transitionChars[state][i];
+                final int target = transitionTargets[state][i];
+                int fallback = failure[state];
+                while (fallback != 0 && transition(fallback, c) < 0) {
+                    fallback = failure[fallback];
+                }
+                final int next = transition(fallback, c);
+                failure[target] = next < 0 ? 0 : next;
+                outputList.get(target)
+                          .addAll(outputList.get(failure[target]));
+                queue.add(target);
+            }
+        }
+        outputs = new int[size][];
+        for (int state = 0; state < size; state++) {
+            final List<Integer> output = outputList.get(state);
+            if (output.isEmpty()) {
+                outputs[state] = NO_OUTPUT;
+                continue;
+            }
+            outputs[state] = new int[output.size()];
+            for (int i = 0; i < output.size(); i++) {
+                outputs[state][i] = output.get(i);
+            }
+        }
+    }
+
+    /**
+     * 検索する文字列の数を取得する。
+     *
+     * @return 検索する文字列の数
+     */
+    int getPatternCount() {
+        return patterns.size();
+    }
+
+    /**
+     * 検索する文字列を取得する。
+     *
+     * @param id 文字列の番号
+     * @return 検索する文字列
+     */
+    String getPattern(int id) {
+        return patterns.get(id);
+    }
+
+    /**
+     * 文字列を走査し、出現した検索文字列を記録する。
+     *
+     * @param text 走査する文字列
+     * @param found 文字列の番号ごとの出現有無。出現した文字列の要素をtrueにする
+     * @return 新たに出現した文字列の数
+     */
+    int scan(CharSequence text, boolean[] found) {
+        int newlyFound = 0;
+        if (emptyPattern >= 0 && !found[emptyPattern]) {
+            found[emptyPattern] = true;
+            newlyFound++;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = transition(state, c);
+            while (next < 0 && state != 0) {
+                state = failure[state];
+                next = transition(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            for (int id : outputs[state]) {
+                if (!found[id]) {
+                    found[id] = true;
+                    newlyFound++;
+                }
+            }
+        }
+        return newlyFound;
+    }
+
+    /**
+     * 遷移先を取得する。
+     *
+     * @param state 状態
+     * @param c 文字
+     * @return 遷移先。遷移できない場合は負数
+     */
+    private int transition(int state, char c) {
+        final int index = Arrays.binarySearch(transitionChars[state], c);
+        return index < 0 ? -1 : transitionTargets[state][index];
+    }
+}
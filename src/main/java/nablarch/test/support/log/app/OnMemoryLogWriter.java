@@ -1,16 +1,128 @@
 package nablarch.test.support.log.app;
 
+import nablarch.core.log.basic.LogContext;
 import nablarch.core.log.basic.LogWriterSupport;
+import nablarch.core.log.basic.ObjectSettings;
 import nablarch.core.util.Builder;
+import nablarch.core.util.StringUtil;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * ログをメモリ上に保持するログライタ。
+ * <p>
+ * ログはライタ名ごとのバッファに保持する。バッファへの追加はロックを使用しないため、
+ * 多数のスレッドから同時にログを出力しても、スレッドがログの出力で待たされることはない。
+ * </p>
+ * <p>
+ * デフォルトではバッファの容量に上限はない。
+ * 大量のログを出力するテストでは、以下のプロパティで容量の上限を設定できる。
+ * </p>
+ * <pre>
+ * writer.memory.capacity=10000
+ * writer.memory.evictionPolicy=oldest
+ * </pre>
+ * <ul>
+ * <li>capacity:保持するログの上限件数</li>
+ * <li>evictionPolicy:上限を超えた場合に破棄するログ。oldest(最も古いログを破棄する。デフォルト)またはnewest(追加するログを破棄する)</li>
+ * </ul>
+ * <p>
+ * 長時間実行するテストで全てのログを検証対象とする場合は、古いログを一時ファイルに退避できる。
+ * 退避したログも{@link #getMessages(String)}や{@link #assertLogContains(String, String...)}の対象となり、
+ * 参照時にセグメント単位で一時ファイルから読み込まれる。
+ * </p>
+ * <pre>
+ * writer.memory.spillToDisk=true
+ * writer.memory.segmentSize=4096
+ * writer.memory.spillDirectory=/tmp
+ * </pre>
+ * <ul>
+ * <li>spillToDisk:古いログを一時ファイルに退避するか否か。capacityと同時には指定できない</li>
+ * <li>segmentSize:ヒープ上で1セグメントに格納する件数(デフォルトは4096)</li>
+ * <li>spillDirectory:一時ファイルを作成するディレクトリ(デフォルトはシステムの一時ディレクトリ)</li>
+ * </ul>
+ * <p>
+ * ログレベルやロガー名で絞り込んで検証する場合は、フォーマット前のログを構造化して保持できる。
+ * 構造化したログは{@link #query(String)}で検索する。
+ * </p>
+ * <pre>
+ * writer.memory.structured=true
+ * </pre>
+ * <ul>
+ * <li>structured:ログレベル、ロガー名、スレッド名、出力日時及びメッセージを構造化して保持するか否か(デフォルトはfalse)。
+ * 構造化したログは容量の上限を持たないため、capacity及びspillToDiskとは同時に指定できない</li>
+ * </ul>
+ * <p>
+ * ロガーファクトリの初期化時に出力されるログ(メッセージが"initialized."で始まるログ)は保持しない。
+ * 以前のバージョンでは"initialized."を含むログを全て破棄していたが、
+ * 現在はメッセージの途中に"initialized."を含むログ(例えば"component initialized.")も保持し、検証の対象となる。
+ * </p>
+ */
 public class OnMemoryLogWriter extends LogWriterSupport {
-    
-    private static final Map<String, List<String>> messagesMap = new HashMap<String, List<String>>();
-    
+
+    /** ライタ名ごとのバッファ */
+    private static final ConcurrentMap<String, LogBuffer> buffers = new ConcurrentHashMap<String, LogBuffer>();
+
+    /** ライタ名ごとのバッファの設定 */
+    private static final ConcurrentMap<String, BufferSettings> bufferSettings =
+            new ConcurrentHashMap<String, BufferSettings>();
+
+    /** ライタ名ごとの構造化したログのバッファ */
+    private static final ConcurrentMap<String, StructuredLogBuffer> structuredBuffers =
+            new ConcurrentHashMap<String, StructuredLogBuffer>();
+
+    /** {@link nablarch.core.log.basic.BasicLoggerFactory}が初期化時に出力するメッセージの接頭辞 */
+    private static final String INITIALIZED_MESSAGE_PREFIX = "initialized.";
+
+    /**
+     * 次に作成するバッファの最初の通し番号。
+     * <p>
+     * 破棄したバッファの通し番号を新しいバッファで再び使用しないよう、バッファを破棄するたびに進める。
+     * </p>
+     */
+    private static final AtomicLong nextSequence = new AtomicLong();
+
+    /** ログを構造化して保持するか否か */
+    private boolean structured;
+
     public static void clear() {
-        messagesMap.clear();
+        for (String name : buffers.keySet()) {
+            close(buffers.remove(name));
+        }
+        structuredBuffers.clear();
+    }
+
+    /**
+     * バッファを破棄する。
+     * <p>
+     * 以降に作成するバッファの通し番号は、破棄したバッファの通し番号より大きくなる。
+     * バッファが一時ファイルを使用している場合は、一時ファイルを削除する。
+     * </p>
+     *
+     * @param buffer バッファ
+     */
+    private static void close(LogBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        final long end = buffer.getFirstSequence() + buffer.size();
+        long current;
+        while ((current = nextSequence.get()) < end && !nextSequence.compareAndSet(current, end)) {
+            // 他のスレッドと競合した場合は再試行する
+        }
+        if (buffer instanceof Closeable) {
+            try {
+                ((Closeable) buffer).close();
+            } catch (IOException ignore) {
+                // NOP
+            }
+        }
     }
 
     /**
@@ -18,60 +130,375 @@ public class OnMemoryLogWriter extends LogWriterSupport {
      *
      *  <p>
      *  補足：
-     *  本メソッドは同期化している。<br />
-     *  テスト中で別プロセスを生成してテストする場合、プロセス生成側がログを取得するタイミングが悪いと、
-     *  新しく空のログを作成してしまうため。
+     *  戻り値のリストはライタ名に対応するバッファのビューであり、以降に出力されたログも参照できる。
+     *  テスト中で別プロセスを生成してテストする場合でも、プロセス生成側がログを取得するタイミングによらず、
+     *  同じバッファを参照する。
      *  </p>
      *
      * @param name ログ名
      * @return ログ
      */
-    public static synchronized List<String> getMessages(String name) {
-        if (!messagesMap.containsKey(name)) {
-            messagesMap.put(name, Collections.synchronizedList(new ArrayList<String>()));
+    public static List<String> getMessages(String name) {
+        return new MessageList(name);
+    }
+
+    /**
+     * 容量の上限を超えたために破棄したログの件数を取得する。
+     *
+     * @param name ログ名
+     * @return 破棄した件数
+     */
+    public static long getEvictedCount(String name) {
+        return getBuffer(name).getEvictedCount();
+    }
+
+    /**
+     * ライタ名に対応するバッファを取得する。存在しない場合は作成する。
+     *
+     * @param name ログ名
+     * @return バッファ
+     */
+    private static LogBuffer getBuffer(String name) {
+        final LogBuffer buffer = buffers.get(name);
+        if (buffer != null) {
+            return buffer;
         }
-        return messagesMap.get(name);
+        final BufferSettings settings = bufferSettings.get(name);
+        final long firstSequence = nextSequence.get();
+        final LogBuffer created = settings != null ? settings.createBuffer(firstSequence)
+                : new AppendOnlyLogBuffer(firstSequence);
+        final LogBuffer existing = buffers.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * 構造化して保持したログを検索する。
+     * <p>
+     * structuredを指定していないライタ名の場合、検索結果は常に空となる。
+     * </p>
+     *
+     * @param name ログ名
+     * @return 検索条件を指定していないクエリ
+     */
+    public static CapturedLogQuery query(String name) {
+        return new CapturedLogQuery(name, getStructuredBuffer(name));
     }
 
+    /**
+     * ライタ名に対応する構造化したログのバッファを取得する。存在しない場合は作成する。
+     *
+     * @param name ログ名
+     * @return バッファ
+     */
+    private static StructuredLogBuffer getStructuredBuffer(String name) {
+        final StructuredLogBuffer buffer = structuredBuffers.get(name);
+        if (buffer != null) {
+            return buffer;
+        }
+        final StructuredLogBuffer created = new StructuredLogBuffer();
+        final StructuredLogBuffer existing = structuredBuffers.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
 
+    /**
+     * 期待する文字列が、それぞれいずれかのログに含まれていることを検証する。
+     * <p>
+     * 期待する文字列はまとめて1回の走査で検索し、全て見つかった時点で走査を終える。
+     * </p>
+     *
+     * @param name ログ名
+     * @param expected 期待する文字列
+     */
     public static void assertLogContains(String name, String... expected) {
-        List<String> origExpected = Arrays.asList(expected);
+        assertLogContainsSince(name, 0, expected);
+    }
 
-        // まだ発見されていない期待ログ
-        Set<String> expectedRest = new HashSet<String>(origExpected);
+    /**
+     * 現時点のログの位置を取得する。
+     * <p>
+     * 戻り値を{@link #assertLogContainsSince(String, long, String...)}に指定することで、
+     * 以降に出力されたログのみを検証できる。
+     * </p>
+     *
+     * @param name ログ名
+     * @return ログの位置
+     */
+    public static long mark(String name) {
+        final LogBuffer buffer = getBuffer(name);
+        return buffer.getFirstSequence() + buffer.size();
+    }
 
-        List<String> actualLogs = OnMemoryLogWriter.getMessages(name);
+    /**
+     * 指定した位置以降のログを取得する。
+     *
+     * @param name ログ名
+     * @param mark {@link #mark(String)}で取得した位置
+     * @return ログのスナップショット
+     */
+    public static List<String> getMessagesSince(String name, long mark) {
+        final LogBuffer buffer = getBuffer(name);
+        final int size = buffer.size();
+        final List<String> messages = new ArrayList<String>();
+        for (int i = startIndex(buffer, mark, size); i < size; i++) {
+            messages.add(buffer.get(i));
+        }
+        return messages;
+    }
 
-        for (String actualLog : actualLogs) {
-            Set<String> ok = new HashSet<String>();
-            for (String expectedLog : expectedRest) {
-                if (actualLog.contains(expectedLog)) {
-                    ok.add(expectedLog);
-                }
-            }
-            // 出現した文言を消し込み
-            expectedRest.removeAll(ok);
-            ok.clear();
+    /**
+     * 期待する文字列が、それぞれ指定した位置以降のいずれかのログに含まれていることを検証する。
+     * <p>
+     * 位置より前のログは走査しないため、検証を繰り返してもログ全体を走査し直すことはない。
+     * 位置を取得した後に{@link #clear()}された場合は、全てのログを検証する。
+     * </p>
+     *
+     * @param name ログ名
+     * @param mark {@link #mark(String)}で取得した位置
+     * @param expected 期待する文字列
+     */
+    public static void assertLogContainsSince(String name, long mark, String... expected) {
+        final List<String> origExpected = Arrays.asList(expected);
+        final LogPatternMatcher matcher = new LogPatternMatcher(
+                new ArrayList<String>(new LinkedHashSet<String>(origExpected)));
+
+        // まだ発見されていない期待ログの数
+        final boolean[] found = new boolean[matcher.getPatternCount()];
+        int rest = found.length;
+
+        final LogBuffer buffer = getBuffer(name);
+        final int size = buffer.size();
+        for (int i = startIndex(buffer, mark, size); i < size && rest > 0; i++) {
+            rest -= matcher.scan(buffer.get(i), found);
         }
         // 期待したログ全てが、実際のログに含まれていること
-        if (!expectedRest.isEmpty()) {
+        if (rest > 0) {
             throw new AssertionError(Builder.concat(
                     "expected log not found. \n",
                     "expected = ", origExpected.toString(), "\n",
-                    "actual   = ", actualLogs.toString())
+                    "actual   = ", getMessagesSince(name, mark).toString())
             );
         }
     }
 
+    /**
+     * 位置に対応するバッファ内のインデックスを算出する。
+     *
+     * @param buffer バッファ
+     * @param mark 位置
+     * @param size バッファに保持しているログの件数
+     * @return インデックス
+     */
+    private static int startIndex(LogBuffer buffer, long mark, int size) {
+        final long first = buffer.getFirstSequence();
+        if (mark <= first || mark > first + size) {
+            return 0;
+        }
+        return (int) (mark - first);
+    }
 
-    protected void onWrite(String formattedMessage) {
-        if (formattedMessage.contains("initialized.")) {
+    /**
+     * バッファの設定を読み込む。
+     * <p>
+     * 容量の上限、または一時ファイルへの退避が設定された場合、既存のバッファは設定に従ったバッファに置き換える。
+     * </p>
+     *
+     * @param settings ログライタの設定
+     */
+    @Override
+    protected void onInitialize(ObjectSettings settings) {
+        final BufferSettings bufferSetting = BufferSettings.parse(settings);
+        structured = Boolean.valueOf(settings.getProp("structured"));
+        if (bufferSetting == null) {
             return;
         }
-        getMessages(getName()).add(formattedMessage);
+        bufferSettings.put(getName(), bufferSetting);
+        close(buffers.put(getName(), bufferSetting.createBuffer(nextSequence.get())));
+    }
+
+    /**
+     * ログを出力する。
+     * <p>
+     * ロガーファクトリの初期化時に出力されるログは保持しない。
+     * 判定はフォーマット前のメッセージの接頭辞で行い、フォーマット後のログを走査しない。
+     * </p>
+     *
+     * @param context ログエントリ
+     */
+    @Override
+    public void write(LogContext context) {
+        final String message = context.getMessage();
+        if (message != null && message.startsWith(INITIALIZED_MESSAGE_PREFIX)) {
+            return;
+        }
+        super.write(context);
+        if (structured && needsToWrite(context)) {
+            getStructuredBuffer(getName()).add(context);
+        }
+    }
+
+    protected void onWrite(String formattedMessage) {
+        getBuffer(getName()).add(formattedMessage);
     }
 
     protected void onTerminate() {
-        getMessages(getName()).add("@@@END@@@");
+        getBuffer(getName()).add("@@@END@@@");
+    }
+
+    /**
+     * バッファの設定。
+     */
+    private static final class BufferSettings {
+
+        /** 容量。上限がない場合は0 */
+        private final int capacity;
+
+        /** 容量を超えた場合に破棄するログ */
+        private final RingLogBuffer.EvictionPolicy policy;
+
+        /** 一時ファイルに退避する場合のセグメントの件数。退避しない場合は0 */
+        private final int segmentSize;
+
+        /** 一時ファイルを作成するディレクトリ */
+        private final File spillDirectory;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param capacity 容量
+         * @param policy 容量を超えた場合に破棄するログ
+         * @param segmentSize 一時ファイルに退避する場合のセグメントの件数
+         * @param spillDirectory 一時ファイルを作成するディレクトリ
+         */
+        private BufferSettings(int capacity, RingLogBuffer.EvictionPolicy policy, int segmentSize,
+                File spillDirectory) {
+            this.capacity = capacity;
+            this.policy = policy;
+            this.segmentSize = segmentSize;
+            this.spillDirectory = spillDirectory;
+        }
+
+        /**
+         * ログライタの設定からバッファの設定を読み込む。
+         *
+         * @param settings ログライタの設定
+         * @return バッファの設定。デフォルトのバッファを使用する場合はnull
+         * @throws IllegalArgumentException 同時に指定できないプロパティが指定された場合
+         */
+        private static BufferSettings parse(ObjectSettings settings) {
+            final String capacity = settings.getProp("capacity");
+            final boolean spillToDisk = Boolean.valueOf(settings.getProp("spillToDisk"));
+            if (Boolean.valueOf(settings.getProp("structured")) && (spillToDisk || StringUtil.hasValue(capacity))) {
+                // 構造化したログは上限なく保持するため、ログの量を抑える設定と同時には使用できない
+                throw new IllegalArgumentException("structured cannot be specified with capacity or spillToDisk.");
+            }
+            if (spillToDisk) {
+                if (StringUtil.hasValue(capacity)) {
+                    throw new IllegalArgumentException("capacity and spillToDisk cannot be specified together.");
+                }
+                final String segmentSize = settings.getProp("segmentSize");
+                final String spillDirectory = settings.getProp("spillDirectory");
+                return new BufferSettings(0, null,
+                        StringUtil.hasValue(segmentSize) ? Integer.parseInt(segmentSize.trim()) : 4096,
+                        StringUtil.hasValue(spillDirectory) ? new File(spillDirectory.trim()) : null);
+            }
+            if (!StringUtil.hasValue(capacity)) {
+                return null;
+            }
+            final String evictionPolicy = settings.getProp("evictionPolicy");
+            return new BufferSettings(Integer.parseInt(capacity.trim()),
+                    StringUtil.hasValue(evictionPolicy)
+                            ? RingLogBuffer.EvictionPolicy.valueOf(evictionPolicy.trim().toUpperCase())
+                            : RingLogBuffer.EvictionPolicy.OLDEST, 0, null);
+        }
+
+        /**
+         * 設定に従ったバッファを作成する。
+         *
+         * @param firstSequence 最初のログの通し番号
+         * @return バッファ
+         */
+        private LogBuffer createBuffer(long firstSequence) {
+            if (segmentSize == 0) {
+                return new RingLogBuffer(capacity, policy, firstSequence);
+            }
+            try {
+                return new SpillingLogBuffer(segmentSize, spillDirectory, firstSequence);
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to create spill file.", e);
+            }
+        }
+    }
+
+    /**
+     * ライタ名に対応するバッファのビュー。
+     * <p>
+     * 操作のたびにライタ名からバッファを取得するため、{@link OnMemoryLogWriter#clear()}の後も同じライタ名のログを参照する。
+     * 反復処理は、反復を開始した時点のバッファに対して、開始時点の件数分のログを1件ずつ読み込む。
+     * </p>
+     */
+    private static final class MessageList extends AbstractList<String> {
+
+        /** ログ名 */
+        private final String name;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param name ログ名
+         */
+        private MessageList(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String get(int index) {
+            return getBuffer(name).get(index);
+        }
+
+        @Override
+        public int size() {
+            return getBuffer(name).size();
+        }
+
+        @Override
+        public boolean add(String message) {
+            getBuffer(name).add(message);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            close(buffers.remove(name));
+            structuredBuffers.remove(name);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            final LogBuffer buffer = getBuffer(name);
+            final int size = buffer.size();
+            return new Iterator<String>() {
+
+                /** 次に返すログの位置 */
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < size;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return buffer.get(index++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("remove is not supported.");
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,165 @@
+package nablarch.test.support.log.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 容量の上限を持つ、ロックフリーの{@link LogBuffer}。
+ * <p>
+ * 容量を超えてログが追加された場合は、{@link EvictionPolicy}に従ってログを破棄する。
+ * </p>
+ * <p>
+ * 配列の要素にはログと通し番号の組を格納する。
+ * 読み込み側は通し番号を確認し、書き込み前の古いログや、読み込み中に上書きされた新しいログを返さない。
+ * </p>
+ */
+final class RingLogBuffer implements LogBuffer {
+
+    /**
+     * 容量を超えた場合に破棄するログ。
+     */
+    enum EvictionPolicy {
+        /** 最も古いログを破棄して追加する */
+        OLDEST,
+        /** 追加するログを破棄する */
+        NEWEST
+    }
+
+    /** ログを格納する配列 */
+    private final AtomicReferenceArray<Entry> slots;
+
+    /** 容量 */
+    private final int capacity;
+
+    /** 容量を超えた場合に破棄するログ */
+    private final EvictionPolicy policy;
+
+    /** これまでに追加位置を予約した件数 */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** 破棄した件数 */
+    private final AtomicLong evicted = new AtomicLong();
+
+    /** 最初のログの通し番号 */
+    private final long firstSequence;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param capacity 容量
+     * @param policy 容量を超えた場合に破棄するログ
+     * @param firstSequence 最初のログの通し番号
+     */
+    RingLogBuffer(int capacity, EvictionPolicy policy, long firstSequence) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than 0. capacity = " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.firstSequence = firstSequence;
+        slots = new AtomicReferenceArray<Entry>(capacity);
+    }
+
+    @Override
+    public void add(String message) {
+        if (policy == EvictionPolicy.NEWEST) {
+            long index;
+            do {
+                index = tail.get();
+                if (index >= capacity) {
+                    evicted.incrementAndGet();
+                    return;
+                }
+            } while (!tail.compareAndSet(index, index + 1));
+            slots.set((int) index, new Entry(index, message));
+            return;
+        }
+        final long index = tail.getAndIncrement();
+        if (index >= capacity) {
+            evicted.incrementAndGet();
+        }
+        publish((int) (index % capacity), new Entry(index, message));
+    }
+
+    /**
+     * ログを配列に書き込む。
+     * <p>
+     * 同じ要素により新しいログが既に書き込まれている場合、追加するログは破棄済みとして書き込まない。
+     * </p>
+     *
+     * @param slot 配列の位置
+     * @param entry ログと通し番号の組
+     */
+    private void publish(int slot, Entry entry) {
+        while (true) {
+            final Entry current = slots.get(slot);
+            if (current != null && current.sequence > entry.sequence) {
+                return;
+            }
+            if (slots.compareAndSet(slot, current, entry)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String get(int index) {
+        while (true) {
+            final long current = tail.get();
+            final int size = (int) Math.min(current, capacity);
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index = " + index + ", size = " + size);
+            }
+            final long sequence = Math.max(current - capacity, 0) + index;
+            final int slot = (int) (sequence % capacity);
+            Entry entry = slots.get(slot);
+            // 位置を予約したスレッドが書き込むまで待機する
+            while (entry == null || entry.sequence < sequence) {
+                Thread.yield();
+                entry = slots.get(slot);
+            }
+            if (entry.sequence == sequence) {
+                return entry.message;
+            }
+            // 読み込み中に上書きされた場合は、最新の状態で位置を求め直す
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(tail.get(), capacity);
+    }
+
+    @Override
+    public long getFirstSequence() {
+        return firstSequence + (policy == EvictionPolicy.NEWEST ? 0 : Math.max(tail.get() - capacity, 0));
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    /**
+     * 配列に格納するログと通し番号の組。
+     */
+    private static final class Entry {
+
+        /** 通し番号 */
+        private final long sequence;
+
+        /** ログ */
+        private final String message;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param sequence 通し番号
+         * @param message ログ
+         */
+        Entry(long sequence, String message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package nablarch.test.support.log.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 古いログを一時ファイルに退避する{@link LogBuffer}。
+ * <p>
+ * ログは一定件数ごとのセグメントに格納する。
+ * 全ての位置が書き込まれたセグメントは、バックグラウンドのスレッドで一時ファイルに書き出し、ヒープから解放する。
+ * 書き出しを行うスレッドは全てのバッファで共有するデーモンスレッドとし、一定時間書き出しがなければ終了する。
+ * 書き出しが追いつかず、書き出し待ちのセグメントが上限に達した場合は、ログを追加したスレッドで書き出す。
+ * このため、ヒープに保持するログは最大でも(書き出し待ちの上限+1)セグメント分となる。
+ * </p>
+ * <p>
+ * 書き出したログを読み込む場合は、セグメント単位でファイルから読み込み、直近に読み込んだセグメントのみをキャッシュする。
+ * ファイルはメモリにマップせずに読み書きするため、ヒープ外のメモリを消費せず、クローズ時に削除できる。
+ * </p>
+ * <p>
+ * nullは追加できない。
+ * セグメントの書き出しに失敗した場合、そのセグメントはヒープに残す。
+ * </p>
+ */
+final class SpillingLogBuffer implements LogBuffer, Closeable {
+
+    /** ファイルに書き出す際の文字コード */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** 書き出し待ちのセグメントの上限 */
+    private static final int MAX_PENDING_SEGMENTS = 4;
+
+    /** 読み込んだセグメントをキャッシュする数 */
+    private static final int CACHED_PAGES = 4;
+
+    /** 書き出しを行うスレッドが終了するまでの待機時間(秒) */
+    private static final long SPILLER_KEEP_ALIVE_SECONDS = 60;
+
+    /** 書き出しを行うスレッドの番号 */
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    /** 書き出しを行うスレッド(全てのバッファで共有する) */
+    private static final ThreadPoolExecutor SPILLER = createSpiller();
+
+    /** セグメントに格納する件数 */
+    private final int segmentSize;
+
+    /** 一時ファイル */
+    private final File file;
+
+    /** 一時ファイル(読み書きはこのオブジェクトで同期する) */
+    private final RandomAccessFile randomAccessFile;
+
+    /** 一時ファイルの次の書き込み位置 */
+    private final AtomicLong filePosition = new AtomicLong();
+
+    /** 予約済みの件数 */
+    private final AtomicLong reserved = new AtomicLong();
+
+    /** ヒープ上のセグメント */
+    private final ConcurrentMap<Long, Segment> segments = new ConcurrentHashMap<Long, Segment>();
+
+    /** 書き出したセグメントのファイル上の位置 */
+    private final ConcurrentMap<Long, long[]> spilled = new ConcurrentHashMap<Long, long[]>();
+
+    /** ファイルから読み込んだセグメント */
+    private final Map<Long, String[]> pages = new PageCache();
+
+    /** クローズ済みか否か */
+    private volatile boolean closed;
+
+    /** 最初のログの通し番号 */
+    private final long firstSequence;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param segmentSize セグメントに格納する件数
+     * @param directory 一時ファイルを作成するディレクトリ。nullの場合はデフォルトの一時ディレクトリ
+     * @param firstSequence 最初のログの通し番号
+     * @throws IOException 一時ファイルの作成に失敗した場合
+     */
+    SpillingLogBuffer(int segmentSize, File directory, long firstSequence) throws IOException {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("segmentSize must be greater than 0. segmentSize = " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.firstSequence = firstSequence;
+        file = File.createTempFile("nablarch-log-", ".spill", directory);
+        file.deleteOnExit();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * 書き出しを行うスレッドを生成する。
+     *
+     * @return 書き出しを行うスレッド
+     */
+    private static ThreadPoolExecutor createSpiller() {
+        final ThreadPoolExecutor spiller = new ThreadPoolExecutor(1, 1, SPILLER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_SEGMENTS), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "log-spiller-" + THREAD_NUMBER.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        spiller.allowCoreThreadTimeOut(true);
+        return spiller;
+    }
+
+    @Override
+    public void add(String message) {
+        if (message == null) {
+            throw new NullPointerException("message must not be null.");
+        }
+        if (closed) {
+            return;
+        }
+        final long sequence = reserved.getAndIncrement();
+        final long segmentIndex = sequence / segmentSize;
+        final Segment segment = segment(segmentIndex);
+        if (segment.write((int) (sequence % segmentSize), message)) {
+            SPILLER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    spill(segmentIndex, segment);
+                }
+            });
+        }
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + size());
+        }
+        final Long segmentIndex = (long) index / segmentSize;
+        final int offset = index % segmentSize;
+        while (true) {
+            // ヒープ上になければ書き出し済みのため、ファイルを先に確認しない
+            final Segment segment = segments.get(segmentIndex);
+            if (segment != null) {
+                final String message = segment.messages.get(offset);
+                if (message != null) {
+                    return message;
+                }
+                if (closed) {
+                    throw new IllegalStateException("log was not written before close. index = " + index);
+                }
+                // 位置を予約したスレッドが書き込むまで待機する
+                Thread.yield();
+                continue;
+            }
+            final long[] location = spilled.get(segmentIndex);
+            if (location != null) {
+                return readPage(segmentIndex, location)[offset];
+            }
+            if (closed) {
+                throw new IllegalStateException("log was not written before close. index = " + index);
+            }
+            // 予約されたがセグメントが作成される前
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(reserved.get(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return 0;
+    }
+
+    /**
+     * ファイルに書き出したセグメントの数を取得する。
+     *
+     * @return 書き出したセグメントの数
+     */
+    int getSpilledSegmentCount() {
+        return spilled.size();
+    }
+
+    /**
+     * 書き出しを停止し、一時ファイルを削除する。
+     * <p>
+     * クローズ後に追加されたログは破棄する。
+     * </p>
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (randomAccessFile) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException ignore) {
+                // NOP
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * セグメントを取得する。存在しない場合は作成する。
+     *
+     * @param segmentIndex セグメントの位置
+     * @return セグメント
+     */
+    private Segment segment(Long segmentIndex) {
+        final Segment segment = segments.get(segmentIndex);
+        if (segment != null) {
+            return segment;
+        }
+        final Segment created = new Segment(segmentSize);
+        final Segment existing = segments.putIfAbsent(segmentIndex, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * セグメントをファイルに書き出し、ヒープから解放する。
+     * <p>
+     * 各ログはバイト数(4バイト)とUTF-8でエンコードした内容の順に書き出す。
+     * 書き出しに失敗した場合は、セグメントをヒープに残す。
+     * </p>
+     *
+     * @param segmentIndex セグメントの位置
+     * @param segment セグメント
+     */
+    private void spill(long segmentIndex, Segment segment) {
+        if (closed) {
+            return;
+        }
+        final long position;
+        final int length;
+        try {
+            final byte[] bytes = encode(segment);
+            length = bytes.length;
+            position = filePosition.getAndAdd(length);
+            synchronized (randomAccessFile) {
+                randomAccessFile.seek(position);
+                randomAccessFile.write(bytes);
+            }
+        } catch (IOException e) {
+            // 書き出せない場合はヒープに残す
+            return;
+        } catch (RuntimeException e) {
+            // 書き出せない場合はヒープに残す(ログを追加したスレッドで書き出す場合に、例外を伝播させない)
+            return;
+        }
+        // 読み込み側が必ずいずれかから参照できるよう、書き出し先を公開してからヒープから解放する
+        spilled.put(segmentIndex, new long[] {position, length});
+        segments.remove(segmentIndex);
+    }
+
+    /**
+     * セグメントのログを、書き出す形式にエンコードする。
+     *
+     * @param segment セグメント
+     * @return エンコードしたログ
+     */
+    private byte[] encode(Segment segment) {
+        final byte[][] encoded = new byte[segmentSize][];
+        int length = 0;
+        for (int i = 0; i < segmentSize; i++) {
+            encoded[i] = segment.messages.get(i)
+                                         .getBytes(UTF_8);
+            length += 4 + encoded[i].length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] bytes : encoded) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 書き出したセグメントを読み込む。
+     *
+     * @param segmentIndex セグメントの位置
+     * @param location ファイル上の位置と長さ
+     * @return セグメントのログ
+     */
+    private String[] readPage(Long segmentIndex, long[] location) {
+        synchronized (pages) {
+            final String[] cached = pages.get(segmentIndex);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final byte[] bytes = new byte[(int) location[1]];
+        try {
+            synchronized (randomAccessFile) {
+                randomAccessFile.seek(location[0]);
+                randomAccessFile.readFully(bytes);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read spilled log. file = " + file, e);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final String[] page = new String[segmentSize];
+        for (int i = 0; i < segmentSize; i++) {
+            final int length = buffer.getInt();
+            page[i] = new String(bytes, buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        synchronized (pages) {
+            pages.put(segmentIndex, page);
+        }
+        return page;
+    }
+
+    /**
+     * ファイルから読み込んだセグメントのうち、直近に読み込んだものを保持するキャッシュ。
+     */
+    private static final class PageCache extends LinkedHashMap<Long, String[]> {
+
+        /** シリアルバージョンUID */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * コンストラクタ。
+         */
+        private PageCache() {
+            super(CACHED_PAGES, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String[]> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    }
+
+    /**
+     * ヒープ上のセグメント。
+     */
+    private static final class Segment {
+
+        /** ログ */
+        private final AtomicReferenceArray<String> messages;
+
+        /** 書き込み済みの件数 */
+        private final AtomicInteger written = new AtomicInteger();
+
+        /**
+         * コンストラクタ。
+         *
+         * @param size 格納する件数
+         */
+        private Segment(int size) {
+            messages = new AtomicReferenceArray<String>(size);
+        }
+
+        /**
+         * ログを書き込む。
+         *
+         * @param offset 位置
+         * @param message ログ
+         * @return 全ての位置が書き込まれた場合はtrue
+         */
+        private boolean write(int offset, String message) {
+            messages.set(offset, message);
+            return written.incrementAndGet() == messages.length();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package nablarch.test.support.log.app;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import nablarch.core.log.basic.LogContext;
+import nablarch.core.log.basic.LogLevel;
+import nablarch.test.support.concurrent.SegmentedArray;
+
+/**
+ * ログを構造化して項目ごとの配列に保持するバッファ。
+ * <p>
+ * ログレベルは序数、ロガー名とスレッド名は名前ごとに採番した番号で保持するため、
+ * ログレベル、ロガー名及びスレッド名による絞り込みは、文字列を比較せずに整数の比較で行う。
+ * </p>
+ * <p>
+ * 記憶領域は{@link SegmentedArray}で項目ごとの配列を持つチャンクを単位に確保し、ロックを使用せずに追加する。
+ * 各項目を書き込んだ後にメッセージを書き込むことで、メッセージが参照できる位置は他の項目も参照できることを保証する。
+ * </p>
+ */
+final class StructuredLogBuffer {
+
+    /** 全てのログレベルに一致するマスク */
+    static final int ANY_LEVEL = -1;
+
+    /** 全てのロガー名またはスレッド名に一致する番号 */
+    static final int ANY_NAME = -1;
+
+    /** どのロガー名またはスレッド名にも一致しない番号 */
+    static final int NO_NAME = -2;
+
+    /** チャンクを生成するオブジェクト */
+    private static final SegmentedArray.SegmentFactory<Chunk> CHUNK_FACTORY = new SegmentedArray.SegmentFactory<Chunk>() {
+        @Override
+        public Chunk create(int size) {
+            return new Chunk(size);
+        }
+    };
+
+    /** ログレベル(序数の順) */
+    private static final LogLevel[] LEVELS = LogLevel.values();
+
+    /** チャンク */
+    private final SegmentedArray<Chunk> chunks = new SegmentedArray<Chunk>(CHUNK_FACTORY);
+
+    /** ロガー名の番号 */
+    private final SymbolTable loggerNames = new SymbolTable();
+
+    /** スレッド名の番号 */
+    private final SymbolTable threadNames = new SymbolTable();
+
+    /**
+     * ログを追加する。
+     *
+     * @param context ログエントリ
+     */
+    void add(LogContext context) {
+        final int index = chunks.reserve();
+        final int logger = loggerNames.idOf(context.getLoggerName());
+        final int thread = threadNames.idOf(Thread.currentThread()
+                                                  .getName());
+        final String message = context.getMessage();
+        chunks.segmentForWrite(index).set(SegmentedArray.offset(index), context.getLevel()
+                                                                 .ordinal(), logger, thread,
+                context.getDate()
+                       .getTime(), message != null ? message : "");
+    }
+
+    /**
+     * 保持しているログの件数を取得する。
+     *
+     * @return 件数
+     */
+    int size() {
+        return chunks.size();
+    }
+
+    /**
+     * ログレベルのマスクを作成する。
+     *
+     * @param levels ログレベル
+     * @return マスク
+     */
+    static int levelMask(LogLevel... levels) {
+        int mask = 0;
+        for (LogLevel level : levels) {
+            mask |= 1 << level.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * ロガー名の番号を取得する。
+     *
+     * @param loggerName ロガー名
+     * @return 番号。一度も出力されていないロガー名の場合は{@link #NO_NAME}
+     */
+    int loggerIdOf(String loggerName) {
+        return loggerNames.find(loggerName);
+    }
+
+    /**
+     * スレッド名の番号を取得する。
+     *
+     * @param threadName スレッド名
+     * @return 番号。一度も出力されていないスレッド名の場合は{@link #NO_NAME}
+     */
+    int threadIdOf(String threadName) {
+        return threadNames.find(threadName);
+    }
+
+    /**
+     * 条件に一致するログの位置を、古い順に取得する。
+     *
+     * @param levelMask ログレベルのマスク
+     * @param loggerId ロガー名の番号
+     * @param threadId スレッド名の番号
+     * @return 位置
+     */
+    int[] select(int levelMask, int loggerId, int threadId) {
+        final int size = size();
+        if (loggerId == NO_NAME || threadId == NO_NAME) {
+            return new int[0];
+        }
+        int[] selected = new int[Math.min(size, 16)];
+        int count = 0;
+        for (int index = 0; index < size; index++) {
+            final Chunk chunk = chunks.segmentForRead(index);
+            final int offset = SegmentedArray.offset(index);
+            chunk.awaitPublished(offset);
+            if ((levelMask & (1 << chunk.levels[offset])) == 0
+                    || (loggerId != ANY_NAME && chunk.loggers[offset] != loggerId)
+                    || (threadId != ANY_NAME && chunk.threads[offset] != threadId)) {
+                continue;
+            }
+            if (count == selected.length) {
+                selected = Arrays.copyOf(selected, Math.max(count * 2, 16));
+            }
+            selected[count++] = index;
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * ログを取得する。
+     *
+     * @param index 位置
+     * @return ログ
+     */
+    CapturedLog get(int index) {
+        final Chunk chunk = chunks.segmentForRead(index);
+        final int offset = SegmentedArray.offset(index);
+        final String message = chunk.awaitPublished(offset);
+        return new CapturedLog(LEVELS[chunk.levels[offset]], loggerNames.nameOf(chunk.loggers[offset]),
+                threadNames.nameOf(chunk.threads[offset]), chunk.timestamps[offset], message);
+    }
+
+    /**
+     * ログのメッセージを取得する。
+     *
+     * @param index 位置
+     * @return メッセージ
+     */
+    String getMessage(int index) {
+        return chunks.segmentForRead(index)
+                     .awaitPublished(SegmentedArray.offset(index));
+    }
+
+    /**
+     * 項目ごとの配列でログを保持するチャンク。
+     */
+    private static final class Chunk {
+
+        /** ログレベルの序数 */
+        private final byte[] levels;
+
+        /** ロガー名の番号 */
+        private final int[] loggers;
+
+        /** スレッド名の番号 */
+        private final int[] threads;
+
+        /** 出力日時 */
+        private final long[] timestamps;
+
+        /** メッセージ。書き込みの完了を公開する役割を兼ねる */
+        private final AtomicReferenceArray<String> messages;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param size 格納する件数
+         */
+        private Chunk(int size) {
+            levels = new byte[size];
+            loggers = new int[size];
+            threads = new int[size];
+            timestamps = new long[size];
+            messages = new AtomicReferenceArray<String>(size);
+        }
+
+        /**
+         * ログを書き込む。
+         *
+         * @param offset 位置
+         * @param level ログレベルの序数
+         * @param logger ロガー名の番号
+         * @param thread スレッド名の番号
+         * @param timestamp 出力日時
+         * @param message メッセージ
+         */
+        private void set(int offset, int level, int logger, int thread, long timestamp, String message) {
+            levels[offset] = (byte) level;
+            loggers[offset] = logger;
+            threads[offset] = thread;
+            timestamps[offset] = timestamp;
+            messages.set(offset, message);
+        }
+
+        /**
+         * 位置を予約したスレッドが書き込むまで待機する。
+         *
+         * @param offset 位置
+         * @return メッセージ
+         */
+        private String awaitPublished(int offset) {
+            String message;
+            while ((message = messages.get(offset)) == null) {
+                Thread.yield();
+            }
+            return message;
+        }
+    }
+
+    /**
+     * 名前に番号を採番するテーブル。
+     * <p>
+     * 名前の種類は少ないため、採番時のみ排他する。
+     * </p>
+     */
+    private static final class SymbolTable {
+
+        /** 名前ごとの番号 */
+        private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+        /** 番号ごとの名前 */
+        private volatile String[] names = new String[0];
+
+        /**
+         * 名前の番号を取得する。採番されていない場合は採番する。
+         *
+         * @param name 名前
+         * @return 番号
+         */
+        private int idOf(String name) {
+            final String key = name != null ? name : "";
+            final Integer id = ids.get(key);
+            return id != null ? id : register(key);
+        }
+
+        /**
+         * 名前を採番する。
+         *
+         * @param name 名前
+         * @return 番号
+         */
+        private synchronized int register(String name) {
+            final Integer id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            final String[] extended = Arrays.copyOf(names, names.length + 1);
+            extended[names.length] = name;
+            names = extended;
+            ids.put(name, names.length - 1);
+            return names.length - 1;
+        }
+
+        /**
+         * 名前の番号を検索する。
+         *
+         * @param name 名前
+         * @return 番号。採番されていない場合は{@link #NO_NAME}
+         */
+        private int find(String name) {
+            final Integer id = ids.get(name);
+            return id != null ? id : NO_NAME;
+        }
+
+        /**
+         * 番号の名前を取得する。
+         *
+         * @param id 番号
+         * @return 名前
+         */
+        private String nameOf(int id) {
+            return names[id];
+        }
+    }
+}
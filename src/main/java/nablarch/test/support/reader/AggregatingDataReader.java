@@ -1,7 +1,12 @@
 package nablarch.test.support.reader;
 
-import java.util.ArrayList;
+import java.lang.reflect.Array;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import nablarch.fw.DataReader;
 import nablarch.fw.ExecutionContext;
@@ -12,6 +17,41 @@ import nablarch.fw.ExecutionContext;
  * 既存のデータリーダから読み込んだデータを内部的にバッファリングし、
  * 一定の条件が満たされた時点でまとめて返却する。
  * </pre>
+ * <p>
+ * 返却するリストは{@link GroupChunk}であり、グループ番号とグループ内のチャンクの番号を保持する。
+ * 1グループのデータ量に上限を設ける場合は、以下のいずれかを設定する。
+ * 上限に達した後に同じグループのデータを読み込んだ時点で、それまでのデータをチャンクとして返却し、
+ * 後続のデータは同じグループ番号の次のチャンクに格納する。
+ * このため、巨大なグループも一定のメモリで段階的に処理できる。
+ * </p>
+ * <ul>
+ * <li>{@link #setMaxChunkRows(int)}:チャンクの行数の上限</li>
+ * <li>{@link #setMaxChunkBytes(long)}:チャンクの推定サイズの上限。推定サイズは{@link #estimateSize(Object)}で算出する</li>
+ * <li>{@link #setMaxChunkWaitMillis(long)}:チャンクの最初のデータを読み込んでからの経過時間の上限。
+ * 上限の判定はデータを読み込んだ時点で行うため、元となるデータリーダの読み込みを中断することはない</li>
+ * </ul>
+ * <p>
+ * {@link #setBufferPoolSize(int)}でバッファのプールを設定した場合は、
+ * 処理を終えたチャンクを{@link #release(List)}で返却することで、チャンクのバッファを再利用する。
+ * 新たに確保するバッファの容量は、読み込んだチャンクの件数の移動平均に応じて調整するため、
+ * 定常状態ではグループの区切りごとにバッファを確保することはない。
+ * </p>
+ * <p>
+ * {@link #setPrefetchSize(int)}で先読みするグループ数を設定した場合は、
+ * バックグラウンドのスレッドが元となるデータリーダからデータを読み込み、グループにまとめて上限付きのキューに格納する。
+ * 各スレッドはキューからグループ単位で取り出すため、リーダのロックを保持したまま元となるデータリーダの読み込みを待つことはない。
+ * グループの組み立てと、取り出したグループの処理が並行して行われるため、マルチスレッドで実行するバッチのスループットが向上する。
+ * </p>
+ * <p>
+ * 先読みを行う場合、元となるデータリーダは最初に{@link #read(ExecutionContext)}を呼び出したスレッドで
+ * {@link DataReader#hasNext(ExecutionContext)}を呼び出した後、バックグラウンドのスレッドから、
+ * 最初の呼び出し時の実行コンテキストを複製した実行コンテキストを使用して読み込む。
+ * {@link #handleEnd(List, ExecutionContext)}及び{@link #isInSameGroup(Object, List, ExecutionContext)}に渡される実行コンテキストも、
+ * この複製した実行コンテキストとなる。
+ * 複製した実行コンテキストはリクエストスコープを共有しないため、これらのメソッドでリクエストスコープに設定した値は、
+ * {@link #read(ExecutionContext)}の呼び出し元からは参照できない。
+ * グループに付随する情報は、取り出したグループ自体に保持すること。
+ * </p>
  * @param <D> 元となるデータリーダのデータ型
  * @author Iwauo Tajima
  */
@@ -24,7 +64,58 @@ public abstract class AggregatingDataReader<D> implements DataReader<List<D>> {
     private int bufferSize = 10;
     
     /** 同一グループに所属するデータを保持するバッファ */
-    private List<D> dataBuffer = null;
+    private GroupChunk<D> dataBuffer = null;
+
+    /** 最後に採番したグループ番号 */
+    private long lastGroupNumber = 0;
+
+    /** チャンクの行数の上限。0の場合は上限なし */
+    private int maxChunkRows = 0;
+
+    /** チャンクの推定サイズの上限(バイト)。0の場合は上限なし */
+    private long maxChunkBytes = 0;
+
+    /** チャンクの最初のデータを読み込んでからの経過時間の上限(ナノ秒)。0の場合は上限なし */
+    private long maxChunkWaitNanos = 0;
+
+    /** 返却されたバッファのプール。再利用しない場合はnull */
+    private volatile BlockingQueue<GroupChunk<D>> bufferPool = null;
+
+    /** 読み込んだチャンクの件数の移動平均 */
+    private double averageChunkSize = -1;
+
+    /** 新たに確保するバッファの容量 */
+    private volatile int adaptiveCapacity = 10;
+
+    /** 先読みするグループ数。0の場合は先読みしない */
+    private int prefetchSize = 0;
+
+    /** 先読みを行うオブジェクト */
+    private volatile Prefetcher prefetcher = null;
+
+    /** 先読みを行うスレッドの番号 */
+    private static final AtomicInteger PREFETCH_THREAD_NUMBER = new AtomicInteger();
+
+    /** 元となるデータリーダの終端を表すキューの要素 */
+    private static final Object END_OF_DATA = new Object();
+
+    /** オブジェクト1つあたりの推定サイズ(バイト) */
+    private static final long OBJECT_OVERHEAD_BYTES = 16;
+
+    /** 移動平均の平滑化係数 */
+    private static final double CHUNK_SIZE_SMOOTHING = 0.125;
+
+    /** 移動平均に対して確保する容量の余裕 */
+    private static final double CAPACITY_HEADROOM = 1.25;
+
+    /** プールに戻すバッファの件数の上限(確保する容量に対する倍率) */
+    private static final int MAX_POOLED_CAPACITY_RATIO = 4;
+
+    /** {@link Map}1つあたりの推定サイズ(バイト) */
+    private static final long MAP_OVERHEAD_BYTES = 64;
+
+    /** {@link Map}のエントリ1つあたりの推定サイズ(バイト) */
+    private static final long MAP_ENTRY_OVERHEAD_BYTES = 32;
 
     /** 
      * データを保持するバッファの初期サイズを設定する。
@@ -33,6 +124,115 @@ public abstract class AggregatingDataReader<D> implements DataReader<List<D>> {
      */
     public synchronized AggregatingDataReader<D> setBufferSize(int bufferSize) {
         this.bufferSize = bufferSize;
+        adaptiveCapacity = Math.max(bufferSize, 1);
+        return this;
+    }
+
+    /**
+     * 返却されたバッファを保持するプールの大きさを設定する。
+     * <p>
+     * 1以上を設定した場合、{@link #release(List)}で返却されたチャンクを、設定した数まで保持して再利用する。
+     * 0を設定した場合は再利用しない(デフォルト)。
+     * </p>
+     * @param bufferPoolSize プールの大きさ
+     * @return このオブジェクト自体
+     */
+    public synchronized AggregatingDataReader<D> setBufferPoolSize(int bufferPoolSize) {
+        if (bufferPoolSize < 0) {
+            throw new IllegalArgumentException("buffer pool size was invalid. buffer pool size must not be negative.");
+        }
+        bufferPool = bufferPoolSize > 0 ? new ArrayBlockingQueue<GroupChunk<D>>(bufferPoolSize) : null;
+        return this;
+    }
+
+    /**
+     * 処理を終えたチャンクを返却し、バッファを再利用できるようにする。
+     * <p>
+     * 返却したチャンクは、以降に読み込むデータの格納に使用されるため、返却後に参照してはならない。
+     * プールが一杯の場合、またはチャンクの件数が通常より極端に多い場合は、再利用せずに破棄する。
+     * バッファのプールを設定していない場合は何もしない。
+     * </p>
+     * @param data {@link #read(ExecutionContext)}が返却したリスト
+     * @throws IllegalStateException 既に返却済みの場合
+     */
+    public void release(List<D> data) {
+        final BlockingQueue<GroupChunk<D>> pool = bufferPool;
+        if (pool == null || data == null) {
+            return;
+        }
+        final GroupChunk<D> chunk = GroupChunk.of(data);
+        if (!chunk.markReleased()) {
+            throw new IllegalStateException("chunk was already released.");
+        }
+        if (chunk.size() > adaptiveCapacity * MAX_POOLED_CAPACITY_RATIO) {
+            // 巨大なグループのバッファを保持し続けないよう、破棄する
+            return;
+        }
+        chunk.clear();
+        pool.offer(chunk);
+    }
+
+    /**
+     * チャンクの行数の上限を設定する。
+     * @param maxChunkRows 行数の上限。0の場合は上限なし(デフォルト)
+     * @return このオブジェクト自体
+     */
+    public synchronized AggregatingDataReader<D> setMaxChunkRows(int maxChunkRows) {
+        if (maxChunkRows < 0) {
+            throw new IllegalArgumentException("max chunk rows was invalid. max chunk rows must not be negative.");
+        }
+        this.maxChunkRows = maxChunkRows;
+        return this;
+    }
+
+    /**
+     * チャンクの推定サイズの上限を設定する。
+     * <p>
+     * 1件のデータが上限を超える場合でも、チャンクには少なくとも1件のデータを格納する。
+     * </p>
+     * @param maxChunkBytes 推定サイズの上限(バイト)。0の場合は上限なし(デフォルト)
+     * @return このオブジェクト自体
+     */
+    public synchronized AggregatingDataReader<D> setMaxChunkBytes(long maxChunkBytes) {
+        if (maxChunkBytes < 0) {
+            throw new IllegalArgumentException("max chunk bytes was invalid. max chunk bytes must not be negative.");
+        }
+        this.maxChunkBytes = maxChunkBytes;
+        return this;
+    }
+
+    /**
+     * チャンクの最初のデータを読み込んでからの経過時間の上限を設定する。
+     * @param maxChunkWaitMillis 経過時間の上限(ミリ秒)。0の場合は上限なし(デフォルト)
+     * @return このオブジェクト自体
+     */
+    public synchronized AggregatingDataReader<D> setMaxChunkWaitMillis(long maxChunkWaitMillis) {
+        if (maxChunkWaitMillis < 0) {
+            throw new IllegalArgumentException("max chunk wait was invalid. max chunk wait must not be negative.");
+        }
+        this.maxChunkWaitNanos = maxChunkWaitMillis * 1000000L;
+        return this;
+    }
+
+    /**
+     * 先読みするグループ数を設定する。
+     * <p>
+     * 1以上を設定した場合、バックグラウンドのスレッドで元となるデータリーダを先読みし、
+     * 設定した数までのグループをキューに保持する。
+     * 0を設定した場合は先読みしない(デフォルト)。
+     * 読み込みを開始した後に変更しても、先読みの有無は変わらない。
+     * </p>
+     * <p>
+     * 先読みを行う場合、読み込み中にリクエストスコープに設定した値は呼び出し元の実行コンテキストには設定されない。
+     * </p>
+     * @param prefetchSize 先読みするグループ数
+     * @return このオブジェクト自体
+     */
+    public synchronized AggregatingDataReader<D> setPrefetchSize(int prefetchSize) {
+        if (prefetchSize < 0) {
+            throw new IllegalArgumentException("prefetch size was invalid. prefetch size must not be negative.");
+        }
+        this.prefetchSize = prefetchSize;
         return this;
     }
     
@@ -47,39 +247,192 @@ public abstract class AggregatingDataReader<D> implements DataReader<List<D>> {
             throw new IllegalArgumentException(
                     "source data reader was not set. source data reader must be set before reading.");
         }
-        List<D> result = null;
-        D newData = null;
+        final Prefetcher current = prefetcher(ctx);
+        if (current != null) {
+            return current.take();
+        }
         synchronized (this) {
-            if (bufferSize < 0) {
-                throw new IllegalArgumentException("buffer size was invalid. buffer size must be bigger than 0.");
-            }
-            while (hasNext(ctx)) {
-                newData = getSourceDataReader().read(ctx);
-                if (newData == null) {
-                    // エンドレコードに到達した場合、バッファを結果として返却し、ループを抜ける
-                    handleEnd(dataBuffer, ctx);
-                    result = dataBuffer;
-                    dataBuffer = null;
-                    break;
-                }
-                if (dataBuffer == null) {
-                    dataBuffer = new ArrayList<D>(bufferSize);
+            return readGroup(ctx);
+        }
+    }
+
+    /**
+     * 元となるデータリーダからデータを読み込み、1グループ分のデータを返却する。
+     * <p>
+     * 呼び出し元でこのオブジェクトのロックを取得していること。
+     * </p>
+     * @param ctx 実行コンテキスト
+     * @return 入力データオブジェクトのリスト。読み込むデータが存在しない場合はnull
+     */
+    private List<D> readGroup(ExecutionContext ctx) {
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("buffer size was invalid. buffer size must be bigger than 0.");
+        }
+        GroupChunk<D> result = null;
+        D newData = null;
+        while (hasNextInSource(ctx)) {
+            newData = getSourceDataReader().read(ctx);
+            if (newData == null) {
+                // エンドレコードに到達した場合、バッファを結果として返却し、ループを抜ける
+                handleEnd(dataBuffer, ctx);
+                result = dataBuffer;
+                if (result != null) {
+                    result.markLast();
                 }
-                if (dataBuffer.isEmpty() || isInSameGroup(newData, dataBuffer, ctx)) {
-                    dataBuffer.add(newData);
+                dataBuffer = null;
+                break;
+            }
+            if (dataBuffer == null) {
+                dataBuffer = newChunk(++lastGroupNumber, 0);
+            }
+            final long bytes = maxChunkBytes > 0 ? estimateSize(newData) : 0;
+            final long now = maxChunkWaitNanos > 0 ? System.nanoTime() : 0;
+            if (dataBuffer.isEmpty()) {
+                dataBuffer.append(newData, bytes, now);
+                continue;
+            }
+            if (isInSameGroup(newData, dataBuffer, ctx)) {
+                if (!exceedsChunkLimit(dataBuffer, bytes, now)) {
+                    dataBuffer.append(newData, bytes, now);
                     continue;
-                } else {
-                    // 前に読み込んだレコードと、新しく読み込んだレコードが同一グループでない場合、ループを抜ける
-                    result = dataBuffer;
-                    dataBuffer = new ArrayList<D>(bufferSize);
-                    dataBuffer.add(newData);
-                    break;
                 }
+                // チャンクの上限に達した場合、同じグループの次のチャンクに格納し、ループを抜ける
+                result = dataBuffer;
+                dataBuffer = newChunk(result.getGroupNumber(), result.getChunkNumber() + 1);
+                dataBuffer.append(newData, bytes, now);
+                break;
+            } else {
+                // 前に読み込んだレコードと、新しく読み込んだレコードが同一グループでない場合、ループを抜ける
+                result = dataBuffer;
+                result.markLast();
+                dataBuffer = newChunk(++lastGroupNumber, 0);
+                dataBuffer.append(newData, bytes, now);
+                break;
             }
         }
+        if (result != null && bufferPool != null) {
+            adaptCapacity(result.size());
+        }
         return result;
     }
 
+    /**
+     * チャンクを取得する。再利用できるバッファがプールにある場合は再利用する。
+     * @param groupNumber グループ番号
+     * @param chunkNumber グループ内のチャンクの番号
+     * @return チャンク
+     */
+    private GroupChunk<D> newChunk(long groupNumber, int chunkNumber) {
+        final BlockingQueue<GroupChunk<D>> pool = bufferPool;
+        if (pool == null) {
+            return new GroupChunk<D>(bufferSize, groupNumber, chunkNumber);
+        }
+        final GroupChunk<D> pooled = pool.poll();
+        if (pooled == null) {
+            return new GroupChunk<D>(adaptiveCapacity, groupNumber, chunkNumber);
+        }
+        pooled.reset(adaptiveCapacity, groupNumber, chunkNumber);
+        return pooled;
+    }
+
+    /**
+     * 読み込んだチャンクの件数から、新たに確保するバッファの容量を調整する。
+     * @param chunkSize 読み込んだチャンクの件数
+     */
+    private void adaptCapacity(int chunkSize) {
+        averageChunkSize = averageChunkSize < 0
+                ? chunkSize
+                : averageChunkSize + (chunkSize - averageChunkSize) * CHUNK_SIZE_SMOOTHING;
+        adaptiveCapacity = Math.max((int) Math.ceil(averageChunkSize * CAPACITY_HEADROOM), 1);
+    }
+
+    /**
+     * データを追加するとチャンクの上限を超えるかどうかを判定する。
+     * @param chunk チャンク
+     * @param bytes 追加するデータの推定サイズ
+     * @param now 現在時刻
+     * @return 上限を超える場合はtrue
+     */
+    private boolean exceedsChunkLimit(GroupChunk<D> chunk, long bytes, long now) {
+        if (maxChunkRows > 0 && chunk.size() >= maxChunkRows) {
+            return true;
+        }
+        if (maxChunkBytes > 0 && chunk.getEstimatedBytes() + bytes > maxChunkBytes) {
+            return true;
+        }
+        return maxChunkWaitNanos > 0 && now - chunk.getStartNanos() >= maxChunkWaitNanos;
+    }
+
+    /**
+     * データの推定サイズを算出する。
+     * <p>
+     * {@link #setMaxChunkBytes(long)}を設定した場合のみ呼び出される。
+     * 本クラスの実装では、{@link Map}の場合はキーと値の推定サイズの合計を、
+     * それ以外の場合はオブジェクトの推定サイズを返す。
+     * 文字列は1文字を2バイト、配列は要素数に応じたサイズとして推定する。
+     * より正確なサイズが必要な場合はサブクラスでオーバーライドすること。
+     * </p>
+     * @param data データ
+     * @return 推定サイズ(バイト)
+     */
+    protected long estimateSize(D data) {
+        if (!(data instanceof Map)) {
+            return estimateValueSize(data);
+        }
+        long size = MAP_OVERHEAD_BYTES;
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) data).entrySet()) {
+            size += MAP_ENTRY_OVERHEAD_BYTES + estimateValueSize(entry.getKey()) + estimateValueSize(entry.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * 値の推定サイズを算出する。
+     * @param value 値
+     * @return 推定サイズ(バイト)
+     */
+    private static long estimateValueSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CharSequence) {
+            return OBJECT_OVERHEAD_BYTES + 2L * ((CharSequence) value).length();
+        }
+        if (value instanceof byte[]) {
+            return OBJECT_OVERHEAD_BYTES + ((byte[]) value).length;
+        }
+        if (value.getClass().isArray()) {
+            return OBJECT_OVERHEAD_BYTES + 8L * Array.getLength(value);
+        }
+        if (value instanceof Collection) {
+            return OBJECT_OVERHEAD_BYTES + 8L * ((Collection<?>) value).size();
+        }
+        return OBJECT_OVERHEAD_BYTES;
+    }
+
+    /**
+     * 先読みを行うオブジェクトを取得する。先読みを行う設定で、開始していない場合は開始する。
+     * @param ctx 実行コンテキスト
+     * @return 先読みを行うオブジェクト。先読みしない場合はnull
+     */
+    private Prefetcher prefetcher(ExecutionContext ctx) {
+        final Prefetcher current = prefetcher;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (prefetcher == null && prefetchSize > 0) {
+                // スレッドに紐付くリソースを使用するデータリーダのため、読み込みの準備は呼び出し元のスレッドで行う
+                getSourceDataReader().hasNext(ctx);
+                // 呼び出し元のスレッドが使用中のリクエストスコープに、先読みを行うスレッドから書き込まないよう、
+                // リクエストスコープを共有しない複製を使用する
+                prefetcher = new Prefetcher(new ExecutionContext(ctx), prefetchSize);
+                prefetcher.start();
+            }
+            return prefetcher;
+        }
+    }
+
     /**
      * エンドレコードに到達した場合に処理を実行する。
      * <p>
@@ -98,7 +451,22 @@ public abstract class AggregatingDataReader<D> implements DataReader<List<D>> {
      * @param ctx {@inheritDoc}
      * @return 元となるデータリーダの次に読み込むデータがまだ残っている場合はtrue
      */
-    public synchronized boolean hasNext(ExecutionContext ctx) {
+    public boolean hasNext(ExecutionContext ctx) {
+        final Prefetcher current = prefetcher;
+        if (current != null) {
+            return current.hasNext();
+        }
+        synchronized (this) {
+            return hasNextInSource(ctx);
+        }
+    }
+
+    /**
+     * バッファリングしているデータ、または元となるデータリーダの次に読み込むデータが存在するかどうかを返却する。
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むデータがまだ残っている場合はtrue
+     */
+    private boolean hasNextInSource(ExecutionContext ctx) {
         if (dataBuffer != null && !dataBuffer.isEmpty()) {
             return true;
         }
@@ -106,13 +474,19 @@ public abstract class AggregatingDataReader<D> implements DataReader<List<D>> {
     }
     
     /** {@inheritDoc}
-     * この実装では、内部的に保持しているリーダを閉じる。
+     * この実装では、先読みを停止した後、内部的に保持しているリーダを閉じる。
      */
-    public synchronized void close(ExecutionContext ctx) {
-        if (getSourceDataReader() == null) {
-            return;
+    public void close(ExecutionContext ctx) {
+        final Prefetcher current = prefetcher;
+        if (current != null) {
+            current.stop();
+        }
+        synchronized (this) {
+            if (getSourceDataReader() == null) {
+                return;
+            }
+            getSourceDataReader().close(ctx);
         }
-        getSourceDataReader().close(ctx);
     }
 
     /**
@@ -145,4 +519,136 @@ public abstract class AggregatingDataReader<D> implements DataReader<List<D>> {
     protected abstract boolean isInSameGroup(D newData, List<D> dataBuffer,
             ExecutionContext ctx);
     
+
+    /**
+     * バックグラウンドのスレッドで元となるデータリーダを先読みし、グループをキューに格納するクラス。
+     * <p>
+     * 元となるデータリーダの終端に達した場合、または読み込みで例外が発生した場合は、
+     * 終端を表す要素または例外をキューに格納する。
+     * これらの要素は取り出したスレッドがキューに戻すため、全てのスレッドが同じ結果を受け取る。
+     * 先読みを停止した場合は、未取り出しのグループを破棄して終端を表す要素を格納するため、
+     * 取り出しを待機しているスレッドは終端に達したものとして復帰する。
+     * </p>
+     */
+    private final class Prefetcher implements Runnable {
+
+        /** 先読みしたグループ */
+        private final BlockingQueue<Object> queue;
+
+        /** 読み込みに使用する実行コンテキスト(先読みを行うスレッド専用) */
+        private final ExecutionContext ctx;
+
+        /** 先読みを行うスレッド */
+        private final Thread thread;
+
+        /** 停止が要求されたか否か */
+        private volatile boolean stopped = false;
+
+        /**
+         * コンストラクタ。
+         * @param ctx 読み込みに使用する実行コンテキスト。他のスレッドと共有しないこと
+         * @param capacity 先読みするグループ数
+         */
+        private Prefetcher(ExecutionContext ctx, int capacity) {
+            this.ctx = ctx;
+            queue = new ArrayBlockingQueue<Object>(capacity);
+            thread = new Thread(this, "aggregating-reader-prefetch-" + PREFETCH_THREAD_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+        }
+
+        /**
+         * 先読みを開始する。
+         */
+        private void start() {
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            Object last = END_OF_DATA;
+            try {
+                while (!stopped) {
+                    final List<D> group;
+                    synchronized (AggregatingDataReader.this) {
+                        group = readGroup(ctx);
+                    }
+                    if (group == null) {
+                        break;
+                    }
+                    queue.put(group);
+                }
+            } catch (InterruptedException e) {
+                // 停止が要求された
+                return;
+            } catch (RuntimeException e) {
+                last = e;
+            } catch (Error e) {
+                last = e;
+            }
+            if (stopped) {
+                return;
+            }
+            try {
+                queue.put(last);
+            } catch (InterruptedException ignore) {
+                // 停止が要求された
+            }
+        }
+
+        /**
+         * 先読みしたグループを取り出す。先読みが完了していない場合は待機する。
+         * @return グループ。元となるデータリーダの終端に達した場合はnull
+         */
+        @SuppressWarnings("unchecked")
+        private List<D> take() {
+            final Object element;
+            try {
+                element = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for prefetched data.", e);
+            }
+            if (element instanceof List) {
+                return (List<D>) element;
+            }
+            // 他のスレッドも同じ結果を受け取れるよう、キューに戻す
+            queue.offer(element);
+            if (element instanceof RuntimeException) {
+                throw (RuntimeException) element;
+            }
+            if (element instanceof Error) {
+                throw (Error) element;
+            }
+            return null;
+        }
+
+        /**
+         * 次に取り出すグループが存在するかどうかを返却する。
+         * <p>
+         * 先読み中でキューが空の場合はtrueを返す。
+         * </p>
+         * @return 元となるデータリーダの終端に達し、全てのグループを取り出した場合はfalse
+         */
+        private boolean hasNext() {
+            return queue.peek() != END_OF_DATA;
+        }
+
+        /**
+         * 先読みを停止し、スレッドの終了を待機する。
+         * <p>
+         * 取り出しを待機しているスレッドが復帰できるよう、未取り出しのグループを破棄して終端を表す要素を格納する。
+         * </p>
+         */
+        private void stop() {
+            stopped = true;
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.clear();
+            queue.offer(END_OF_DATA);
+        }
+    }
 }
@@ -0,0 +1,154 @@
+package nablarch.test.support.reader;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link ControlBreakReader}で発生したコントロールブレイク。
+ * <p>
+ * 監視対象のキーは、設定した順に上位の階層(階層0が最上位)となる。
+ * ある階層のキーの値が変化した場合、その階層及び下位の全ての階層のグループが終了する。
+ * 本クラスは、終了した最上位の階層と、全ての階層のブレイクする前の値及び集計値を保持する。
+ * エンドレコードに到達した場合は、全ての階層のグループが終了したものとする。
+ * </p>
+ */
+public final class ControlBreak {
+
+    /** 監視対象のキー */
+    private final String[] keys;
+
+    /** 全ての階層のブレイクする前の値 */
+    private final Object[] previousValues;
+
+    /** グループが終了した最上位の階層 */
+    private final int level;
+
+    /** エンドレコードに到達したか否か */
+    private final boolean end;
+
+    /** 終了した階層の集計値。集計しない場合はnull */
+    private final Object[] subtotals;
+
+    /**
+     * コンストラクタ。
+     * @param keys 監視対象のキー
+     * @param previousValues 全ての階層のブレイクする前の値
+     * @param level グループが終了した最上位の階層
+     * @param end エンドレコードに到達したか否か
+     * @param subtotals 終了した階層の集計値
+     */
+    ControlBreak(String[] keys, Object[] previousValues, int level, boolean end, Object[] subtotals) {
+        this.keys = keys;
+        this.previousValues = previousValues;
+        this.level = level;
+        this.end = end;
+        this.subtotals = subtotals;
+    }
+
+    /**
+     * グループが終了した最上位の階層を取得する。
+     * @return 階層。エンドレコードに到達した場合は0
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * 値が変化したキーのうち、最上位のキーを取得する。
+     * @return キー。エンドレコードに到達した場合は最上位のキー
+     */
+    public String getBreakKey() {
+        return keys[level];
+    }
+
+    /**
+     * エンドレコードに到達したか否か。
+     * @return エンドレコードに到達した場合はtrue
+     */
+    public boolean isEnd() {
+        return end;
+    }
+
+    /**
+     * 階層のグループが終了したか否か。
+     * @param level 階層
+     * @return 終了した場合はtrue
+     */
+    public boolean isBroken(int level) {
+        return level >= this.level && level < keys.length;
+    }
+
+    /**
+     * キーの階層のグループが終了したか否か。
+     * @param key 監視対象のキー
+     * @return 終了した場合はtrue
+     */
+    public boolean isBroken(String key) {
+        return isBroken(levelOf(key));
+    }
+
+    /**
+     * 全ての階層のブレイクする前の値を取得する。
+     * @return 監視対象のキーを上位の階層から順に並べた、キーと値のマップ
+     */
+    public Map<String, Object> getPreviousValues() {
+        final Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keys.length; i++) {
+            values.put(keys[i], previousValues[i]);
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * キーのブレイクする前の値を取得する。
+     * @param key 監視対象のキー
+     * @return ブレイクする前の値
+     */
+    public Object getPreviousValue(String key) {
+        return previousValues[levelOf(key)];
+    }
+
+    /**
+     * 終了した階層の集計値を取得する。
+     * @param <T> 集計値の型
+     * @param level 階層
+     * @return 集計値。グループが終了していない階層の場合、または集計しない場合はnull
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getSubtotal(int level) {
+        if (subtotals == null || !isBroken(level)) {
+            return null;
+        }
+        return (T) subtotals[level];
+    }
+
+    /**
+     * 終了したキーの階層の集計値を取得する。
+     * @param <T> 集計値の型
+     * @param key 監視対象のキー
+     * @return 集計値。グループが終了していない階層の場合、または集計しない場合はnull
+     */
+    public <T> T getSubtotal(String key) {
+        return this.<T>getSubtotal(levelOf(key));
+    }
+
+    /**
+     * キーの階層を取得する。
+     * @param key 監視対象のキー
+     * @return 階層
+     */
+    private int levelOf(String key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("key was not watched. key = " + key);
+    }
+
+    @Override
+    public String toString() {
+        return "ControlBreak{level=" + level + ", end=" + end + ", previousValues=" + getPreviousValues() + "}";
+    }
+}
@@ -0,0 +1,48 @@
+package nablarch.test.support.reader;
+
+/**
+ * {@link ControlBreakReader}がデータを読み込みながら、監視対象のキーの階層ごとに集計を行うインタフェース。
+ * <p>
+ * 監視対象のキーは、設定した順に上位の階層となる。
+ * 例えば{@code setWatchedKeys("region", "branch", "account")}の場合、
+ * 階層0が地域、階層1が支店、階層2が口座ごとの集計となる。
+ * </p>
+ * <p>
+ * 読み込んだデータは、全ての階層の集計値に1回ずつ加算される。
+ * ある階層でコントロールブレイクが発生した場合、その階層及び下位の階層の集計値は{@link ControlBreak}に格納された後、
+ * {@link #initialValue(int)}で初期化される。
+ * このため、グループを再度走査せずに、全ての階層の小計を1回の読み込みで求めることができる。
+ * </p>
+ * <pre>
+ * {@code
+ * reader.setAggregator(new ControlBreakAggregator<SqlRow, BigDecimal>() {
+ *     public BigDecimal initialValue(int level) {
+ *         return BigDecimal.ZERO;
+ *     }
+ *     public BigDecimal accumulate(BigDecimal subtotal, SqlRow data, int level) {
+ *         return subtotal.add(data.getBigDecimal("amount"));
+ *     }
+ * });
+ * }
+ * </pre>
+ * @param <D> データの型
+ * @param <T> 集計値の型
+ */
+public interface ControlBreakAggregator<D, T> {
+
+    /**
+     * 集計値の初期値を取得する。
+     * @param level 階層
+     * @return 初期値
+     */
+    T initialValue(int level);
+
+    /**
+     * 集計値にデータを加算する。
+     * @param subtotal 現在の集計値
+     * @param data 読み込んだデータ
+     * @param level 階層
+     * @return 加算後の集計値
+     */
+    T accumulate(T subtotal, D data, int level);
+}
@@ -16,6 +16,21 @@ import nablarch.fw.ExecutionContext;
  * 変更が発生した時点でバッファリングしていたデータをまとめて返す。
  * </p>
  * <p>
+ * 監視対象のキーは最初のデータで解決し、以降は前回のデータのキーの値をキャッシュして比較する。
+ * このため、データ1件あたりの{@link Map#get(Object)}の呼び出しは監視対象のキーごとに1回となり、
+ * {@link nablarch.core.db.statement.SqlRow}の場合もキーの表記の変換は行わない。
+ * </p>
+ * <p>
+ * 監視対象のキーは、設定した順に上位の階層となる。
+ * コントロールブレイクが発生した場合、及びエンドレコードに到達した場合は、
+ * グループが終了した最上位の階層と全ての階層のブレイクする前の値を{@link ControlBreak}として、
+ * 終了したグループのチャンク({@link GroupChunk#getControlBreak()})及びリクエストスコープ({@link #getControlBreak(ExecutionContext)})に設定する。
+ * ただし、先読みを行う場合({@link #setPrefetchSize(int)})は、先読みを行うスレッドの実行コンテキストのリクエストスコープに設定するため、
+ * 呼び出し元の実行コンテキストからは参照できない。
+ * {@link #setAggregator(ControlBreakAggregator)}で集計処理を設定した場合は、読み込みながら階層ごとに集計し、
+ * 終了した階層の集計値を{@link ControlBreak}に設定する。
+ * </p>
+ * <p>
  * 本クラスのパラメータ{@code <D>}には、元となるデータリーダのデータの型を指定すること。
  * </p>
  *
@@ -47,8 +62,38 @@ extends AggregatingDataReader<D> {
     /** ブレイクキーに対応する値（ブレイクする前の値）を、リクエストスコープから取得するためのキー */
     private static final String PREVIOUS_VALUE = REQUEST_SCOPE_KEY_PREFIX + "previousValue";
 
+    /** 発生したコントロールブレイクを、リクエストスコープに格納するキー */
+    private static final String CONTROL_BREAK = REQUEST_SCOPE_KEY_PREFIX + "controlBreak";
+
     /** 値の変更を監視するキー */
     private String[] watchedKeys = null;
+
+    /** 階層ごとの集計処理。集計しない場合はnull */
+    private ControlBreakAggregator<? super D, Object> aggregator = null;
+
+    /** 階層ごとの集計値 */
+    private Object[] subtotals = null;
+
+    /** 最後に集計したデータ */
+    private Object lastAccumulated = null;
+
+    /** 監視対象のキーの値を取り出す抽出器。最初のデータで作成する */
+    private GroupKeyExtractor keyExtractor = null;
+
+    /** キーの値をキャッシュしているデータ */
+    private Object previousData = null;
+
+    /** 前回のデータのキーの値 */
+    private Object[] previousKey = null;
+
+    /** 前回のデータのキーの値が{@link Long}の場合の値 */
+    private long[] previousLongKey = null;
+
+    /** 前回のデータのキーの値が{@link Long}か否か */
+    private boolean[] previousKeyIsLong = null;
+
+    /** 新たに読み込んだデータのキーの値 */
+    private Object[] newKey = null;
     
     /**
      * {@inheritDoc}
@@ -62,23 +107,150 @@ extends AggregatingDataReader<D> {
     protected boolean isInSameGroup(D newData, List<D> dataBuffer,
             ExecutionContext ctx) {
         D prevData = dataBuffer.get(dataBuffer.size() - 1);
+        prepare(prevData);
+
+        int breakIndex = -1;
+        for (int i = 0; i < keyExtractor.size(); i++) {
+            final Object newValue = keyExtractor.extract(newData, i);
+            newKey[i] = newValue;
+            if (breakIndex < 0 && !isSameValue(i, newValue)) {
+                breakIndex = i;
+            }
+        }
+        if (breakIndex < 0) {
+            cacheKey(newData);
+            accumulate(newData);
+            return true;
+        }
+        // 前回のデータのキーの値をキャッシュから追い出す前に、コントロールブレイクを作成する
+        final ControlBreak controlBreak = new ControlBreak(watchedKeys, previousKey.clone(), breakIndex, false,
+                completeSubtotals(breakIndex));
+        cacheKey(newData);
+        notifyControlBreak(controlBreak, dataBuffer, ctx);
+        handleBreak(watchedKeys[breakIndex], ctx, prevData, newData);
+        accumulate(newData);
+        return false;
+    }
+
+    /**
+     * 前回のデータのキーの値をキャッシュし、集計する。
+     * <p>
+     * 最初のデータの場合は、監視対象のキーを解決する。
+     * </p>
+     * @param prevData 前回のデータ
+     */
+    private void prepare(D prevData) {
+        if (keyExtractor == null) {
+            keyExtractor = GroupKeyExtractor.compile(watchedKeys, prevData);
+            previousKey = new Object[watchedKeys.length];
+            previousLongKey = new long[watchedKeys.length];
+            previousKeyIsLong = new boolean[watchedKeys.length];
+            newKey = new Object[watchedKeys.length];
+        }
+        if (previousData != prevData) {
+            // キャッシュが前回のデータのものでない場合(最初のデータ等)は取り出し直す
+            keyExtractor.extractAll(prevData, newKey);
+            cacheKey(prevData);
+        }
+        accumulate(prevData);
+    }
+
+    /**
+     * データを全ての階層の集計値に加算する。
+     * <p>
+     * 同じデータを2回加算しないよう、最後に加算したデータは加算しない。
+     * </p>
+     * @param data データ
+     */
+    private void accumulate(D data) {
+        if (aggregator == null || data == lastAccumulated) {
+            return;
+        }
+        if (subtotals == null) {
+            subtotals = new Object[watchedKeys.length];
+            for (int i = 0; i < subtotals.length; i++) {
+                subtotals[i] = aggregator.initialValue(i);
+            }
+        }
+        for (int i = 0; i < subtotals.length; i++) {
+            subtotals[i] = aggregator.accumulate(subtotals[i], data, i);
+        }
+        lastAccumulated = data;
+    }
+
+    /**
+     * 終了した階層の集計値を取り出し、初期化する。
+     * @param level グループが終了した最上位の階層
+     * @return 階層ごとの集計値。集計しない場合はnull
+     */
+    private Object[] completeSubtotals(int level) {
+        if (aggregator == null || subtotals == null) {
+            return null;
+        }
+        final Object[] completed = new Object[subtotals.length];
+        for (int i = level; i < subtotals.length; i++) {
+            completed[i] = subtotals[i];
+            subtotals[i] = aggregator.initialValue(i);
+        }
+        return completed;
+    }
+
+    /**
+     * コントロールブレイクを、終了したグループのチャンク及びリクエストスコープに設定する。
+     * @param controlBreak コントロールブレイク
+     * @param dataBuffer 終了したグループのデータ
+     * @param ctx 実行コンテキスト
+     */
+    private void notifyControlBreak(ControlBreak controlBreak, List<D> dataBuffer, ExecutionContext ctx) {
+        if (dataBuffer instanceof GroupChunk) {
+            ((GroupChunk<D>) dataBuffer).setControlBreak(controlBreak);
+        }
+        ctx.setRequestScopedVar(CONTROL_BREAK, controlBreak);
+    }
 
-        for (String watchedKey : watchedKeys) {
-            Object prevValue = prevData.get(watchedKey);
-            Object newValue = newData.get(watchedKey);
-            if (prevValue == null) {
-                if (newValue != null) {
-                    handleBreak(watchedKey, ctx, prevData, newData);
-                    return false;
-                }
-            } else {
-                if (!prevValue.equals(newValue)) {
-                    handleBreak(watchedKey, ctx, prevData, newData);
-                    return false;
-                }
+    /**
+     * 新たに読み込んだデータのキーの値を、前回のデータのキーの値としてキャッシュする。
+     * @param data キーの値を取り出したデータ
+     */
+    private void cacheKey(Object data) {
+        final Object[] swap = previousKey;
+        previousKey = newKey;
+        newKey = swap;
+        for (int i = 0; i < previousKey.length; i++) {
+            final Object value = previousKey[i];
+            previousKeyIsLong[i] = value != null && value.getClass() == Long.class;
+            if (previousKeyIsLong[i]) {
+                previousLongKey[i] = (Long) value;
             }
         }
-        return true;
+        previousData = data;
+    }
+
+    /**
+     * キーの値が前回のデータと同じかどうかを判定する。
+     * <p>
+     * {@link Long}及び{@link String}の場合は、型を確認済みの値で比較する。
+     * </p>
+     * @param index キーの位置
+     * @param newValue 新たに読み込んだデータのキーの値
+     * @return 同じ場合はtrue
+     */
+    private boolean isSameValue(int index, Object newValue) {
+        if (previousKeyIsLong[index]) {
+            return newValue != null && newValue.getClass() == Long.class
+                    && (Long) newValue == previousLongKey[index];
+        }
+        final Object prevValue = previousKey[index];
+        if (prevValue == newValue) {
+            return true;
+        }
+        if (prevValue == null) {
+            return false;
+        }
+        if (prevValue instanceof String) {
+            return newValue instanceof String && ((String) prevValue).equals(newValue);
+        }
+        return prevValue.equals(newValue);
     }
 
     
@@ -104,6 +276,7 @@ extends AggregatingDataReader<D> {
     /**
      * エンドレコードに到達した場合、監視キーおよび値をリクエストスコープへ設定する。
      * 監視キーが複数ある場合は、配列の最初に設定された監視キーに対応する値を設定する。
+     * また、全ての階層のグループが終了したものとして、{@link ControlBreak}を設定する。
      * @param dataBuffer {@inheritDoc}
      * @param ctx {@inheritDoc}
      */
@@ -111,6 +284,9 @@ extends AggregatingDataReader<D> {
     protected void handleEnd(List<D> dataBuffer, ExecutionContext ctx) {
         D prevData = dataBuffer.get(dataBuffer.size() - 1);
         ctx.setRequestScopedVar(PREVIOUS_VALUE, prevData.get(watchedKeys[0]));
+        prepare(prevData);
+        notifyControlBreak(new ControlBreak(watchedKeys, previousKey.clone(), 0, true, completeSubtotals(0)),
+                dataBuffer, ctx);
     }
     
     /**
@@ -124,8 +300,28 @@ extends AggregatingDataReader<D> {
      * @param watchedKeys 値の変更を監視するキーのリスト
      * @return このオブジェクト自体
      */
-    public ControlBreakReader<D> setWatchedKeys(String... watchedKeys) {
+    public synchronized ControlBreakReader<D> setWatchedKeys(String... watchedKeys) {
         this.watchedKeys = watchedKeys;
+        keyExtractor = null;
+        previousData = null;
+        subtotals = null;
+        lastAccumulated = null;
+        return this;
+    }
+
+    /**
+     * 階層ごとの集計処理を設定する。
+     * <p>
+     * 読み込んだデータは、読み込んだ時点で全ての階層の集計値に加算される。
+     * </p>
+     * @param aggregator 集計処理
+     * @return このオブジェクト自体
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized ControlBreakReader<D> setAggregator(ControlBreakAggregator<? super D, ?> aggregator) {
+        this.aggregator = (ControlBreakAggregator<? super D, Object>) aggregator;
+        subtotals = null;
+        lastAccumulated = null;
         return this;
     }
     
@@ -138,6 +334,28 @@ extends AggregatingDataReader<D> {
         return ctx.getRequestScopedVar(BREAK_KEY);
     }
     
+    /**
+     * 直近に発生したコントロールブレイクを取得する。
+     * <p>
+     * 先読みを行う場合、コントロールブレイクは呼び出し元の実行コンテキストのリクエストスコープには設定されないため、
+     * {@link #getControlBreak(List)}でグループのデータから取得すること。
+     * </p>
+     * @param ctx 実行コンテキスト
+     * @return コントロールブレイク。発生していない場合はnull
+     */
+    public static ControlBreak getControlBreak(ExecutionContext ctx) {
+        return ctx.getRequestScopedVar(CONTROL_BREAK);
+    }
+
+    /**
+     * グループの終了時に発生したコントロールブレイクを取得する。
+     * @param group {@link #read(ExecutionContext)}が返却したリスト
+     * @return コントロールブレイク。グループの最後のチャンクでない場合はnull
+     */
+    public static ControlBreak getControlBreak(List<?> group) {
+        return GroupChunk.of(group).getControlBreak();
+    }
+
     /**
      * ブレイクキーに対応する値（ブレイクする前の値）を取得する。
      * @param ctx 実行コンテキスト
@@ -0,0 +1,197 @@
+package nablarch.test.support.reader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link AggregatingDataReader}が返却する、グループの全部または一部のデータ。
+ * <p>
+ * 行数、推定サイズまたは待機時間の上限によってグループが分割された場合、
+ * 同じグループの後続のデータは、同じグループ番号で連番の付いたチャンクとして返却される。
+ * ハンドラは{@link #isLastChunk()}で、グループの全てのデータを処理したかどうかを判断できる。
+ * </p>
+ * <p>
+ * 分割されない場合、チャンクはグループの全てのデータを保持し、{@link #isFirstChunk()}及び{@link #isLastChunk()}はともにtrueとなる。
+ * </p>
+ * <pre>
+ * {@code
+ * GroupChunk<SqlRow> chunk = GroupChunk.of(inputData);
+ * accumulate(chunk);
+ * if (chunk.isLastChunk()) {
+ *     writeTotal(chunk.getGroupNumber());
+ * }
+ * }
+ * </pre>
+ * @param <D> データの型
+ */
+public class GroupChunk<D> extends ArrayList<D> {
+
+    /** シリアルバージョンUID */
+    private static final long serialVersionUID = 1L;
+
+    /** グループ番号 */
+    private long groupNumber;
+
+    /** グループ内のチャンクの番号 */
+    private int chunkNumber;
+
+    /** グループの最後のチャンクか否か */
+    private boolean lastChunk;
+
+    /** グループの終了時に発生したコントロールブレイク(ブレイクする前の値及び集計値はシリアライズできるとは限らないため、シリアライズしない) */
+    private transient ControlBreak controlBreak;
+
+    /** 保持しているデータの推定サイズ(バイト) */
+    private transient long estimatedBytes;
+
+    /** 最初のデータを追加した時刻({@link System#nanoTime()}) */
+    private transient long startNanos;
+
+    /** リーダに返却済みか否か */
+    private transient boolean released;
+
+    /**
+     * コンストラクタ。
+     * @param initialCapacity 初期容量
+     * @param groupNumber グループ番号
+     * @param chunkNumber グループ内のチャンクの番号
+     */
+    GroupChunk(int initialCapacity, long groupNumber, int chunkNumber) {
+        super(initialCapacity);
+        this.groupNumber = groupNumber;
+        this.chunkNumber = chunkNumber;
+    }
+
+    /**
+     * リーダが返却したリストをチャンクとして取得する。
+     * @param <D> データの型
+     * @param data {@link AggregatingDataReader#read(nablarch.fw.ExecutionContext)}が返却したリスト
+     * @return チャンク
+     * @throws IllegalArgumentException {@link AggregatingDataReader}が返却したリストでない場合
+     */
+    public static <D> GroupChunk<D> of(List<D> data) {
+        if (!(data instanceof GroupChunk)) {
+            throw new IllegalArgumentException("data was not read by AggregatingDataReader.");
+        }
+        return (GroupChunk<D>) data;
+    }
+
+    /**
+     * グループ番号を取得する。
+     * <p>
+     * リーダが読み込んだ順に、1から採番する。
+     * </p>
+     * @return グループ番号
+     */
+    public long getGroupNumber() {
+        return groupNumber;
+    }
+
+    /**
+     * グループ内のチャンクの番号を取得する。
+     * @return 0から始まるチャンクの番号
+     */
+    public int getChunkNumber() {
+        return chunkNumber;
+    }
+
+    /**
+     * グループの最初のチャンクか否か。
+     * @return 最初のチャンクの場合はtrue
+     */
+    public boolean isFirstChunk() {
+        return chunkNumber == 0;
+    }
+
+    /**
+     * グループの最後のチャンクか否か。
+     * @return 最後のチャンクの場合はtrue。同じグループの後続のチャンクが存在する場合はfalse
+     */
+    public boolean isLastChunk() {
+        return lastChunk;
+    }
+
+    /**
+     * グループの終了時に発生したコントロールブレイクを取得する。
+     * @return コントロールブレイク。{@link ControlBreakReader}以外で読み込んだ場合、
+     *          グループの最後のチャンクでない場合、またはデシリアライズしたチャンクの場合はnull
+     */
+    public ControlBreak getControlBreak() {
+        return controlBreak;
+    }
+
+    /**
+     * グループの終了時に発生したコントロールブレイクを設定する。
+     * @param controlBreak コントロールブレイク
+     */
+    void setControlBreak(ControlBreak controlBreak) {
+        this.controlBreak = controlBreak;
+    }
+
+    /**
+     * 再利用するために、データとグループの情報を初期化する。
+     * @param capacity 確保する容量
+     * @param groupNumber グループ番号
+     * @param chunkNumber グループ内のチャンクの番号
+     */
+    void reset(int capacity, long groupNumber, int chunkNumber) {
+        clear();
+        ensureCapacity(capacity);
+        this.groupNumber = groupNumber;
+        this.chunkNumber = chunkNumber;
+        lastChunk = false;
+        controlBreak = null;
+        estimatedBytes = 0;
+        startNanos = 0;
+        released = false;
+    }
+
+    /**
+     * リーダに返却済みとする。
+     * @return 既に返却済みの場合はfalse
+     */
+    boolean markReleased() {
+        if (released) {
+            return false;
+        }
+        released = true;
+        return true;
+    }
+
+    /**
+     * グループの最後のチャンクとする。
+     */
+    void markLast() {
+        lastChunk = true;
+    }
+
+    /**
+     * データを追加し、推定サイズを加算する。
+     * @param data データ
+     * @param bytes データの推定サイズ
+     * @param nanos 現在時刻。最初のデータの場合のみ記録する
+     */
+    void append(D data, long bytes, long nanos) {
+        if (isEmpty()) {
+            startNanos = nanos;
+        }
+        add(data);
+        estimatedBytes += bytes;
+    }
+
+    /**
+     * 保持しているデータの推定サイズを取得する。
+     * @return 推定サイズ(バイト)
+     */
+    long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * 最初のデータを追加した時刻を取得する。
+     * @return {@link System#nanoTime()}による時刻
+     */
+    long getStartNanos() {
+        return startNanos;
+    }
+}
@@ -0,0 +1,132 @@
+package nablarch.test.support.reader;
+
+import java.util.Map;
+
+import nablarch.core.util.StringUtil;
+import nablarch.core.util.map.MultipleKeyCaseMap;
+
+/**
+ * 監視対象のキーの値を、データから取り出すクラス。
+ * <p>
+ * {@link nablarch.core.db.statement.SqlRow}等の{@link MultipleKeyCaseMap}は、値を取得するたびにキーの表記を変換する。
+ * 本クラスは最初のデータで実際に格納されているキーを解決し、以降は変換前のマップから直接値を取り出す。
+ * キーを解決できなかった場合、及び解決したキーがデータに存在しない場合は、{@link Map#get(Object)}で取り出す。
+ * </p>
+ */
+final class GroupKeyExtractor {
+
+    /** 監視対象のキー */
+    private final String[] watchedKeys;
+
+    /** 変換前のマップに格納されているキー。解決できなかったキーの要素はnull */
+    private final String[] actualKeys;
+
+    /**
+     * コンストラクタ。
+     * @param watchedKeys 監視対象のキー
+     * @param actualKeys 変換前のマップに格納されているキー
+     */
+    private GroupKeyExtractor(String[] watchedKeys, String[] actualKeys) {
+        this.watchedKeys = watchedKeys;
+        this.actualKeys = actualKeys;
+    }
+
+    /**
+     * 最初のデータから、実際に格納されているキーを解決する。
+     * @param watchedKeys 監視対象のキー
+     * @param sample 最初のデータ
+     * @return 抽出器
+     */
+    static GroupKeyExtractor compile(String[] watchedKeys, Map<String, Object> sample) {
+        final String[] actualKeys = new String[watchedKeys.length];
+        if (sample instanceof MultipleKeyCaseMap) {
+            final MultipleKeyCaseMap<Object> row = cast(sample);
+            final Map<String, Object> delegate = row.getDelegateMap();
+            for (int i = 0; i < watchedKeys.length; i++) {
+                final String actualKey = resolve(delegate, watchedKeys[i]);
+                // 変換後のキーで取り出した値と同じ値を取り出せる場合のみ、解決できたものとする
+                if (actualKey != null && delegate.get(actualKey) == row.get(watchedKeys[i])) {
+                    actualKeys[i] = actualKey;
+                }
+            }
+        }
+        return new GroupKeyExtractor(watchedKeys.clone(), actualKeys);
+    }
+
+    /**
+     * 監視対象のキーの数を取得する。
+     * @return キーの数
+     */
+    int size() {
+        return watchedKeys.length;
+    }
+
+    /**
+     * 監視対象のキーを取得する。
+     * @param index キーの位置
+     * @return キー
+     */
+    String getKey(int index) {
+        return watchedKeys[index];
+    }
+
+    /**
+     * 監視対象のキーの値を取り出す。
+     * @param data データ
+     * @param index キーの位置
+     * @return 値
+     */
+    Object extract(Map<String, Object> data, int index) {
+        final String actualKey = actualKeys[index];
+        if (actualKey != null && data instanceof MultipleKeyCaseMap) {
+            final Map<String, Object> delegate = GroupKeyExtractor.<Object>cast(data)
+                                                                  .getDelegateMap();
+            final Object value = delegate.get(actualKey);
+            if (value != null || delegate.containsKey(actualKey)) {
+                return value;
+            }
+        }
+        return data.get(watchedKeys[index]);
+    }
+
+    /**
+     * 全ての監視対象のキーの値を取り出す。
+     * @param data データ
+     * @param values 値を格納する配列
+     */
+    void extractAll(Map<String, Object> data, Object[] values) {
+        for (int i = 0; i < watchedKeys.length; i++) {
+            values[i] = extract(data, i);
+        }
+    }
+
+    /**
+     * 変換前のマップに格納されているキーを解決する。
+     * @param delegate 変換前のマップ
+     * @param watchedKey 監視対象のキー
+     * @return 格納されているキー。存在しない場合はnull
+     */
+    private static String resolve(Map<String, Object> delegate, String watchedKey) {
+        if (delegate.containsKey(watchedKey)) {
+            return watchedKey;
+        }
+        final String normalized = StringUtil.lowerAndTrimUnderScore(watchedKey);
+        for (String key : delegate.keySet()) {
+            if (normalized.equals(StringUtil.lowerAndTrimUnderScore(key))) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@link MultipleKeyCaseMap}に変換する。
+     * @param <V> 値の型
+     * @param data データ
+     * @return 変換したデータ
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> MultipleKeyCaseMap<V> cast(Map<String, ?> data) {
+        return (MultipleKeyCaseMap<V>) data;
+    }
+}
@@ -0,0 +1,223 @@
+package nablarch.test.support.db.datasource;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LockFreeConnectionPoolTest {
+
+    private LockFreeConnectionPool sut;
+
+    @Before
+    public void setUp() throws Exception {
+        final Properties properties = createProperties();
+        properties.setProperty("initialSize", "1");
+        properties.setProperty("maxWait", "100");
+        properties.setProperty("testOnBorrow", "true");
+        properties.setProperty("validationQuery", "SELECT 1");
+        sut = new LockFreeConnectionPool(properties);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut.close();
+    }
+
+    @Test
+    public void testExhausted() throws Exception {
+        final Connection first = sut.getConnection();
+        final Connection second = sut.getConnection();
+        assertThat(sut.getNumActive(), is(2));
+        try {
+            sut.getConnection();
+            fail("最大コネクション数を超えた場合は例外が送出されること");
+        } catch (SQLException e) {
+            assertThat(e.getMessage(), containsString("pool exhausted"));
+        }
+
+        first.close();
+        final Connection third = sut.getConnection();
+        assertThat("返却されたコネクションは再度取得できること", third.isClosed(), is(false));
+        second.close();
+        third.close();
+        assertThat(sut.getNumActive(), is(0));
+        assertThat(sut.getNumIdle(), is(2));
+    }
+
+    @Test
+    public void testZeroMaxWaitWaitsIndefinitely() throws Exception {
+        final Properties properties = createProperties();
+        properties.setProperty("maxWait", "0");
+        final LockFreeConnectionPool pool = new LockFreeConnectionPool(properties);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Connection first = pool.getConnection();
+            final Connection second = pool.getConnection();
+            final Future<Connection> waiting = executor.submit(new Callable<Connection>() {
+                @Override
+                public Connection call() throws Exception {
+                    return pool.getConnection();
+                }
+            });
+            try {
+                waiting.get(200, TimeUnit.MILLISECONDS);
+                fail("maxWaitが0の場合は、コネクションが返却されるまで待機すること");
+            } catch (TimeoutException expected) {
+                // NOP
+            }
+            first.close();
+            final Connection third = waiting.get(10, TimeUnit.SECONDS);
+            assertThat(third.isClosed(), is(false));
+            second.close();
+            third.close();
+        } finally {
+            executor.shutdownNow();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testGiveBackWhileClosing() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 200; i++) {
+                final LockFreeConnectionPool pool = new LockFreeConnectionPool(createProperties());
+                final Connection connection = pool.getConnection();
+                final CountDownLatch start = new CountDownLatch(1);
+                final Future<?> closing = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        pool.close();
+                        return null;
+                    }
+                });
+                start.countDown();
+                connection.close();
+                closing.get();
+                assertThat("クローズと同時に返却されたコネクションがプールに残らないこと", pool.getNumIdle(), is(0));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final Connection connection = sut.getConnection();
+        connection.setAutoCommit(false);
+        connection.close();
+        connection.close();
+        assertThat(connection.isClosed(), is(true));
+        try {
+            connection.createStatement();
+            fail("クローズ後は使用できないこと");
+        } catch (SQLException e) {
+            assertThat(e.getMessage(), containsString("already been closed"));
+        }
+
+        final Connection reused = sut.getConnection();
+        try {
+            assertThat("返却時に自動コミットが有効に戻されること", reused.getAutoCommit(), is(true));
+        } finally {
+            reused.close();
+        }
+    }
+
+    @Test
+    public void testStatementReturnsPooledConnection() throws Exception {
+        final Connection connection = sut.getConnection();
+        final PreparedStatement statement = connection.prepareStatement("SELECT 1");
+        final ResultSet resultSet = statement.executeQuery();
+        assertThat(statement.getConnection(), is(sameInstance(connection)));
+        assertThat(resultSet.getStatement(), is(sameInstance((Statement) statement)));
+        resultSet.close();
+        statement.close();
+
+        statement.getConnection()
+                .close();
+        assertThat("ステートメントから取得したコネクションのクローズでプールに戻ること", sut.getNumActive(), is(0));
+        assertThat(sut.getNumIdle(), is(1));
+        final Connection reused = sut.getConnection();
+        try {
+            assertThat("物理コネクションはクローズされていないこと", reused.isValid(1), is(true));
+        } finally {
+            reused.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int count = 0;
+                        for (int j = 0; j < 200; j++) {
+                            final Connection connection = borrow();
+                            try {
+                                final Statement statement = connection.createStatement();
+                                statement.execute("SELECT 1");
+                                statement.close();
+                                count++;
+                            } finally {
+                                connection.close();
+                            }
+                        }
+                        return count;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertThat(future.get(), is(200));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(sut.getNumActive(), is(0));
+        assertThat(sut.getNumIdle() <= 2, is(true));
+    }
+
+    private static Properties createProperties() {
+        final Properties properties = new Properties();
+        properties.setProperty("driverClassName", "org.h2.Driver");
+        properties.setProperty("url", "jdbc:h2:mem:lockFreePool");
+        properties.setProperty("username", "sa");
+        properties.setProperty("password", "password");
+        properties.setProperty("maxActive", "2");
+        return properties;
+    }
+
+    private Connection borrow() throws SQLException {
+        while (true) {
+            try {
+                return sut.getConnection();
+            } catch (SQLException e) {
+                // 最大待機時間を超えた場合は再試行する
+            }
+        }
+    }
+}
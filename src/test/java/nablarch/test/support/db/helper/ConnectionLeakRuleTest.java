@@ -0,0 +1,121 @@
+package nablarch.test.support.db.helper;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import nablarch.test.support.db.datasource.ConnectionPoolMetrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link ConnectionLeakRule}の単体テスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class ConnectionLeakRuleTest {
+
+    /**
+     * コネクションをクローズしなかったテストが失敗し、コネクションが回収されること。
+     */
+    @Test
+    public void testLeak() {
+        final Result result = JUnitCore.runClasses(Leaking.class);
+        assertThat(result.getRunCount(), is(3));
+        assertThat(result.getFailureCount(), is(1));
+        assertThat(result.getFailures().get(0).getMessage(), containsString("leaked 1 connection(s)"));
+        assertThat(result.getFailures().get(0).getMessage(), containsString("Leaking.leak"));
+
+        final ConnectionPoolMetrics metrics = VariousDbTestHelper.getTestDataSource().getMetrics();
+        assertThat("リークしたコネクションはクローズされていること", metrics.getOpenConnections().size(), is(0));
+    }
+
+    /**
+     * 貸し出し中のコネクションと取得回数が取得できること。
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        final ConnectionPoolMetrics before = VariousDbTestHelper.getTestDataSource().getMetrics();
+        VariousDbTestHelper.getTestDataSource().setBorrowTraceEnabled(true);
+        final Connection connection;
+        try {
+            connection = VariousDbTestHelper.getNativeConnection();
+        } finally {
+            VariousDbTestHelper.getTestDataSource().setBorrowTraceEnabled(false);
+        }
+        try {
+            final ConnectionPoolMetrics metrics = VariousDbTestHelper.getTestDataSource().getMetrics();
+            assertThat(metrics.getActiveCount(), is(before.getActiveCount() + 1));
+            assertThat(metrics.getBorrowCount(), is(before.getBorrowCount() + 1));
+            long total = 0;
+            for (long count : metrics.getWaitHistogram()) {
+                total += count;
+            }
+            assertThat(total, is(metrics.getBorrowCount()));
+            assertThat(metrics.toString(), containsString("ConnectionLeakRuleTest.testMetrics"));
+        } finally {
+            connection.close();
+        }
+        assertThat(VariousDbTestHelper.getTestDataSource().getMetrics().getActiveCount(), is(before.getActiveCount()));
+    }
+
+    /**
+     * リーク検出の範囲外で、取得箇所のスタックトレースが有効化されていない場合は取得しないこと。
+     */
+    @Test
+    public void testBorrowTraceDisabled() throws Exception {
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            final ConnectionPoolMetrics metrics = VariousDbTestHelper.getTestDataSource().getMetrics();
+            assertThat(metrics.getOpenConnections().size(), is(1));
+            assertThat(metrics.getOpenConnections().get(0).getBorrowTrace(), is(nullValue()));
+            assertThat(metrics.toString(), containsString("by thread [" + Thread.currentThread().getName() + ']'));
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * ステートメントから取得したコネクションをクローズした場合も、追跡が終了すること。
+     */
+    @Test
+    public void testCloseViaStatement() throws Exception {
+        final ConnectionPoolMetrics before = VariousDbTestHelper.getTestDataSource().getMetrics();
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        final Statement statement = connection.createStatement();
+        assertThat(statement.getConnection(), is(sameInstance(connection)));
+        statement.getConnection().close();
+        assertThat(connection.isClosed(), is(true));
+        assertThat(VariousDbTestHelper.getTestDataSource().getMetrics().getActiveCount(), is(before.getActiveCount()));
+    }
+
+    @RunWith(DatabaseTestRunner.class)
+    public static class Leaking {
+
+        @Rule
+        public ConnectionLeakRule leakRule = new ConnectionLeakRule();
+
+        @Test
+        public void leak() throws Exception {
+            VariousDbTestHelper.getNativeConnection();
+        }
+
+        @Test
+        public void noLeak() throws Exception {
+            VariousDbTestHelper.getNativeConnection().close();
+        }
+
+        @Test
+        public void closeViaStatement() throws Exception {
+            VariousDbTestHelper.getNativeConnection().createStatement().getConnection().close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package nablarch.test.support.db.helper;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.List;
+
+import nablarch.test.support.db.helper.VariousDbTestHelperTest.TestChild;
+import nablarch.test.support.db.helper.VariousDbTestHelperTest.TestEntity;
+import nablarch.test.support.db.helper.VariousDbTestHelperTest.TestParent;
+
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+/**
+ * {@link DbSnapshot}の単体テスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DbSnapshotTest {
+
+    /** セットアップ用のメソッドが実行された回数 */
+    private static int setUpCount;
+
+    @BeforeClass
+    public static void createTable() {
+        VariousDbTestHelper.createTable(TestEntity.class);
+        VariousDbTestHelper.createTables(TestParent.class, TestChild.class);
+    }
+
+    @DbSnapshot(TestEntity.class)
+    public void setUpData() {
+        setUpCount++;
+        VariousDbTestHelper.setUpTable(
+                new TestEntity(1L, "name1", null),
+                new TestEntity(2L, "name2", null));
+    }
+
+    /**
+     * 外部キーの参照元を先に指定しても、参照関係に従って取得及び復元されること。
+     */
+    @DbSnapshot({TestChild.class, TestParent.class})
+    public void setUpRelatedData() {
+        final TestParent parent = new TestParent(1L);
+        VariousDbTestHelper.bulkInsert(parent);
+        VariousDbTestHelper.bulkInsert(new TestChild(10L, parent), new TestChild(11L, parent));
+    }
+
+    /**
+     * 最初のテストではセットアップ用のメソッドが実行されること。
+     */
+    @Test
+    public void test1_setUpMethodIsInvoked() {
+        assertThat(setUpCount, is(1));
+        assertRecords();
+
+        VariousDbTestHelper.setUpTable(new TestEntity(3L, "changed", null));
+    }
+
+    /**
+     * 以降のテストではセットアップ用のメソッドを実行せず、スナップショットから復元されること。
+     */
+    @Test
+    public void test2_restoredFromSnapshot() {
+        assertThat(setUpCount, is(1));
+        assertRecords();
+
+        VariousDbTestHelper.delete(TestEntity.class);
+    }
+
+    /**
+     * 前のテストでレコードを削除しても、スナップショットから復元されること。
+     */
+    @Test
+    public void test3_restoredFromSnapshotAfterDelete() {
+        assertThat(setUpCount, is(1));
+        assertRecords();
+    }
+
+    /**
+     * {@link RollbackTransaction}が指定されたテストでは、スナップショットを使用できずテストが失敗すること。
+     */
+    @Test
+    public void test4_notAllowedWithRollbackTransaction() {
+        final Result result = JUnitCore.runClasses(WithRollbackTransaction.class);
+        assertThat(result.getRunCount(), is(1));
+        assertThat(result.getFailureCount(), is(1));
+        assertThat(result.getFailures().get(0).getMessage(),
+                containsString("@DbSnapshot cannot be used with @RollbackTransaction"));
+    }
+
+    private static void assertRecords() {
+        final List<TestEntity> actual = VariousDbTestHelper.findAll(TestEntity.class, "id");
+        assertThat(actual.size(), is(2));
+        assertThat(actual.get(0).name, is("name1"));
+        assertThat(actual.get(1).name, is("name2"));
+        assertThat(VariousDbTestHelper.findAll(TestParent.class).size(), is(1));
+        assertThat(VariousDbTestHelper.findAll(TestChild.class).size(), is(2));
+    }
+
+    @RunWith(DatabaseTestRunner.class)
+    @RollbackTransaction
+    public static class WithRollbackTransaction {
+
+        @DbSnapshot(TestEntity.class)
+        public void setUpData() {
+            VariousDbTestHelper.setUpTable(new TestEntity(1L, "name1", null));
+        }
+
+        @Test
+        public void test() {
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package nablarch.test.support.db.helper;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.repository.di.DiContainer;
+import nablarch.core.repository.di.config.xml.XmlComponentDefinitionLoader;
+import nablarch.test.support.db.helper.VariousDbTestHelperTest.TestEntity;
+
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+/**
+ * {@link RollbackTransaction}の単体テスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+@RollbackTransaction
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RollbackTransactionTest {
+
+    @BeforeClass
+    public static void createTable() {
+        VariousDbTestHelper.createTable(TestEntity.class);
+    }
+
+    /**
+     * コミットしたデータがテスト中は参照できること。
+     */
+    @Test
+    public void test1_insertByHelper() {
+        VariousDbTestHelper.insert(new TestEntity(1L, "helper", null));
+
+        final List<TestEntity> actual = VariousDbTestHelper.findAll(TestEntity.class);
+        assertThat(actual.size(), is(1));
+    }
+
+    /**
+     * 前のテストのデータがロールバックされていること。
+     * また、Nablarchのデータベース接続でコミットしたデータが、{@link VariousDbTestHelper}から参照できること。
+     */
+    @Test
+    public void test2_insertByNablarchConnection() {
+        assertThat(VariousDbTestHelper.findAll(TestEntity.class).size(), is(0));
+
+        final SimpleDbTransactionManager transactionManager = new DiContainer(
+                new XmlComponentDefinitionLoader("db-default.xml")).getComponentByName("tran");
+        transactionManager.beginTransaction();
+        try {
+            final AppDbConnection connection = DbConnectionContext.getConnection("test");
+            final SqlPStatement statement = connection.prepareStatement(
+                    "INSERT INTO TEST_ENTITY (ENTITY_ID, NAME_COL) VALUES (?, ?)");
+            statement.setLong(1, 2L);
+            statement.setString(2, "nablarch");
+            statement.executeUpdate();
+            transactionManager.commitTransaction();
+        } finally {
+            transactionManager.endTransaction();
+        }
+
+        final List<TestEntity> actual = VariousDbTestHelper.findAll(TestEntity.class);
+        assertThat(actual.size(), is(1));
+        assertThat(actual.get(0).name, is("nablarch"));
+    }
+
+    /**
+     * 前のテストのデータがロールバックされていること。
+     */
+    @Test
+    public void test3_rolledBack() {
+        assertThat(VariousDbTestHelper.findAll(TestEntity.class).size(), is(0));
+    }
+
+    /**
+     * カーソルをクローズしても、テスト中に登録したコミット前のデータが取り消されないこと。
+     */
+    @Test
+    public void test4_streamAllKeepsUncommittedData() throws Exception {
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                statement.executeUpdate("INSERT INTO TEST_ENTITY (ENTITY_ID, NAME_COL) VALUES (3, 'uncommitted')");
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+
+        final EntityCursor<TestEntity> cursor = VariousDbTestHelper.streamAll(TestEntity.class);
+        try {
+            assertThat(cursor.next().name, is("uncommitted"));
+        } finally {
+            cursor.close();
+        }
+        assertThat(VariousDbTestHelper.findAll(TestEntity.class).size(), is(1));
+    }
+}
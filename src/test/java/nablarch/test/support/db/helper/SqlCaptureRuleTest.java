@@ -0,0 +1,94 @@
+package nablarch.test.support.db.helper;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import nablarch.test.support.db.datasource.ExecutedSql;
+import nablarch.test.support.db.helper.VariousDbTestHelperTest.TestEntity;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link SqlCaptureRule}の単体テスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class SqlCaptureRuleTest {
+
+    @Rule
+    public SqlCaptureRule sql = new SqlCaptureRule();
+
+    @BeforeClass
+    public static void createTable() {
+        VariousDbTestHelper.createTable(TestEntity.class);
+    }
+
+    /**
+     * 実行したSQL文と、バインド変数の数、フェッチした行数が記録されること。
+     */
+    @Test
+    public void testCapture() throws Exception {
+        VariousDbTestHelper.setUpTable(new TestEntity(1L, "a", null), new TestEntity(2L, "b", null));
+        sql.reset();
+
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            final PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO TEST_ENTITY (ENTITY_ID, NAME_COL) VALUES (?, ?)");
+            insert.setLong(1, 3L);
+            insert.setString(2, "c");
+            insert.executeUpdate();
+            insert.close();
+
+            final PreparedStatement select = connection.prepareStatement(
+                    "SELECT ENTITY_ID FROM TEST_ENTITY ORDER BY ENTITY_ID");
+            final ResultSet rs = select.executeQuery();
+            while (rs.next()) {
+                assertThat(rs.getStatement(), is((Statement) select));
+            }
+            select.close();
+        } finally {
+            connection.close();
+        }
+
+        final List<ExecutedSql> executed = sql.getExecutedSqls();
+        assertThat(executed.size(), is(2));
+        assertThat(executed.get(0).getSql(), containsString("INSERT INTO TEST_ENTITY"));
+        assertThat(executed.get(0).getBindCount(), is(2));
+        assertThat(executed.get(0).isQuery(), is(false));
+        assertThat(executed.get(1).getBindCount(), is(0));
+        assertThat(executed.get(1).getRowsFetched(), is(3L));
+        assertThat(executed.get(1).isQuery(), is(true));
+
+        sql.assertStatementCount(2);
+        sql.assertQueryCount(1);
+        sql.assertQueryCountAtMost(1);
+    }
+
+    /**
+     * 実行回数が上限を超えた場合、実行したSQL文を含めて検証が失敗すること。
+     */
+    @Test
+    public void testAssertQueryCountAtMost() throws Exception {
+        sql.reset();
+        VariousDbTestHelper.findAll(TestEntity.class);
+        VariousDbTestHelper.findAll(TestEntity.class);
+        try {
+            sql.assertQueryCountAtMost(1);
+            fail("上限を超えた場合は失敗すること");
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("query count: expected at most 1 but was 2"));
+            assertThat(e.getMessage(), containsString("TEST_ENTITY"));
+        }
+    }
+}
@@ -9,6 +9,8 @@ import org.junit.runner.RunWith;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
@@ -21,11 +23,20 @@ import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * {@link VariousDbTestHelper}の単体テスト。
@@ -60,6 +71,359 @@ public class VariousDbTestHelperTest {
         assertThat("The type of TIME_COL is TIME", metaData.getColumnType(4), is(equalTo(Types.TIME)));
     }
 
+    /**
+     * バッチサイズを超える件数のエンティティが、
+     * {@link VariousDbTestHelper#bulkInsert(Object...)}で全件登録されることをテスト。
+     */
+    @Test
+    public void testBulkInsert() throws Exception {
+        VariousDbTestHelper.createTable(TestEntity.class);
+        VariousDbTestHelper.setBatchSize(2);
+        try {
+            final TestEntity[] entities = new TestEntity[5];
+            for (int i = 0; i < entities.length; i++) {
+                entities[i] = new TestEntity((long) i + 1, "name" + (i + 1),
+                        Timestamp.valueOf("2016-01-0" + (i + 1) + " 12:34:56.0"));
+            }
+            VariousDbTestHelper.bulkInsert((Object[]) entities);
+        } finally {
+            VariousDbTestHelper.setBatchSize(1000);
+        }
+
+        final List<TestEntity> actual = VariousDbTestHelper.findAll(TestEntity.class, "id");
+        assertThat(actual.size(), is(5));
+        assertThat(actual.get(0).id, is(1L));
+        assertThat(actual.get(0).name, is("name1"));
+        assertThat(actual.get(4).id, is(5L));
+        assertThat(actual.get(4).timestamp, is((Date) Timestamp.valueOf("2016-01-05 12:34:56.0")));
+    }
+
+    /**
+     * {@link VariousDbTestHelper#setUpTable(Object[])}で既存のレコードが置き換えられることをテスト。
+     */
+    @Test
+    public void testSetUpTable() throws Exception {
+        VariousDbTestHelper.createTable(TestEntity.class);
+        VariousDbTestHelper.insert(new TestEntity(100L, "before", null));
+
+        VariousDbTestHelper.setUpTable(new TestEntity(200L, null, null));
+
+        final List<TestEntity> actual = VariousDbTestHelper.findAll(TestEntity.class);
+        assertThat(actual.size(), is(1));
+        assertThat(actual.get(0).id, is(200L));
+        assertThat(actual.get(0).name, is(nullValue()));
+    }
+
+    /**
+     * {@link VariousDbTestHelper#streamAll(Class, String...)}で、
+     * フェッチサイズを超える件数のレコードが指定順に全件取得できることをテスト。
+     */
+    @Test
+    public void testStreamAll() throws Exception {
+        VariousDbTestHelper.createTable(TestEntity.class);
+        final TestEntity[] entities = new TestEntity[5];
+        for (int i = 0; i < entities.length; i++) {
+            entities[i] = new TestEntity(5L - i, "name" + (5 - i),
+                    i == 0 ? null : Timestamp.valueOf("2016-01-0" + (5 - i) + " 12:34:56.0"));
+        }
+        VariousDbTestHelper.bulkInsert((Object[]) entities);
+
+        VariousDbTestHelper.setFetchSize(2);
+        final EntityCursor<TestEntity> cursor = VariousDbTestHelper.streamAll(TestEntity.class, "id");
+        try {
+            long expectedId = 1;
+            while (cursor.hasNext()) {
+                final TestEntity actual = cursor.next();
+                assertThat(actual.id, is(expectedId));
+                assertThat(actual.name, is("name" + expectedId));
+                if (expectedId == 5) {
+                    assertThat(actual.timestamp, is(nullValue()));
+                } else {
+                    assertThat(actual.timestamp, is((Date) Timestamp.valueOf("2016-01-0" + expectedId + " 12:34:56.0")));
+                }
+                expectedId++;
+            }
+            assertThat(expectedId, is(6L));
+            assertThat(cursor.hasNext(), is(false));
+        } finally {
+            cursor.close();
+            VariousDbTestHelper.setFetchSize(1000);
+        }
+    }
+
+    /**
+     * 複数のスレッドから同時に{@link VariousDbTestHelper}を使用できることをテスト。
+     */
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        VariousDbTestHelper.createTable(TestEntity.class);
+
+        final int threadCount = 4;
+        final int count = 20;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threadCount; i++) {
+                final long base = i * count;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (long id = base + 1; id <= base + count; id++) {
+                            VariousDbTestHelper.insert(new TestEntity(id, "name" + id, null));
+                            assertThat(VariousDbTestHelper.findById(TestEntity.class, id).name, is("name" + id));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(VariousDbTestHelper.findAll(TestEntity.class).size(), is(threadCount * count));
+    }
+
+    /**
+     * {@link VariousDbTestHelper#truncate(Class[])}で、
+     * 外部キーで関連するテーブルが指定順序によらず空になることをテスト。
+     */
+    @Test
+    public void testTruncate() throws Exception {
+        VariousDbTestHelper.createTables(TestParent.class, TestChild.class);
+        final TestParent parent = new TestParent(1L);
+        VariousDbTestHelper.bulkInsert(parent, new TestParent(2L));
+        VariousDbTestHelper.bulkInsert(new TestChild(10L, parent), new TestChild(11L, parent));
+
+        VariousDbTestHelper.truncate(TestParent.class, TestChild.class);
+
+        assertThat(count("TEST_PARENT"), is(0));
+        assertThat(count("TEST_CHILD"), is(0));
+
+        // 外部キー制約が有効に戻っていること
+        try {
+            VariousDbTestHelper.bulkInsert(new TestChild(12L, new TestParent(99L)));
+            fail("外部キー制約違反となるはず");
+        } catch (RuntimeException e) {
+            assertThat(count("TEST_CHILD"), is(0));
+        }
+    }
+
+    /**
+     * 接続先のデータベースを判定できない場合は、
+     * {@link TableTruncator#truncate(Connection, TargetDb.Db, List)}がDELETE文で削除することをテスト。
+     */
+    @Test
+    public void testTruncateUnknownDatabase() throws Exception {
+        VariousDbTestHelper.createTables(TestParent.class, TestChild.class);
+        final TestParent parent = new TestParent(1L);
+        VariousDbTestHelper.bulkInsert(parent);
+        VariousDbTestHelper.bulkInsert(new TestChild(10L, parent));
+
+        final List<EntityMetadata> tables = EntityMetadata.sortByDependency(TestParent.class, TestChild.class);
+        Collections.reverse(tables);
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            TableTruncator.truncate(connection, null, tables);
+        } finally {
+            connection.close();
+        }
+
+        assertThat(count("TEST_PARENT"), is(0));
+        assertThat(count("TEST_CHILD"), is(0));
+    }
+
+    /**
+     * 対象外のテーブルから外部キーで参照されている場合、
+     * {@link VariousDbTestHelper#truncate(Class[])}が参照元のデータを残したまま参照先を空にしないことをテスト。
+     */
+    @Test
+    public void testTruncateReferencedFromOtherTable() throws Exception {
+        VariousDbTestHelper.createTables(TestParent.class, TestChild.class);
+        final TestParent parent = new TestParent(1L);
+        VariousDbTestHelper.bulkInsert(parent);
+        VariousDbTestHelper.bulkInsert(new TestChild(10L, parent));
+
+        try {
+            VariousDbTestHelper.truncate(TestParent.class);
+            fail("外部キー制約違反となるはず");
+        } catch (RuntimeException e) {
+            assertThat(count("TEST_PARENT"), is(1));
+            assertThat(count("TEST_CHILD"), is(1));
+        }
+
+        // 参照元にデータがない場合は空にできること
+        VariousDbTestHelper.truncate(TestChild.class);
+        VariousDbTestHelper.truncate(TestParent.class);
+        assertThat(count("TEST_PARENT"), is(0));
+    }
+
+    /**
+     * 制約のチェックを無効化して実行したTRUNCATEが失敗した場合、
+     * {@link TableTruncator#truncate(Connection, TargetDb.Db, List)}が例外を送出することをテスト。
+     */
+    @Test
+    public void testTruncateFailure() throws Exception {
+        VariousDbTestHelper.createTable(TestTable.class);
+        VariousDbTestHelper.dropTable(TestTable.class);
+
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            TableTruncator.truncate(connection, TargetDb.Db.H2,
+                    EntityMetadata.sortByDependency(TestTable.class));
+            fail("存在しないテーブルのため例外となるはず");
+        } catch (SQLException e) {
+            // OK
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * {@link VariousDbTestHelper#createTables(Class[])}で、
+     * 指定順序によらず外部キーの参照先から順にテーブルが作成されることをテスト。
+     */
+    @Test
+    public void testCreateTables() throws Exception {
+        VariousDbTestHelper.createTables(TestChild.class, TestParent.class);
+        VariousDbTestHelper.bulkInsert(new TestParent(1L), new TestChild(10L, new TestParent(1L)));
+
+        // 既存のテーブルは空にされること
+        VariousDbTestHelper.createTables(TestChild.class, TestParent.class);
+        assertThat(count("TEST_PARENT"), is(0));
+        assertThat(count("TEST_CHILD"), is(0));
+
+        // 外部キー制約が作成されていること
+        try {
+            VariousDbTestHelper.bulkInsert(new TestChild(11L, new TestParent(99L)));
+            fail("外部キー制約違反となるはず");
+        } catch (RuntimeException e) {
+            assertThat(count("TEST_CHILD"), is(0));
+        }
+    }
+
+    /**
+     * {@link VariousDbTestHelper#createAllFromEntityList()}で、
+     * entity.list.txtに記載された全てのテーブルが作成されることをテスト。
+     */
+    @Test
+    public void testCreateAllFromEntityList() throws Exception {
+        VariousDbTestHelper.createAllFromEntityList();
+
+        assertThat(count("TEST_ENTITY"), is(0));
+        assertThat(count("TEST_PARENT"), is(0));
+        assertThat(count("TEST_CHILD"), is(0));
+    }
+
+    /**
+     * キャッシュを使用する場合、同一定義のテーブルが作成済みであれば、テーブルを再作成せずにデータのみが削除されることをテスト。
+     * また、カラムが変更されている場合及びテーブルが削除されている場合は再作成されることをテスト。
+     */
+    @Test
+    public void testCreateTableWithSchemaCache() throws Exception {
+        VariousDbTestHelper.setSchemaCacheEnabled(true);
+        try {
+            VariousDbTestHelper.createTable(TestEntity.class);
+            VariousDbTestHelper.insert(new TestEntity(1L, "name", null));
+            execute("CREATE INDEX TEST_ENTITY_MARKER ON TEST_ENTITY (NAME_COL)");
+
+            VariousDbTestHelper.createTable(TestEntity.class);
+            assertThat("データのみ削除されること", count("TEST_ENTITY"), is(0));
+            assertThat("テーブルが再作成されていないこと", hasIndex("TEST_ENTITY", "TEST_ENTITY_MARKER"), is(true));
+
+            execute("ALTER TABLE TEST_ENTITY ADD COLUMN MARKER_COL VARCHAR(10)");
+            VariousDbTestHelper.createTable(TestEntity.class);
+            assertThat("カラムが変更されている場合は再作成されること", columnCount("TEST_ENTITY"), is(3));
+
+            execute("DROP TABLE TEST_ENTITY");
+            VariousDbTestHelper.createTable(TestEntity.class);
+            assertThat("テーブルが再作成されること", columnCount("TEST_ENTITY"), is(3));
+        } finally {
+            VariousDbTestHelper.setSchemaCacheEnabled(false);
+        }
+
+        execute("CREATE INDEX TEST_ENTITY_MARKER ON TEST_ENTITY (NAME_COL)");
+        VariousDbTestHelper.createTable(TestEntity.class);
+        assertThat("キャッシュを使用しない場合(デフォルト)は再作成されること",
+                hasIndex("TEST_ENTITY", "TEST_ENTITY_MARKER"), is(false));
+    }
+
+    private boolean hasIndex(String tableName, String indexName) throws SQLException {
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            final ResultSet resultSet = connection.getMetaData()
+                    .getIndexInfo(null, null, tableName, false, false);
+            try {
+                while (resultSet.next()) {
+                    if (indexName.equals(resultSet.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private int columnCount(String tableName) throws SQLException {
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                final ResultSet resultSet = statement.executeQuery("SELECT * FROM " + tableName);
+                try {
+                    return resultSet.getMetaData()
+                            .getColumnCount();
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private int count(String tableName) throws SQLException {
+        final Connection connection = VariousDbTestHelper.getNativeConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + tableName);
+                try {
+                    resultSet.next();
+                    return resultSet.getInt(1);
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
     @After
     public void closeConnection() throws Exception {
         closeQuietly(rs);
@@ -111,4 +475,66 @@ public class VariousDbTestHelperTest {
         @Temporal(TemporalType.TIME)
         public Time time;
     }
+
+    @Entity
+    @Table(name = "TEST_ENTITY")
+    public static class TestEntity {
+
+        @Id
+        @Column(name = "ENTITY_ID", length = 18, nullable = false)
+        public Long id;
+
+        @Column(name = "NAME_COL", length = 20)
+        public String name;
+
+        @Column(name = "TIMESTAMP_COL")
+        @Temporal(TemporalType.TIMESTAMP)
+        public Date timestamp;
+
+        public TestEntity() {
+        }
+
+        public TestEntity(Long id, String name, Date timestamp) {
+            this.id = id;
+            this.name = name;
+            this.timestamp = timestamp;
+        }
+    }
+
+    @Entity
+    @Table(name = "TEST_PARENT")
+    public static class TestParent {
+
+        @Id
+        @Column(name = "PARENT_ID", length = 18, nullable = false)
+        public Long id;
+
+        public TestParent() {
+        }
+
+        public TestParent(Long id) {
+            this.id = id;
+        }
+    }
+
+    @Entity
+    @Table(name = "TEST_CHILD")
+    public static class TestChild {
+
+        @Id
+        @Column(name = "CHILD_ID", length = 18, nullable = false)
+        public Long id;
+
+        @ManyToOne
+        @JoinColumn(name = "PARENT_ID", referencedColumnName = "PARENT_ID")
+        public TestParent parent;
+
+        public TestChild() {
+        }
+
+        public TestChild(Long id, TestParent parent) {
+            this.id = id;
+            this.parent = parent;
+        }
+    }
 }
\ No newline at end of file
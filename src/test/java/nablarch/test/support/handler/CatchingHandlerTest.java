@@ -0,0 +1,184 @@
+package nablarch.test.support.handler;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link CatchingHandler}の単体テスト。
+ */
+public class CatchingHandlerTest {
+
+    @Before
+    public void setUp() {
+        CatchingHandler.clear();
+    }
+
+    @After
+    public void tearDown() {
+        CatchingHandler.clear();
+    }
+
+    @Test
+    public void testHandle() {
+        assertThat(handle("first"), is((Object) "FIRST"));
+        try {
+            handle(null);
+            fail();
+        } catch (NullPointerException ignore) {
+            // NOP
+        }
+
+        assertThat(CatchingHandler.<String>getInput(), is(Arrays.asList("first", null)));
+        final List<Object> results = CatchingHandler.getResults();
+        assertThat(results.get(0), is((Object) "FIRST"));
+        assertThat(results.get(1), instanceOf(NullPointerException.class));
+        assertThat(CatchingHandler.getExecutionIds()
+                                  .size(), is(2));
+
+        final HandlerInvocation failed = CatchingHandler.getInvocations()
+                                                        .get(1);
+        assertThat(failed.isCompleted(), is(true));
+        assertThat(failed.isFailed(), is(true));
+        assertThat(failed.getResult(), is(nullValue()));
+        assertThat(failed.getThreadName(), is(Thread.currentThread()
+                                                    .getName()));
+        assertTrue(failed.getElapsedNanos() >= 0);
+
+        final InvocationStatistics statistics = CatchingHandler.getStatistics();
+        assertThat(statistics.getCount(), is(2));
+        assertThat(statistics.getFailedCount(), is(1));
+
+        CatchingHandler.clear();
+        assertThat(CatchingHandler.getInvocations()
+                                  .size(), is(0));
+    }
+
+    @Test
+    public void testLiveViewInCompletionOrder() {
+        final List<String> inputs = CatchingHandler.getInput();
+        final List<Object> results = CatchingHandler.getResults();
+
+        final Object result = new ExecutionContext().addHandler(new CatchingHandler())
+                                                    .addHandler(new Handler<Object, Object>() {
+                                                        @Override
+                                                        public Object handle(Object data, ExecutionContext context) {
+                                                            return context.handleNext(data) + "!";
+                                                        }
+                                                    })
+                                                    .addHandler(new CatchingHandler())
+                                                    .addHandler(new Handler<Object, Object>() {
+                                                        @Override
+                                                        public Object handle(Object data, ExecutionContext context) {
+                                                            return ((String) data).toUpperCase();
+                                                        }
+                                                    })
+                                                    .handleNext("nested");
+        assertThat(result, is((Object) "NESTED!"));
+
+        assertThat("取得した後の呼び出しも参照できること", inputs, is(Arrays.asList("nested", "nested")));
+        assertThat("処理結果は終了した順に並ぶこと", results, is(Arrays.<Object>asList("NESTED", "NESTED!")));
+
+        CatchingHandler.clear();
+        assertThat(inputs.size(), is(0));
+        handle("after");
+        assertThat("クリアした後の呼び出しも参照できること", inputs, is(Arrays.asList("after")));
+    }
+
+    @Test
+    public void testClearView() {
+        handle("first");
+        final List<Object> results = CatchingHandler.getResults();
+        try {
+            results.add("added");
+            fail("ビューは読み取り専用であること");
+        } catch (UnsupportedOperationException expected) {
+            // NOP
+        }
+
+        results.clear();
+        assertThat("クリアしたビューは空となること", results.size(), is(0));
+        assertThat("他の項目の記録はリセットされないこと", CatchingHandler.<String>getInput(), is(Arrays.asList("first")));
+        assertThat(CatchingHandler.getInvocations()
+                                  .size(), is(1));
+
+        handle("second");
+        assertThat("クリアした後の処理結果のみ参照できること", CatchingHandler.getResults(), is(Arrays.<Object>asList("SECOND")));
+        assertThat(CatchingHandler.<String>getInput(), is(Arrays.asList("first", "second")));
+    }
+
+    @Test
+    public void testConcurrentHandle() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < 2000; j++) {
+                            handle(thread + "-" + j);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final List<HandlerInvocation> invocations = CatchingHandler.getInvocations();
+        assertThat(invocations.size(), is(16000));
+        final HashSet<Object> inputs = new HashSet<Object>();
+        for (HandlerInvocation invocation : invocations) {
+            assertThat("入力データと処理結果が対応していること", invocation.getResult(),
+                    is((Object) ((String) invocation.getInput()).toUpperCase()));
+            inputs.add(invocation.getInput());
+        }
+        assertThat(inputs.size(), is(16000));
+
+        final Map<String, InvocationStatistics> byThread = CatchingHandler.getStatisticsByThread();
+        assertThat(byThread.size(), is(8));
+        for (InvocationStatistics statistics : byThread.values()) {
+            assertThat(statistics.getCount(), is(2000));
+        }
+        final InvocationStatistics statistics = CatchingHandler.getStatistics();
+        assertThat(statistics.getCount(), is(16000));
+        assertTrue(statistics.getThroughput() > 0);
+    }
+
+    private static Object handle(Object data) {
+        return new ExecutionContext().addHandler(new CatchingHandler())
+                                     .addHandler(new Handler<Object, Object>() {
+                                         @Override
+                                         public Object handle(Object data, ExecutionContext context) {
+                                             return ((String) data).toUpperCase();
+                                         }
+                                     })
+                                     .handleNext(data);
+    }
+}
@@ -0,0 +1,161 @@
+package nablarch.test.support.handler;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.Request;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link LatencyHistogramHandler}の単体テスト。
+ */
+public class LatencyHistogramHandlerTest {
+
+    @Before
+    public void setUp() {
+        LatencyHistogramHandler.clear();
+    }
+
+    @After
+    public void tearDown() {
+        LatencyHistogramHandler.clear();
+    }
+
+    @Test
+    public void testHandle() {
+        for (int i = 0; i < 10; i++) {
+            handle(new TestRequest("/fast"));
+        }
+        handle(new TestRequest("/slow"));
+        handle("plain");
+
+        final Map<String, LatencyHistogram> histograms = LatencyHistogramHandler.getHistograms();
+        assertThat(histograms.keySet(), hasItems("/fast", "/slow", String.class.getName()));
+        assertThat(histograms.get("/fast")
+                             .getCount(), is(10L));
+        assertTrue(histograms.get("/fast")
+                             .getThroughput() > 0);
+
+        LatencyHistogramHandler.assertP99Below("/fast", 1, TimeUnit.MINUTES);
+        try {
+            LatencyHistogramHandler.assertP99Below("/slow", 1, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("latency exceeded the limit."));
+        }
+        try {
+            LatencyHistogramHandler.assertP99Below("/unknown", 1, TimeUnit.MINUTES);
+            fail();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("no invocation recorded."));
+        }
+    }
+
+    @Test
+    public void testPercentile() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getP99(TimeUnit.NANOSECONDS), is(0L));
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(0, TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertThat(histogram.getCount(), is(1000L));
+        assertWithinPrecision(histogram.getP50(TimeUnit.NANOSECONDS), 500000);
+        assertWithinPrecision(histogram.getP99(TimeUnit.NANOSECONDS), 990000);
+        assertWithinPrecision(histogram.getP999(TimeUnit.NANOSECONDS), 999000);
+        assertThat(histogram.getPercentile(100, TimeUnit.MICROSECONDS), is(1000L));
+        assertThat(histogram.getMax(TimeUnit.MICROSECONDS), is(1000L));
+    }
+
+    @Test
+    public void testThroughput() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getThroughput(), is(0.0));
+        // System.nanoTime()は負の値となり得る。また、開始の遅い呼び出しが先に記録される場合がある
+        final long base = -TimeUnit.SECONDS.toNanos(10);
+        histogram.record(base + TimeUnit.MILLISECONDS.toNanos(500), base + TimeUnit.MILLISECONDS.toNanos(600));
+        histogram.record(base, base + TimeUnit.MILLISECONDS.toNanos(100));
+        histogram.record(base + TimeUnit.MILLISECONDS.toNanos(200), base + TimeUnit.SECONDS.toNanos(1));
+        histogram.record(base + TimeUnit.MILLISECONDS.toNanos(300), base + TimeUnit.MILLISECONDS.toNanos(400));
+        assertThat("最も早い開始から最も遅い終了までの1秒で4件", histogram.getThroughput(), is(4.0));
+    }
+
+    @Test
+    public void testBucketIndex() {
+        long previous = -1;
+        for (long value : new long[] {0, 1, 255, 256, 257, 511, 512, 1000, 123456789, Long.MAX_VALUE}) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            assertTrue("値の昇順にバケットが並ぶこと", index >= previous);
+            assertTrue("バケットの上限が値以上であること", LatencyHistogram.highestEquivalentValue(index) >= value);
+            assertTrue("相対誤差が1/128以下であること",
+                    LatencyHistogram.highestEquivalentValue(index) - value <= value / 128);
+            previous = index;
+        }
+    }
+
+    private static void assertWithinPrecision(long actual, long expected) {
+        assertTrue("actual = " + actual, actual >= expected && actual <= expected + expected / 128);
+    }
+
+    private static void handle(final Object data) {
+        new ExecutionContext().addHandler(new LatencyHistogramHandler())
+                              .addHandler(new Handler<Object, Object>() {
+                                  @Override
+                                  public Object handle(Object input, ExecutionContext context) {
+                                      if (input instanceof Request && "/slow".equals(
+                                              ((Request<?>) input).getRequestPath())) {
+                                          try {
+                                              Thread.sleep(20);
+                                          } catch (InterruptedException e) {
+                                              Thread.currentThread()
+                                                    .interrupt();
+                                          }
+                                      }
+                                      return input;
+                                  }
+                              })
+                              .handleNext(data);
+    }
+
+    private static final class TestRequest implements Request<Object> {
+
+        private String requestPath;
+
+        private TestRequest(String requestPath) {
+            this.requestPath = requestPath;
+        }
+
+        @Override
+        public String getRequestPath() {
+            return requestPath;
+        }
+
+        @Override
+        public Request<Object> setRequestPath(String requestPath) {
+            this.requestPath = requestPath;
+            return this;
+        }
+
+        @Override
+        public Object getParam(String name) {
+            return null;
+        }
+
+        @Override
+        public Map<String, Object> getParamMap() {
+            return Collections.emptyMap();
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package nablarch.test.support.log.app;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nablarch.core.log.LogSettings;
+import nablarch.core.log.basic.LogContext;
+import nablarch.core.log.basic.LogLevel;
+import nablarch.core.log.basic.ObjectSettings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OnMemoryLogWriterTest {
+
+    private static final String SETTINGS = "classpath:nablarch/test/support/log/app/log.properties";
+
+    @Before
+    public void setUp() {
+        OnMemoryLogWriter.clear();
+    }
+
+    @After
+    public void tearDown() {
+        OnMemoryLogWriter.clear();
+    }
+
+    @Test
+    public void testWrite() {
+        final OnMemoryLogWriter writer = createWriter("memory");
+        final List<String> messages = OnMemoryLogWriter.getMessages("writer.memory");
+        write(writer, "first");
+        write(writer, "second");
+
+        assertThat("取得済みのリストから以降のログも参照できること", trim(messages), is(Arrays.asList("first", "second")));
+        OnMemoryLogWriter.assertLogContains("writer.memory", "sec", "fir");
+
+        OnMemoryLogWriter.clear();
+        assertThat(messages.size(), is(0));
+        write(writer, "third");
+        assertThat(trim(messages), is(Arrays.asList("third")));
+
+        writer.terminate();
+        assertThat(trim(messages), is(Arrays.asList("third", "@@@END@@@")));
+    }
+
+    @Test
+    public void testAssertLogContains() {
+        final OnMemoryLogWriter writer = createWriter("memory");
+        write(writer, "ushers");
+        write(writer, "abcabd");
+
+        OnMemoryLogWriter.assertLogContains("writer.memory", "she", "he", "hers", "us", "abd", "cab", "");
+        try {
+            OnMemoryLogWriter.assertLogContains("writer.memory", "she", "rsab");
+            fail("行をまたいだ文字列は見つからないこと");
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("expected = [she, rsab]"));
+        }
+    }
+
+    @Test
+    public void testAssertLogContainsSince() {
+        final OnMemoryLogWriter writer = createWriter("memory");
+        write(writer, "before");
+        final long mark = OnMemoryLogWriter.mark("writer.memory");
+        write(writer, "after");
+
+        OnMemoryLogWriter.assertLogContainsSince("writer.memory", mark, "after");
+        assertThat(trim(OnMemoryLogWriter.getMessagesSince("writer.memory", mark)), is(Arrays.asList("after")));
+        try {
+            OnMemoryLogWriter.assertLogContainsSince("writer.memory", mark, "before");
+            fail("位置より前のログは検証対象外であること");
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("expected = [before]"));
+        }
+    }
+
+    @Test
+    public void testAssertLogContainsSinceAfterClear() {
+        final OnMemoryLogWriter writer = createWriter("memory");
+        write(writer, "before1");
+        write(writer, "before2");
+        final long mark = OnMemoryLogWriter.mark("writer.memory");
+        OnMemoryLogWriter.clear();
+        for (int i = 1; i <= 4; i++) {
+            write(writer, "after" + i);
+        }
+
+        assertThat("位置を取得した後にクリアされた場合は全てのログを対象とすること",
+                trim(OnMemoryLogWriter.getMessagesSince("writer.memory", mark)),
+                is(Arrays.asList("after1", "after2", "after3", "after4")));
+        OnMemoryLogWriter.assertLogContainsSince("writer.memory", mark, "after1", "after2");
+    }
+
+    @Test
+    public void testAssertLogContainsSinceWithRingBuffer() {
+        final OnMemoryLogWriter writer = createWriter("ring");
+        write(writer, "message1");
+        write(writer, "message2");
+        final long mark = OnMemoryLogWriter.mark("writer.ring");
+        write(writer, "message3");
+        write(writer, "message4");
+
+        assertThat(trim(OnMemoryLogWriter.getMessagesSince("writer.ring", mark)),
+                is(Arrays.asList("message3", "message4")));
+        OnMemoryLogWriter.assertLogContainsSince("writer.ring", mark, "message3", "message4");
+    }
+
+    @Test
+    public void testSpillToDisk() throws Exception {
+        final OnMemoryLogWriter writer = createWriter("spill");
+        for (int i = 0; i < 50; i++) {
+            write(writer, "message" + i + " 日本語");
+        }
+        final List<String> messages = trim(OnMemoryLogWriter.getMessages("writer.spill"));
+        assertThat(messages.size(), is(50));
+        for (int i = 0; i < 50; i++) {
+            assertThat(messages.get(i), is("message" + i + " 日本語"));
+        }
+        OnMemoryLogWriter.assertLogContains("writer.spill", "message0 ", "message49");
+    }
+
+    @Test
+    public void testSpillingLogBuffer() throws Exception {
+        final SpillingLogBuffer buffer = new SpillingLogBuffer(4, null, 0);
+        try {
+            for (int i = 0; i < 50; i++) {
+                buffer.add("line" + i);
+            }
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (buffer.getSpilledSegmentCount() < 12 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat("全ての位置が書き込まれたセグメントがファイルに書き出されること", buffer.getSpilledSegmentCount(), is(12));
+            assertThat(buffer.size(), is(50));
+            for (int i = 0; i < 50; i++) {
+                assertThat(buffer.get(i), is("line" + i));
+            }
+        } finally {
+            buffer.close();
+        }
+        buffer.add("ignored");
+        assertThat("クローズ後のログは破棄されること", buffer.size(), is(50));
+    }
+
+    @Test
+    public void testSpillingLogBufferRejectsNull() throws Exception {
+        final SpillingLogBuffer buffer = new SpillingLogBuffer(4, null, 0);
+        try {
+            buffer.add(null);
+            fail();
+        } catch (NullPointerException e) {
+            assertThat(e.getMessage(), is("message must not be null."));
+        } finally {
+            buffer.close();
+        }
+        assertThat("nullは位置を予約しないこと", buffer.size(), is(0));
+    }
+
+    @Test
+    public void testSpillingLogBufferSharesSpiller() throws Exception {
+        final List<SpillingLogBuffer> buffers = new ArrayList<SpillingLogBuffer>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                final SpillingLogBuffer buffer = new SpillingLogBuffer(2, null, 0);
+                buffers.add(buffer);
+                for (int j = 0; j < 10; j++) {
+                    buffer.add("line" + j);
+                }
+            }
+            final long deadline = System.currentTimeMillis() + 5000;
+            for (SpillingLogBuffer buffer : buffers) {
+                while (buffer.getSpilledSegmentCount() < 5 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertThat(buffer.getSpilledSegmentCount(), is(5));
+                assertThat(buffer.get(9), is("line9"));
+            }
+            int spillers = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("log-spiller-")) {
+                    spillers++;
+                }
+            }
+            assertThat("書き出しを行うスレッドは全てのバッファで共有すること", spillers <= 1, is(true));
+        } finally {
+            for (SpillingLogBuffer buffer : buffers) {
+                buffer.close();
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentWrite() throws Exception {
+        final OnMemoryLogWriter writer = createWriter("memory");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < 5000; j++) {
+                            write(writer, thread + "-" + j);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        final List<String> messages = trim(OnMemoryLogWriter.getMessages("writer.memory"));
+        assertThat(messages.size(), is(40000));
+        assertThat(new HashSet<String>(messages).size(), is(40000));
+        assertThat(messages, hasItems("0-0", "7-4999"));
+    }
+
+    @Test
+    public void testEvictOldest() {
+        final OnMemoryLogWriter writer = createWriter("ring");
+        for (int i = 1; i <= 5; i++) {
+            write(writer, "message" + i);
+        }
+        assertThat(trim(OnMemoryLogWriter.getMessages("writer.ring")),
+                is(Arrays.asList("message3", "message4", "message5")));
+        assertThat(OnMemoryLogWriter.getEvictedCount("writer.ring"), is(2L));
+    }
+
+    @Test
+    public void testEvictNewest() {
+        final OnMemoryLogWriter writer = createWriter("newest");
+        for (int i = 1; i <= 5; i++) {
+            write(writer, "message" + i);
+        }
+        assertThat(trim(OnMemoryLogWriter.getMessages("writer.newest")),
+                is(Arrays.asList("message1", "message2", "message3")));
+        assertThat(OnMemoryLogWriter.getEvictedCount("writer.newest"), is(2L));
+    }
+
+    @Test
+    public void testQuery() {
+        final OnMemoryLogWriter writer = createWriter("structured");
+        writer.write(new LogContext("SQL", LogLevel.DEBUG, "select", null));
+        writer.write(new LogContext("app", LogLevel.INFO, "started", null));
+        writer.write(new LogContext("app", LogLevel.ERROR, "failed", null));
+        writer.write(new LogContext("SQL", LogLevel.ERROR, "deadlock", null));
+        writer.write(new LogContext("app", LogLevel.TRACE, "ignored", null));
+
+        assertThat("出力レベル未満のログは保持しないこと", OnMemoryLogWriter.query("writer.structured")
+                                                                  .count(), is(4));
+        assertThat(OnMemoryLogWriter.query("writer.structured")
+                                    .level(LogLevel.ERROR, LogLevel.FATAL)
+                                    .messages(), is(Arrays.asList("failed", "deadlock")));
+        assertThat(OnMemoryLogWriter.query("writer.structured")
+                                    .logger("SQL")
+                                    .messages(), is(Arrays.asList("select", "deadlock")));
+        assertThat(OnMemoryLogWriter.query("writer.structured")
+                                    .logger("SQL")
+                                    .level(LogLevel.DEBUG)
+                                    .messages(), is(Arrays.asList("select")));
+        assertThat("出力されていないロガー名は一致しないこと", OnMemoryLogWriter.query("writer.structured")
+                                                                     .logger("unknown")
+                                                                     .count(), is(0));
+
+        final CapturedLog log = OnMemoryLogWriter.query("writer.structured")
+                                                 .level(LogLevel.INFO)
+                                                 .list()
+                                                 .get(0);
+        assertThat(log.getLoggerName(), is("app"));
+        assertThat(log.getThreadName(), is(Thread.currentThread()
+                                                 .getName()));
+        assertThat(log.getMessage(), is("started"));
+
+        OnMemoryLogWriter.query("writer.structured")
+                         .logger("app")
+                         .assertContains("fail", "start");
+        try {
+            OnMemoryLogWriter.query("writer.structured")
+                             .logger("app")
+                             .assertContains("deadlock");
+            fail();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("deadlock"));
+        }
+
+        assertThat("構造化しないライタは検索結果が空となること", OnMemoryLogWriter.query("writer.memory")
+                                                                      .count(), is(0));
+        OnMemoryLogWriter.clear();
+        assertThat(OnMemoryLogWriter.query("writer.structured")
+                                    .count(), is(0));
+    }
+
+    @Test
+    public void testAssertOrderedPerThread() throws Exception {
+        final OnMemoryLogWriter writer = createWriter("structured");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < 100; j++) {
+                            write(writer, "begin");
+                            write(writer, "process");
+                            write(writer, "end");
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(OnMemoryLogWriter.query("writer.structured")
+                                    .count(), is(1200));
+        OnMemoryLogWriter.query("writer.structured")
+                         .assertOrderedPerThread("begin", "process", "end");
+
+        write(writer, "process");
+        try {
+            OnMemoryLogWriter.query("writer.structured")
+                             .assertOrderedPerThread("begin", "process", "end");
+            fail();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("out of order"));
+        }
+    }
+
+    @Test
+    public void testStructuredWithCapacity() {
+        try {
+            createWriter("boundedStructured");
+            fail("構造化したログは容量の上限と同時に指定できないこと");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("structured cannot be specified with capacity or spillToDisk"));
+        }
+    }
+
+    @Test
+    public void testSkipInitializedMessage() {
+        final OnMemoryLogWriter writer = createWriter("structured");
+        write(writer, "initialized." + System.getProperty("line.separator") + "\tWRITER = [writer.structured]");
+        write(writer, "component initialized.");
+        assertThat("初期化時のログのみ保持しないこと", trim(OnMemoryLogWriter.getMessages("writer.structured")),
+                is(Arrays.asList("component initialized.")));
+        assertThat(OnMemoryLogWriter.query("writer.structured")
+                                    .messages(), is(Arrays.asList("component initialized.")));
+    }
+
+    private static OnMemoryLogWriter createWriter(String name) {
+        final OnMemoryLogWriter writer = new OnMemoryLogWriter();
+        writer.initialize(new ObjectSettings(new LogSettings(SETTINGS), "writer." + name));
+        return writer;
+    }
+
+    private static List<String> trim(List<String> messages) {
+        final List<String> trimmed = new ArrayList<String>();
+        for (String message : messages) {
+            trimmed.add(message.trim());
+        }
+        return trimmed;
+    }
+
+    private static void write(OnMemoryLogWriter writer, String message) {
+        writer.write(new LogContext("test", LogLevel.INFO, message, null));
+    }
+}
@@ -0,0 +1,90 @@
+package nablarch.test.support.log.app;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * {@link RingLogBuffer}の単体テスト。
+ */
+public class RingLogBufferTest {
+
+    private static final int WRITERS = 2;
+
+    private static final int COUNT = 200000;
+
+    @Test
+    public void testConcurrentWrapAround() throws Exception {
+        final RingLogBuffer buffer = new RingLogBuffer(4, RingLogBuffer.EvictionPolicy.OLDEST, 0);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+        try {
+            final Future<Integer> reader = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int passes = 0;
+                    while (writing.get()) {
+                        assertIncreasingPerWriter(buffer);
+                        passes++;
+                    }
+                    return passes;
+                }
+            });
+            final List<Future<Void>> writers = new ArrayList<Future<Void>>();
+            for (int i = 0; i < WRITERS; i++) {
+                final int writer = i;
+                writers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < COUNT; j++) {
+                            buffer.add(writer + "-" + j);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : writers) {
+                future.get();
+            }
+            writing.set(false);
+            assertTrue(reader.get() > 0);
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(buffer.size(), is(4));
+        assertThat(buffer.getEvictedCount(), is((long) WRITERS * COUNT - 4));
+        assertIncreasingPerWriter(buffer);
+    }
+
+    /**
+     * 1回の走査で、破棄済みのログや重複したログが返されないことを検証する。
+     * <p>
+     * 書き込み側はそれぞれ連番を昇順に追加するため、走査中に上書きされても、同じ書き込み側の連番は増加し続ける。
+     * </p>
+     */
+    private static void assertIncreasingPerWriter(RingLogBuffer buffer) {
+        final int[] last = new int[WRITERS];
+        Arrays.fill(last, -1);
+        final int size = buffer.size();
+        for (int i = 0; i < size; i++) {
+            final String[] message = buffer.get(i)
+                                           .split("-");
+            final int writer = Integer.parseInt(message[0]);
+            final int sequence = Integer.parseInt(message[1]);
+            assertTrue("writer = " + writer + ", last = " + last[writer] + ", actual = " + sequence,
+                    sequence > last[writer]);
+            last[writer] = sequence;
+        }
+    }
+}
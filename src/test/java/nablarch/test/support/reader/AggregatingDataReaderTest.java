@@ -0,0 +1,438 @@
+package nablarch.test.support.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+import org.junit.Test;
+
+/**
+ * {@link AggregatingDataReader}の単体テスト。
+ */
+public class AggregatingDataReaderTest {
+
+    @Test
+    public void testRead() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(new ListReader(records(3, 2)));
+
+        final List<List<Map<String, Object>>> groups = readAll(reader, ctx);
+        assertThat(groups.size(), is(3));
+        for (int i = 0; i < groups.size(); i++) {
+            assertGroup(groups.get(i), i, 2);
+        }
+        assertThat(reader.read(ctx), is(nullValue()));
+    }
+
+    @Test
+    public void testGroupChunk() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(new ListReader(records(2, 3)));
+
+        final List<Map<String, Object>> first = reader.read(ctx);
+        final GroupChunk<Map<String, Object>> chunk = GroupChunk.of(first);
+        assertThat(chunk.getGroupNumber(), is(1L));
+        assertThat(chunk.isFirstChunk(), is(true));
+        assertThat(chunk.isLastChunk(), is(true));
+        assertThat(GroupChunk.of(reader.read(ctx))
+                             .getGroupNumber(), is(2L));
+        try {
+            GroupChunk.of(new ArrayList<Object>());
+            fail();
+        } catch (IllegalArgumentException ignore) {
+            // NOP
+        }
+    }
+
+    @Test
+    public void testMaxChunkRows() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(new ListReader(records(2, 5)))
+                .setMaxChunkRows(2);
+
+        final List<List<Map<String, Object>>> chunks = readAllChunks(reader, ctx);
+        assertThat(chunks.size(), is(6));
+        assertChunk(chunks.get(0), 1, 0, false, 2);
+        assertChunk(chunks.get(1), 1, 1, false, 2);
+        assertChunk(chunks.get(2), 1, 2, true, 1);
+        assertChunk(chunks.get(3), 2, 0, false, 2);
+        assertChunk(chunks.get(4), 2, 1, false, 2);
+        assertChunk(chunks.get(5), 2, 2, true, 1);
+        assertThat(chunks.get(2)
+                         .get(0)
+                         .get("seq"), is((Object) 4));
+    }
+
+    @Test
+    public void testMaxChunkRowsAtGroupBoundary() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(new ListReader(records(2, 2)))
+                .setMaxChunkRows(2);
+
+        final List<List<Map<String, Object>>> chunks = readAllChunks(reader, ctx);
+        assertThat("上限ちょうどで終わるグループは分割しないこと", chunks.size(), is(2));
+        assertChunk(chunks.get(0), 1, 0, true, 2);
+        assertChunk(chunks.get(1), 2, 0, true, 2);
+    }
+
+    @Test
+    public void testMaxChunkBytes() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>() {
+            @Override
+            protected long estimateSize(Map<String, Object> data) {
+                return 100;
+            }
+        }.setWatchedKeys("group")
+         .setSourceDataReader(new ListReader(records(1, 5)))
+         .setMaxChunkBytes(250);
+
+        final List<List<Map<String, Object>>> chunks = readAllChunks(reader, ctx);
+        assertThat(chunks.size(), is(3));
+        assertChunk(chunks.get(0), 1, 0, false, 2);
+        assertChunk(chunks.get(1), 1, 1, false, 2);
+        assertChunk(chunks.get(2), 1, 2, true, 1);
+    }
+
+    @Test
+    public void testMaxChunkWait() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(new ListReader(records(1, 3)) {
+                    @Override
+                    public Map<String, Object> read(ExecutionContext ctx) {
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread()
+                                  .interrupt();
+                        }
+                        return super.read(ctx);
+                    }
+                })
+                .setMaxChunkWaitMillis(1);
+
+        final List<List<Map<String, Object>>> chunks = readAllChunks(reader, ctx);
+        assertThat(chunks.size(), is(3));
+        assertChunk(chunks.get(2), 1, 2, true, 1);
+    }
+
+    @Test
+    public void testBufferPool() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
+        records.addAll(records(1, 2));
+        for (Map<String, Object> record : records(2, 100)) {
+            if (record.get("group")
+                      .equals(1)) {
+                records.add(record);
+            }
+        }
+        for (Map<String, Object> record : records(4, 2)) {
+            if ((Integer) record.get("group") >= 2) {
+                records.add(record);
+            }
+        }
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(new ListReader(records))
+                .setBufferPoolSize(2);
+
+        final List<Map<String, Object>> first = reader.read(ctx);
+        assertGroup(first, 0, 2);
+        reader.release(first);
+        try {
+            reader.release(first);
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("chunk was already released."));
+        }
+
+        final List<Map<String, Object>> huge = reader.read(ctx);
+        assertGroup(huge, 1, 100);
+        reader.release(huge);
+
+        final List<Map<String, Object>> third = reader.read(ctx);
+        assertThat("返却したバッファを再利用すること", third, is(sameInstance(first)));
+        assertGroup(third, 2, 2);
+        assertThat(GroupChunk.of(third)
+                             .getGroupNumber(), is(3L));
+        assertThat(GroupChunk.of(third)
+                             .isLastChunk(), is(true));
+        reader.release(third);
+
+        final List<Map<String, Object>> fourth = reader.read(ctx);
+        assertGroup(fourth, 3, 2);
+        assertThat("件数が極端に多いバッファは再利用しないこと", fourth, is(not(sameInstance(huge))));
+        assertThat(reader.read(ctx), is(nullValue()));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        final ExecutionContext ctx = new ExecutionContext();
+        final ListReader source = new ListReader(records(1000, 5));
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(source)
+                .setPrefetchSize(8);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<List<Map<String, Object>>> groups =
+                Collections.synchronizedList(new ArrayList<List<Map<String, Object>>>());
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        while (reader.hasNext(ctx)) {
+                            final List<Map<String, Object>> group = reader.read(ctx);
+                            if (group != null) {
+                                groups.add(group);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(groups.size(), is(1000));
+        final boolean[] seen = new boolean[1000];
+        for (List<Map<String, Object>> group : groups) {
+            final int id = (Integer) group.get(0)
+                                          .get("group");
+            assertGroup(group, id, 5);
+            seen[id] = true;
+        }
+        for (boolean b : seen) {
+            assertThat(b, is(true));
+        }
+        assertThat("終端に達した後は全てのスレッドがnullを受け取ること", reader.read(ctx), is(nullValue()));
+
+        reader.close(ctx);
+        assertThat(source.closed, is(true));
+    }
+
+    @Test
+    public void testPrefetchFailure() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(new ListReader(records(3, 2)) {
+                    @Override
+                    public Map<String, Object> read(ExecutionContext ctx) {
+                        final Map<String, Object> record = super.read(ctx);
+                        if (record != null && record.get("group")
+                                                    .equals(2)) {
+                            throw new IllegalStateException("read failed.");
+                        }
+                        return record;
+                    }
+                })
+                .setPrefetchSize(1);
+
+        assertGroup(reader.read(ctx), 0, 2);
+        for (int i = 0; i < 2; i++) {
+            try {
+                reader.read(ctx);
+                fail();
+            } catch (IllegalStateException e) {
+                assertThat("読み込みで発生した例外が全ての呼び出しに送出されること", e.getMessage(), is("read failed."));
+            }
+        }
+        reader.close(ctx);
+    }
+
+    @Test
+    public void testClosePrefetchingReader() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final ListReader source = new ListReader(records(100, 1));
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(source)
+                .setPrefetchSize(2);
+
+        assertGroup(reader.read(ctx), 0, 1);
+        reader.close(ctx);
+        assertThat("先読みを停止してから閉じること", source.closed, is(true));
+    }
+
+    @Test
+    public void testPrefetchDoesNotWriteCallerRequestScope() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(new ListReader(records(3, 2)))
+                .setPrefetchSize(1);
+
+        final List<List<Map<String, Object>>> groups = readAllChunks(reader, ctx);
+        assertThat(groups.size(), is(3));
+        assertThat("先読みを行うスレッドから呼び出し元のリクエストスコープに書き込まないこと",
+                ctx.getRequestScopeMap().isEmpty(), is(true));
+        assertThat(ControlBreakReader.getControlBreak(ctx), is(nullValue()));
+        assertThat("コントロールブレイクはグループから取得できること",
+                ControlBreakReader.getControlBreak(groups.get(2)), is(not(nullValue())));
+        reader.close(ctx);
+    }
+
+    @Test
+    public void testCloseWakesWaitingReader() throws Exception {
+        final ExecutionContext ctx = new ExecutionContext();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AggregatingDataReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>()
+                .setWatchedKeys("group")
+                .setSourceDataReader(new ListReader(records(1, 1)) {
+                    @Override
+                    public Map<String, Object> read(ExecutionContext ctx) {
+                        blocked.countDown();
+                        try {
+                            // 停止が要求されるまで読み込みが完了しない
+                            new CountDownLatch(1).await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return null;
+                    }
+                })
+                .setPrefetchSize(1);
+
+        final List<Map<String, Object>> initial = Collections.emptyList();
+        final AtomicReference<List<Map<String, Object>>> result =
+                new AtomicReference<List<Map<String, Object>>>(initial);
+        final Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(reader.read(ctx));
+            }
+        });
+        worker.start();
+        assertThat(blocked.await(10, TimeUnit.SECONDS), is(true));
+        while (worker.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        reader.close(ctx);
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+        assertThat("閉じた場合は取り出しを待機しているスレッドが復帰すること", worker.isAlive(), is(false));
+        assertThat("終端に達したものとしてnullが返却されること", result.get(), is(nullValue()));
+        assertThat(reader.read(ctx), is(nullValue()));
+    }
+
+    static List<List<Map<String, Object>>> readAll(DataReader<List<Map<String, Object>>> reader,
+            ExecutionContext ctx) {
+        final List<List<Map<String, Object>>> groups = new ArrayList<List<Map<String, Object>>>();
+        while (reader.hasNext(ctx)) {
+            final List<Map<String, Object>> group = reader.read(ctx);
+            if (group != null) {
+                groups.add(new ArrayList<Map<String, Object>>(group));
+            }
+        }
+        return groups;
+    }
+
+    static List<List<Map<String, Object>>> readAllChunks(DataReader<List<Map<String, Object>>> reader,
+            ExecutionContext ctx) {
+        final List<List<Map<String, Object>>> chunks = new ArrayList<List<Map<String, Object>>>();
+        while (reader.hasNext(ctx)) {
+            final List<Map<String, Object>> chunk = reader.read(ctx);
+            if (chunk != null) {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    static void assertChunk(List<Map<String, Object>> data, long groupNumber, int chunkNumber, boolean last,
+            int size) {
+        final GroupChunk<Map<String, Object>> chunk = GroupChunk.of(data);
+        assertThat(chunk.getGroupNumber(), is(groupNumber));
+        assertThat(chunk.getChunkNumber(), is(chunkNumber));
+        assertThat(chunk.isLastChunk(), is(last));
+        assertThat(chunk.size(), is(size));
+    }
+
+    static void assertGroup(List<Map<String, Object>> group, int id, int size) {
+        assertThat(group.size(), is(size));
+        for (int i = 0; i < size; i++) {
+            assertThat(group.get(i)
+                            .get("group"), is((Object) id));
+            assertThat(group.get(i)
+                            .get("seq"), is((Object) i));
+        }
+    }
+
+    static List<Map<String, Object>> records(int groups, int size) {
+        final List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
+        for (int group = 0; group < groups; group++) {
+            for (int seq = 0; seq < size; seq++) {
+                final Map<String, Object> record = new HashMap<String, Object>();
+                record.put("group", group);
+                record.put("seq", seq);
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    static class ListReader implements DataReader<Map<String, Object>> {
+
+        private final List<Map<String, Object>> records;
+
+        private int index;
+
+        private volatile boolean closed;
+
+        ListReader(List<Map<String, Object>> records) {
+            this.records = records;
+        }
+
+        @Override
+        public Map<String, Object> read(ExecutionContext ctx) {
+            return index < records.size() ? records.get(index++) : null;
+        }
+
+        @Override
+        public boolean hasNext(ExecutionContext ctx) {
+            return index < records.size();
+        }
+
+        @Override
+        public void close(ExecutionContext ctx) {
+            closed = true;
+        }
+    }
+}
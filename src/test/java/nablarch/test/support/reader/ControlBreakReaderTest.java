@@ -0,0 +1,174 @@
+package nablarch.test.support.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.core.db.statement.SqlRow;
+import nablarch.fw.ExecutionContext;
+import nablarch.test.support.reader.AggregatingDataReaderTest.ListReader;
+
+import org.junit.Test;
+
+/**
+ * {@link ControlBreakReader}の単体テスト。
+ */
+public class ControlBreakReaderTest {
+
+    @Test
+    public void testSqlRow() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        rows.add(row(1L, "A", 1));
+        rows.add(row(1L, "A", 2));
+        rows.add(row(1L, "B", 3));
+        rows.add(row(2L, "B", 4));
+        rows.add(row(2L, null, 5));
+        rows.add(row(2L, null, 6));
+        final ControlBreakReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>();
+        reader.setWatchedKeys("userId", "itemId")
+              .setSourceDataReader(new ListReader(rows));
+
+        assertThat(seqOf(reader.read(ctx)), is("1,2"));
+        assertThat(ControlBreakReader.getControlBreakKey(ctx), is("itemId"));
+        assertThat(ControlBreakReader.getPreviousValue(ctx), is((Object) "A"));
+
+        assertThat(seqOf(reader.read(ctx)), is("3"));
+        assertThat(ControlBreakReader.getControlBreakKey(ctx), is("userId"));
+        assertThat(ControlBreakReader.getPreviousValue(ctx), is((Object) 1L));
+
+        assertThat(seqOf(reader.read(ctx)), is("4"));
+        assertThat(ControlBreakReader.getControlBreakKey(ctx), is("itemId"));
+
+        assertThat("nullも値として比較すること", seqOf(reader.read(ctx)), is("5,6"));
+        assertThat(ControlBreakReader.getPreviousValue(ctx), is((Object) 2L));
+        assertThat(reader.read(ctx), is(nullValue()));
+    }
+
+    @Test
+    public void testMixedValueTypes() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (Object key : new Object[] {1L, 1L, 1, 1, "1", "1", null, 1L}) {
+            final Map<String, Object> row = new HashMap<String, Object>();
+            row.put("key", key);
+            rows.add(row);
+        }
+        final ControlBreakReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>();
+        reader.setWatchedKeys("key")
+              .setSourceDataReader(new ListReader(rows));
+
+        final List<Integer> sizes = new ArrayList<Integer>();
+        List<Map<String, Object>> group;
+        while ((group = reader.read(ctx)) != null) {
+            sizes.add(group.size());
+        }
+        assertThat("型の異なる値は別のグループとすること", sizes.toString(), is("[2, 2, 2, 1, 1]"));
+    }
+
+    @Test
+    public void testMultiLevelBreakWithSubtotals() {
+        final ExecutionContext ctx = new ExecutionContext();
+        final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        rows.add(sale("east", "tokyo", 100));
+        rows.add(sale("east", "tokyo", 200));
+        rows.add(sale("east", "chiba", 30));
+        rows.add(sale("west", "osaka", 4));
+        rows.add(sale("west", "osaka", 5));
+        final ControlBreakReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>();
+        reader.setWatchedKeys("region", "branch")
+              .setAggregator(new ControlBreakAggregator<Map<String, Object>, Long>() {
+                  public Long initialValue(int level) {
+                      return 0L;
+                  }
+
+                  public Long accumulate(Long subtotal, Map<String, Object> data, int level) {
+                      return subtotal + (Integer) data.get("amount");
+                  }
+              })
+              .setSourceDataReader(new ListReader(rows));
+
+        List<Map<String, Object>> group = reader.read(ctx);
+        ControlBreak controlBreak = ControlBreakReader.getControlBreak(group);
+        assertThat(controlBreak.getLevel(), is(1));
+        assertThat(controlBreak.getBreakKey(), is("branch"));
+        assertThat(controlBreak.isBroken("region"), is(false));
+        assertThat(controlBreak.getPreviousValue("branch"), is((Object) "tokyo"));
+        assertThat(controlBreak.<Long>getSubtotal("branch"), is(300L));
+        assertThat("終了していない階層の集計値は取得できないこと", controlBreak.getSubtotal("region"), is(nullValue()));
+        assertThat(ControlBreakReader.getControlBreak(ctx), is(controlBreak));
+
+        group = reader.read(ctx);
+        controlBreak = ControlBreakReader.getControlBreak(group);
+        assertThat("上位の階層で発生した場合は下位の階層も終了すること", controlBreak.getLevel(), is(0));
+        assertThat(controlBreak.isBroken("branch"), is(true));
+        assertThat(controlBreak.getPreviousValue("region"), is((Object) "east"));
+        assertThat(controlBreak.getPreviousValue("branch"), is((Object) "chiba"));
+        assertThat(controlBreak.<Long>getSubtotal(0), is(330L));
+        assertThat(controlBreak.<Long>getSubtotal(1), is(30L));
+        assertThat(ControlBreakReader.getControlBreakKey(ctx), is("region"));
+
+        group = reader.read(ctx);
+        controlBreak = ControlBreakReader.getControlBreak(group);
+        assertThat(controlBreak, is(notNullValue()));
+        assertThat(controlBreak.isEnd(), is(true));
+        assertThat(controlBreak.getLevel(), is(0));
+        assertThat(controlBreak.getPreviousValue("region"), is((Object) "west"));
+        assertThat(controlBreak.<Long>getSubtotal("region"), is(9L));
+        assertThat(controlBreak.<Long>getSubtotal("branch"), is(9L));
+        assertThat(reader.read(ctx), is(nullValue()));
+    }
+
+    @Test
+    public void testWithoutAggregator() {
+        final ControlBreak controlBreak = readSingleGroup();
+        assertThat("集計処理を設定しない場合は集計値がないこと", controlBreak.getSubtotal("region"), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotWatchedKey() {
+        readSingleGroup().getPreviousValue("branch");
+    }
+
+    private static ControlBreak readSingleGroup() {
+        final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        rows.add(sale("east", "tokyo", 1));
+        final ControlBreakReader<Map<String, Object>> reader = new ControlBreakReader<Map<String, Object>>();
+        reader.setWatchedKeys("region")
+              .setSourceDataReader(new ListReader(rows));
+        return ControlBreakReader.getControlBreak(reader.read(new ExecutionContext()));
+    }
+
+    private static Map<String, Object> sale(String region, String branch, int amount) {
+        final Map<String, Object> data = new HashMap<String, Object>();
+        data.put("region", region);
+        data.put("branch", branch);
+        data.put("amount", amount);
+        return data;
+    }
+
+    private static String seqOf(List<Map<String, Object>> group) {
+        final StringBuilder sb = new StringBuilder();
+        for (Map<String, Object> row : group) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(row.get("seq"));
+        }
+        return sb.toString();
+    }
+
+    private static SqlRow row(Long userId, String itemId, int seq) {
+        final Map<String, Object> data = new HashMap<String, Object>();
+        data.put("USER_ID", userId);
+        data.put("ITEM_ID", itemId);
+        data.put("SEQ", seq);
+        return new SqlRow(data, new HashMap<String, Integer>());
+    }
+}